@@ -81,7 +81,10 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         // DONE
-        catalog.put(file.getId(), new TableDesc(file, name, pkeyField));
+        TableDesc replaced = catalog.put(file.getId(), new TableDesc(file, name, pkeyField));
+        if (replaced != null && replaced.getDbFile() != file) {
+            replaced.getDbFile().close();
+        }
         name2IdMap.put(name, file.getId());
     }
 
@@ -101,6 +104,19 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Removes a table from the catalog and closes its file, e.g. a temporary
+     * table that is no longer needed. Does nothing if the table is unknown.
+     */
+    public void removeTable(int tableid) {
+        TableDesc removed = catalog.remove(tableid);
+        if (removed == null) {
+            return;
+        }
+        name2IdMap.remove(removed.getName(), tableid);
+        removed.getDbFile().close();
+    }
+
     /**
      * Return the id of the table with a specified name,
      *
@@ -167,6 +183,9 @@ public class Catalog {
      */
     public void clear() {
         // DONE
+        for (TableDesc tableDesc : catalog.values()) {
+            tableDesc.getDbFile().close();
+        }
         catalog.clear();
         name2IdMap.clear();
     }
@@ -66,6 +66,8 @@ public class Database {
      */
     public static BufferPool resetBufferPool(int pages) {
         java.lang.reflect.Field bufferPoolF = null;
+        // the old buffer pool goes away, and with it its background writer
+        _instance.get()._bufferpool.stopPageCleaner();
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
@@ -77,8 +79,24 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /**
+     * Method used for testing -- replace the log file with the given one and
+     * return it
+     */
+    public static LogFile resetLogFile(LogFile logFile) {
+        try {
+            java.lang.reflect.Field logFileF = Database.class.getDeclaredField("_logfile");
+            logFileF.setAccessible(true);
+            logFileF.set(_instance.get(), logFile);
+        } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
+            e.printStackTrace();
+        }
+        return _instance.get()._logfile;
+    }
+
     // reset the database, used for unit tests only.
     public static void reset() {
+        _instance.get()._bufferpool.stopPageCleaner();
         _instance.set(new Database());
     }
 
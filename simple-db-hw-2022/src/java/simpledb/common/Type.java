@@ -7,6 +7,7 @@ import simpledb.storage.StringField;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /**
@@ -32,6 +33,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -50,6 +56,16 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte[] bs = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = buf.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -68,4 +84,15 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * Absolute-offset variant of {@link #parse(DataInputStream)}: reads a field
+     * starting at buf[offset] without moving the buffer's position, so pages
+     * can be decoded straight out of a (possibly memory-mapped) buffer.
+     *
+     * @param buf    The buffer to read from
+     * @param offset The byte offset of the field within buf
+     * @return a Field object of the same type as this object
+     */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
 }
@@ -0,0 +1,384 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Base class of the operators that move tuples between threads.
+ * <p>
+ * An exchange has a number of inputs and a number of outputs. Each input is
+ * run by a producer thread of its own, which reads it in batches and routes
+ * every tuple to one or more outputs; every output is an operator of its own
+ * (an instance of this class), read by its consumer on its own thread. Tuples
+ * travel in chunks through a bounded queue per output: a producer that finds
+ * the queue of a slow consumer full waits (backpressure), so no more than
+ * {@link #getQueueCapacity()} chunks per output are ever buffered.
+ * <p>
+ * The producers are started when the first output is opened and stopped once
+ * every output has been closed, so each output must be opened and closed by
+ * its consumer. An exchange with several outputs cannot be rewound.
+ * <p>
+ * The queues are instrumented: see {@link #getQueueDepth()},
+ * {@link #getMaxQueueDepth()}, {@link #getProducerWaits()} and
+ * {@link #getTuplesSent()}.
+ */
+public abstract class AbstractExchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    // chunks per output queue, per input
+    public static final int     DEFAULT_CHUNKS_PER_INPUT    = 4;
+
+    // producers block on queues most of the time, so threads are not capped
+    private static final ExecutorService    EXECUTOR    = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "simpledb-exchange");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // marks the end of one producer's output
+    private static final List<Tuple>        END         = Collections.emptyList();
+
+    /**
+     * Routes the selected rows of a batch to the outputs, appending each row
+     * to the chunk of every output it goes to.
+     */
+    interface Router {
+        void route(TupleBatch batch, List<Tuple>[] chunks);
+    }
+
+    private final Producers     producers;
+    private final int           output;
+
+    private transient Iterator<Tuple>   chunk;
+    // producers whose END this output has not seen yet
+    private transient int               running;
+
+    AbstractExchange(Producers producers, int output) {
+        this.producers  = producers;
+        this.output     = output;
+    }
+
+    /**
+     * @return a short description of the exchange, for query plans
+     */
+    public abstract String getName();
+
+    /**
+     * @return the index of this output among the outputs of the exchange
+     */
+    public int getOutput() {
+        return output;
+    }
+
+    public int getNumOutputs() {
+        return producers.numOutputs;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return producers.inputs[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        producers.open(output);
+        chunk   = null;
+        running = producers.inputs.length;
+    }
+
+    public void close() {
+        producers.close(output);
+        chunk = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        producers.rewind();
+        chunk   = null;
+        running = producers.inputs.length;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (chunk == null || !chunk.hasNext()) {
+            if (running == 0) {
+                return null;
+            }
+            final List<Tuple> next = producers.take(output);
+            if (next == END) {
+                running--;
+                producers.rethrowFailure();
+            }
+            chunk = next.iterator();
+        }
+        return chunk.next();
+    }
+
+    /**
+     * @return the inputs run by the producers
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return producers.inputs.clone();
+    }
+
+    /**
+     * Replaces the inputs, which must have the same TupleDesc, before the
+     * exchange is opened. The outputs of an exchange share its inputs.
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        producers.setInputs(children);
+    }
+
+    /**
+     * @return the chunks each output queue holds at most
+     */
+    public int getQueueCapacity() {
+        return producers.capacity;
+    }
+
+    /**
+     * @return the chunks queued for this output right now
+     */
+    public int getQueueDepth() {
+        final BlockingQueue<List<Tuple>>[] queues = producers.queues;
+        return queues == null ? 0 : queues[output].size();
+    }
+
+    /**
+     * @return the most chunks any output queue of the exchange has held
+     */
+    public int getMaxQueueDepth() {
+        return producers.maxDepth.get();
+    }
+
+    /**
+     * @return how often a producer found an output queue full and had to wait
+     */
+    public long getProducerWaits() {
+        return producers.waits.sum();
+    }
+
+    /**
+     * @return the tuples the producers have queued, over all outputs
+     */
+    public long getTuplesSent() {
+        return producers.tuplesSent.sum();
+    }
+
+    /**
+     * The producer side of an exchange, shared by its outputs.
+     */
+    static final class Producers {
+
+        private OpIterator[]    inputs;
+        private final int       numOutputs;
+        private final Router    router;
+        private final int       capacity;
+
+        private volatile BlockingQueue<List<Tuple>>[]   queues;
+        private AtomicIntegerArray                      closed;
+        private CountDownLatch                          done;
+        private volatile boolean                        stopped;
+        private volatile Throwable                      failure;
+
+        private final AtomicInteger maxDepth    = new AtomicInteger();
+        private final LongAdder     waits       = new LongAdder();
+        private final LongAdder     tuplesSent  = new LongAdder();
+
+        /**
+         * @param capacity chunks per output queue, or 0 for
+         *                 {@link #DEFAULT_CHUNKS_PER_INPUT} per input
+         */
+        Producers(OpIterator[] inputs, int numOutputs, Router router, int capacity) {
+            if (inputs.length == 0) {
+                throw new IllegalArgumentException("exchange needs an input");
+            }
+            this.inputs     = inputs.clone();
+            this.numOutputs = numOutputs;
+            this.router     = router;
+            this.capacity   = capacity > 0 ? capacity : DEFAULT_CHUNKS_PER_INPUT * inputs.length;
+        }
+
+        synchronized void setInputs(OpIterator[] children) {
+            if (done != null) {
+                throw new IllegalStateException("exchange is running");
+            }
+            this.inputs = children.clone();
+        }
+
+        synchronized void open(int output) throws DbException {
+            if (done == null) {
+                start();
+            } else if (closed.get(output) != 0) {
+                throw new DbException("exchange output " + output + " reopened before the exchange finished");
+            }
+        }
+
+        synchronized void close(int output) {
+            if (done == null || closed.getAndSet(output, 1) != 0) {
+                return;
+            }
+            for (int i = 0; i < numOutputs; i++) {
+                if (closed.get(i) == 0) {
+                    return;
+                }
+            }
+            stop();
+        }
+
+        synchronized void rewind() throws DbException {
+            if (numOutputs > 1) {
+                throw new DbException("an exchange with several outputs cannot be rewound");
+            }
+            stop();
+            start();
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private void start() {
+            stopped = false;
+            failure = null;
+            closed  = new AtomicIntegerArray(numOutputs);
+            final BlockingQueue<List<Tuple>>[] qs = new BlockingQueue[numOutputs];
+            for (int i = 0; i < numOutputs; i++) {
+                qs[i] = new ArrayBlockingQueue<>(capacity);
+            }
+            queues  = qs;
+            done    = new CountDownLatch(inputs.length);
+            for (OpIterator input : inputs) {
+                EXECUTOR.execute(() -> produce(input));
+            }
+        }
+
+        /**
+         * Stops the producers and waits until they have closed their inputs.
+         */
+        private void stop() {
+            if (done == null) {
+                return;
+            }
+            stopped = true;
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            done    = null;
+            queues  = null;
+        }
+
+        private void produce(OpIterator input) {
+            try {
+                final BatchIterator it = BatchIterator.of(input);
+                it.open();
+                try {
+                    TupleBatch batch;
+                    while (!stopped && (batch = it.nextBatch()) != null) {
+                        @SuppressWarnings({"unchecked", "rawtypes"})
+                        final List<Tuple>[] chunks = new List[numOutputs];
+                        router.route(batch, chunks);
+                        for (int o = 0; o < numOutputs; o++) {
+                            if (chunks[o] != null && !chunks[o].isEmpty()) {
+                                tuplesSent.add(chunks[o].size());
+                                put(o, chunks[o]);
+                            }
+                        }
+                    }
+                } finally {
+                    it.close();
+                }
+            } catch (Throwable e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            } finally {
+                for (int o = 0; o < numOutputs; o++) {
+                    put(o, END);
+                }
+                done.countDown();
+            }
+        }
+
+        /**
+         * Queues a chunk for an output, waiting for room unless the exchange
+         * is stopped or the output closed.
+         */
+        private void put(int output, List<Tuple> out) {
+            final BlockingQueue<List<Tuple>> queue = queues[output];
+            try {
+                if (!queue.offer(out)) {
+                    waits.increment();
+                    while (true) {
+                        if (stopped || closed.get(output) != 0) {
+                            return;
+                        }
+                        if (queue.offer(out, 10, TimeUnit.MILLISECONDS)) {
+                            break;
+                        }
+                    }
+                }
+                maxDepth.accumulateAndGet(queue.size(), Math::max);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        List<Tuple> take(int output) throws DbException {
+            try {
+                return queues[output].take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("exchange interrupted");
+            }
+        }
+
+        void rethrowFailure() throws DbException, TransactionAbortedException {
+            final Throwable e = failure;
+            if (e == null) {
+                return;
+            }
+            if (e instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) e;
+            }
+            if (e instanceof DbException) {
+                throw (DbException) e;
+            }
+            throw new DbException("exchange producer failed: " + e);
+        }
+    }
+
+    /**
+     * Copies the selected rows of a batch into a list of tuples.
+     */
+    static List<Tuple> tuples(TupleBatch batch) {
+        final List<Tuple> out = new ArrayList<>(batch.numSelected());
+        for (int i = 0; i < batch.numSelected(); i++) {
+            out.add(batch.getTuple(batch.selectedRow(i)));
+        }
+        return out;
+    }
+}
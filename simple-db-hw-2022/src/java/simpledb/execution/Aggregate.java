@@ -16,6 +16,12 @@ import static simpledb.execution.Aggregator.NO_GROUPING;
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * Over a {@link Gather}, e.g. a parallel scan, the aggregate is computed in
+ * two phases: every input of the gather is aggregated on its own producer
+ * thread with {@link #partialOp}, and only the partial results cross threads,
+ * to be combined here with {@link #finalOp}. AVG is carried as (sum, count)
+ * pairs in between.
  */
 public class Aggregate extends Operator {
 
@@ -105,29 +111,77 @@ public class Aggregate extends Operator {
         return aop.toString();
     }
 
+    /**
+     * @return whether aop can be computed in two phases
+     */
+    public static boolean isSplittable(Aggregator.Op aop) {
+        return aop != Op.SUM_COUNT && aop != Op.SC_AVG;
+    }
+
+    /**
+     * @return the operator computing aop over part of the input, whose results
+     *         are combined with {@link #finalOp}
+     */
+    public static Aggregator.Op partialOp(Aggregator.Op aop) {
+        return aop == Op.AVG ? Op.SUM_COUNT : aop;
+    }
+
+    /**
+     * @return the operator combining the results of {@link #partialOp}
+     */
+    public static Aggregator.Op finalOp(Aggregator.Op aop) {
+        switch (aop) {
+            case COUNT:
+                return Op.SUM;
+            case AVG:
+                return Op.SC_AVG;
+            default:
+                return aop;
+        }
+    }
+
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // DONE
-        child.open();
-
-        TupleDesc originTd = child.getTupleDesc();
-        // Build aggregator
-        if (originTd.getFieldType(agfield) == Type.INT_TYPE) {
+        final OpIterator partials = child instanceof Gather && isSplittable(aop) ? partials((Gather) child) : null;
+        if (partials != null) {
+            // final phase: the partial results are (group, aggregate...) tuples
+            aggregator = gbfield == NO_GROUPING
+                    ? new IntegerAggregator(NO_GROUPING, null, 0, finalOp(aop))
+                    : new IntegerAggregator(0, gbfieldtype, 1, finalOp(aop));
+        } else if (child.getTupleDesc().getFieldType(agfield) == Type.INT_TYPE) {
             aggregator = new IntegerAggregator(gbfield, gbfieldtype, agfield, aop);
-        } else if (originTd.getFieldType(agfield) == Type.STRING_TYPE) {
+        } else {
             aggregator = new StringAggregator(gbfield, gbfieldtype, agfield, aop);
         }
 
-        // Merge tuples into group
-        while (child.hasNext()) {
-            final Tuple tuple = child.next();
-            aggregator.mergeTupleIntoGroup(tuple);
+        // Merge tuples into group, a batch at a time
+        final BatchIterator input = BatchIterator.of(partials != null ? partials : child);
+        input.open();
+        TupleBatch batch;
+        while ((batch = input.nextBatch()) != null) {
+            aggregator.mergeBatch(batch);
+        }
+        if (partials != null) {
+            partials.close();
         }
         iter = (TupleIterator) aggregator.iterator();
         iter.open();
         super.open();
     }
 
+    /**
+     * @return a Gather of partial aggregates of the inputs of gather, each
+     *         computed on the thread running its input
+     */
+    private OpIterator partials(Gather gather) {
+        final OpIterator[] inputs = gather.getChildren();
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = new Aggregate(inputs[i], agfield, gbfield, partialOp(aop));
+        }
+        return new Gather(inputs);
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -166,15 +220,21 @@ public class Aggregate extends Operator {
             return td;
         }
 
-        if (gbfield == NO_GROUPING) {
-            Type[] types    = new Type[] { Type.INT_TYPE };
-            String[] names  = new String[] { aop.toString() + '(' + aggregateFieldName() + ')' };
+        if (aop == Op.SUM_COUNT) {
+            // the partial state of a two-phase AVG: sum (low 32 bits), count, sum (high 32 bits)
+            Type[] types    = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+            String[] names  = new String[] { Op.SUM.toString() + '(' + aggregateFieldName() + ')',
+                                             Op.COUNT.toString() + '(' + aggregateFieldName() + ')',
+                                             Op.SUM.toString() + "_high(" + aggregateFieldName() + ')' };
             td              = new TupleDesc(types, names);
         } else {
-            Type[] types    = new Type[] { gbfieldtype, Type.INT_TYPE };
-            String[] names  = new String[] { groupFieldName(), aop.toString() + '(' + aggregateFieldName() + ')' };
+            Type[] types    = new Type[] { Type.INT_TYPE };
+            String[] names  = new String[] { aop.toString() + '(' + aggregateFieldName() + ')' };
             td              = new TupleDesc(types, names);
         }
+        if (gbfield != NO_GROUPING) {
+            td              = TupleDesc.merge(new TupleDesc(new Type[] { gbfieldtype }, new String[] { groupFieldName() }), td);
+        }
         return td;
     }
 
@@ -78,6 +78,16 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the selected rows of a batch into the aggregate, as if each had
+     * been passed to {@link #mergeTupleIntoGroup}.
+     */
+    default void mergeBatch(TupleBatch batch) {
+        for (int i = 0; i < batch.numSelected(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(batch.selectedRow(i)));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      *
@@ -0,0 +1,37 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * An OpIterator that can also hand out its tuples a batch at a time, as
+ * columns of primitive values (see {@link TupleBatch}), which saves the
+ * per-tuple virtual calls and Tuple/Field allocations of next().
+ * <p>
+ * Between open() (or rewind()) and close() a consumer should read either with
+ * next() or with nextBatch(), not both. Operators without a batch
+ * implementation of their own fill batches from next(), and any other
+ * OpIterator can be read in batches through {@link #of(OpIterator)}.
+ */
+public interface BatchIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of tuples. The batch may be reused by the next
+     * call, and is never empty.
+     *
+     * @return the next batch, or null if there are no more tuples
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns it if it is a BatchIterator, and otherwise an adapter that
+     * fills batches from it.next() and passes every other call on to it.
+     */
+    static BatchIterator of(OpIterator it) {
+        if (it instanceof BatchIterator) {
+            return (BatchIterator) it;
+        }
+        return new RowBatchAdapter(it);
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+
+import java.util.List;
+
+/**
+ * Broadcast sends every tuple of its inputs to each of its outputs, e.g. to
+ * join a small table with every partition of a large one. The outputs share
+ * the tuples, which must therefore not be modified.
+ */
+public class Broadcast extends AbstractExchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private Broadcast(Producers producers, int output) {
+        super(producers, output);
+    }
+
+    /**
+     * Creates the outputs of a broadcast of inputs.
+     *
+     * @param inputs        the inputs, each run by a producer thread
+     * @param numOutputs    the number of outputs
+     * @param queueCapacity chunks buffered per output, or 0 for the default
+     */
+    public static Broadcast[] create(OpIterator[] inputs, int numOutputs, int queueCapacity) {
+        final Producers producers = new Producers(inputs, numOutputs, (batch, chunks) -> {
+            final List<Tuple> out = tuples(batch);
+            for (int o = 0; o < chunks.length; o++) {
+                chunks[o] = out;
+            }
+        }, queueCapacity);
+        final Broadcast[] outputs = new Broadcast[numOutputs];
+        for (int o = 0; o < numOutputs; o++) {
+            outputs[o] = new Broadcast(producers, o);
+        }
+        return outputs;
+    }
+
+    public static Broadcast[] create(OpIterator[] inputs, int numOutputs) {
+        return create(inputs, numOutputs, 0);
+    }
+
+    @Override
+    public String getName() {
+        return "broadcast(" + getNumOutputs() + ")";
+    }
+}
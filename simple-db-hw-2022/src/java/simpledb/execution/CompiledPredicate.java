@@ -0,0 +1,327 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.List;
+
+/**
+ * Compiles predicates into evaluators specialized for the field type and the
+ * operator, so the operator is resolved once per compile and not per tuple.
+ * Each compiled selection evaluates both one tuple at a time and a whole
+ * batch through a selection vector, from the same specialization. INT_TYPE
+ * comparisons read the int with {@link Tuple#getInt}, which for tuples
+ * HeapPage has not decoded yet reads it straight from the page bytes, or from
+ * the batch's int column; no IntField is created and nothing goes through
+ * Field.compare. Other types fall back to Field.compare.
+ * <p>
+ * The evaluator classes are shared by all operators, so a call through
+ * {@link TupleTest} is a virtual call the JIT does not specialize per
+ * predicate. The batch kernel pays it once per batch instead of once per row.
+ */
+public final class CompiledPredicate {
+
+    /**
+     * A compiled selection predicate, or conjunction of them.
+     */
+    public interface TupleTest {
+        boolean test(Tuple t);
+
+        /**
+         * Selection-vector kernel: writes to out the rows among the first
+         * count of sel that pass. out may be sel itself.
+         *
+         * @return the number of rows written to out
+         */
+        int select(TupleBatch batch, int[] sel, int count, int[] out);
+    }
+
+    /**
+     * A compiled join predicate.
+     */
+    public interface PairTest {
+        boolean test(Tuple t1, Tuple t2);
+    }
+
+    private CompiledPredicate() {
+    }
+
+    /**
+     * @param td the TupleDesc of the tuples p will be applied to
+     */
+    public static TupleTest compile(Predicate p, TupleDesc td) {
+        final int   field   = p.getField();
+        final Field operand = p.getOperand();
+        if (td.getFieldType(field) != Type.INT_TYPE || !(operand instanceof IntField)) {
+            return new FieldTest(field, p.getOp(), operand);
+        }
+        final int v = ((IntField) operand).getValue();
+        switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(field, v);
+            case NOT_EQUALS:
+                return new IntNotEquals(field, v);
+            case GREATER_THAN:
+                return new IntGreaterThan(field, v);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(field, v);
+            case LESS_THAN:
+                return new IntLessThan(field, v);
+            case LESS_THAN_OR_EQ:
+                return new IntLessThanOrEq(field, v);
+            default:
+                throw new IllegalArgumentException("unknown operator " + p.getOp());
+        }
+    }
+
+    /**
+     * Compiles the conjunction of ps, evaluated in order and stopping at the
+     * first predicate that fails; in batches, each predicate narrows the
+     * selection left by the one before.
+     */
+    public static TupleTest compile(List<Predicate> ps, TupleDesc td) {
+        if (ps.size() == 1) {
+            return compile(ps.get(0), td);
+        }
+        final TupleTest[] tests = new TupleTest[ps.size()];
+        for (int i = 0; i < tests.length; i++) {
+            tests[i] = compile(ps.get(i), td);
+        }
+        return new Conjunction(tests);
+    }
+
+    private static final class Conjunction implements TupleTest {
+        private final TupleTest[] tests;
+
+        Conjunction(TupleTest[] tests) {
+            this.tests = tests;
+        }
+
+        public boolean test(Tuple t) {
+            for (TupleTest test : tests) {
+                if (!test.test(t)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int select(TupleBatch batch, int[] sel, int count, int[] out) {
+            int n = tests[0].select(batch, sel, count, out);
+            for (int i = 1; i < tests.length && n > 0; i++) {
+                n = tests[i].select(batch, out, n, out);
+            }
+            return n;
+        }
+    }
+
+    private static final class FieldTest implements TupleTest {
+        private final int           field;
+        private final Predicate.Op  op;
+        private final Field         operand;
+
+        FieldTest(int field, Predicate.Op op, Field operand) {
+            this.field      = field;
+            this.op         = op;
+            this.operand    = operand;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getField(field).compare(op, operand);
+        }
+
+        public int select(TupleBatch batch, int[] sel, int count, int[] out) {
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (batch.getField(sel[i], field).compare(op, operand)) {
+                    out[n++] = sel[i];
+                }
+            }
+            return n;
+        }
+    }
+
+    private static final class IntEquals implements TupleTest {
+        private final int field;
+        private final int v;
+
+        IntEquals(int field, int v) {
+            this.field  = field;
+            this.v      = v;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) == v;
+        }
+
+        public int select(TupleBatch batch, int[] sel, int count, int[] out) {
+            final int[] values = batch.getIntColumn(field);
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (values[sel[i]] == v) {
+                    out[n++] = sel[i];
+                }
+            }
+            return n;
+        }
+    }
+
+    private static final class IntNotEquals implements TupleTest {
+        private final int field;
+        private final int v;
+
+        IntNotEquals(int field, int v) {
+            this.field  = field;
+            this.v      = v;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) != v;
+        }
+
+        public int select(TupleBatch batch, int[] sel, int count, int[] out) {
+            final int[] values = batch.getIntColumn(field);
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (values[sel[i]] != v) {
+                    out[n++] = sel[i];
+                }
+            }
+            return n;
+        }
+    }
+
+    private static final class IntGreaterThan implements TupleTest {
+        private final int field;
+        private final int v;
+
+        IntGreaterThan(int field, int v) {
+            this.field  = field;
+            this.v      = v;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) > v;
+        }
+
+        public int select(TupleBatch batch, int[] sel, int count, int[] out) {
+            final int[] values = batch.getIntColumn(field);
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (values[sel[i]] > v) {
+                    out[n++] = sel[i];
+                }
+            }
+            return n;
+        }
+    }
+
+    private static final class IntGreaterThanOrEq implements TupleTest {
+        private final int field;
+        private final int v;
+
+        IntGreaterThanOrEq(int field, int v) {
+            this.field  = field;
+            this.v      = v;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) >= v;
+        }
+
+        public int select(TupleBatch batch, int[] sel, int count, int[] out) {
+            final int[] values = batch.getIntColumn(field);
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (values[sel[i]] >= v) {
+                    out[n++] = sel[i];
+                }
+            }
+            return n;
+        }
+    }
+
+    private static final class IntLessThan implements TupleTest {
+        private final int field;
+        private final int v;
+
+        IntLessThan(int field, int v) {
+            this.field  = field;
+            this.v      = v;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) < v;
+        }
+
+        public int select(TupleBatch batch, int[] sel, int count, int[] out) {
+            final int[] values = batch.getIntColumn(field);
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (values[sel[i]] < v) {
+                    out[n++] = sel[i];
+                }
+            }
+            return n;
+        }
+    }
+
+    private static final class IntLessThanOrEq implements TupleTest {
+        private final int field;
+        private final int v;
+
+        IntLessThanOrEq(int field, int v) {
+            this.field  = field;
+            this.v      = v;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) <= v;
+        }
+
+        public int select(TupleBatch batch, int[] sel, int count, int[] out) {
+            final int[] values = batch.getIntColumn(field);
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (values[sel[i]] <= v) {
+                    out[n++] = sel[i];
+                }
+            }
+            return n;
+        }
+    }
+
+    /**
+     * @param td1 the TupleDesc of the left tuples
+     * @param td2 the TupleDesc of the right tuples
+     */
+    public static PairTest compile(JoinPredicate jp, TupleDesc td1, TupleDesc td2) {
+        final int           f1 = jp.getField1();
+        final int           f2 = jp.getField2();
+        final Predicate.Op  op = jp.getOperator();
+        if (td1.getFieldType(f1) != Type.INT_TYPE || td2.getFieldType(f2) != Type.INT_TYPE) {
+            return (t1, t2) -> t1.getField(f1).compare(op, t2.getField(f2));
+        }
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return (t1, t2) -> t1.getInt(f1) == t2.getInt(f2);
+            case NOT_EQUALS:
+                return (t1, t2) -> t1.getInt(f1) != t2.getInt(f2);
+            case GREATER_THAN:
+                return (t1, t2) -> t1.getInt(f1) > t2.getInt(f2);
+            case GREATER_THAN_OR_EQ:
+                return (t1, t2) -> t1.getInt(f1) >= t2.getInt(f2);
+            case LESS_THAN:
+                return (t1, t2) -> t1.getInt(f1) < t2.getInt(f2);
+            case LESS_THAN_OR_EQ:
+                return (t1, t2) -> t1.getInt(f1) <= t2.getInt(f2);
+            default:
+                throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.execution;
+
+
+import java.util.ArrayList;
+
+/**
+ * Exchange repartitions its inputs by the hash of a field: a tuple goes to
+ * exactly one output, and tuples with equal values of the field go to the same
+ * output. Exchanging both inputs of an equality join on the join fields thus
+ * splits the join into independent partitions, which can run in parallel
+ * under a {@link Gather}.
+ */
+public class Exchange extends AbstractExchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int   field;
+
+    private Exchange(Producers producers, int output, int field) {
+        super(producers, output);
+        this.field = field;
+    }
+
+    /**
+     * Creates the outputs of a repartitioning of inputs.
+     *
+     * @param inputs        the inputs, each run by a producer thread
+     * @param field         the field whose hash picks the output of a tuple
+     * @param numOutputs    the number of outputs
+     * @param queueCapacity chunks buffered per output, or 0 for the default
+     */
+    public static Exchange[] repartition(OpIterator[] inputs, int field, int numOutputs, int queueCapacity) {
+        final Producers producers = new Producers(inputs, numOutputs, (batch, chunks) -> {
+            final int[] ints = batch.getIntColumn(field);
+            for (int i = 0; i < batch.numSelected(); i++) {
+                final int row   = batch.selectedRow(i);
+                final int hash  = ints != null ? Integer.hashCode(ints[row]) : batch.getField(row, field).hashCode();
+                final int o     = partition(hash, numOutputs);
+                if (chunks[o] == null) {
+                    chunks[o] = new ArrayList<>();
+                }
+                chunks[o].add(batch.getTuple(row));
+            }
+        }, queueCapacity);
+        final Exchange[] outputs = new Exchange[numOutputs];
+        for (int o = 0; o < numOutputs; o++) {
+            outputs[o] = new Exchange(producers, o, field);
+        }
+        return outputs;
+    }
+
+    public static Exchange[] repartition(OpIterator[] inputs, int field, int numOutputs) {
+        return repartition(inputs, field, numOutputs, 0);
+    }
+
+    /**
+     * @return the output for a field with the given hashCode(); mixed with
+     *         other constants than HashJoin's buckets, so that a partition is
+     *         still spread over all buckets of a hash join reading it
+     */
+    static int partition(int hash, int numOutputs) {
+        int h = hash * 0xC2B2AE35;
+        h ^= h >>> 16;
+        h *= 0x27D4EB2F;
+        h ^= h >>> 15;
+        return (h & 0x7FFFFFFF) % numOutputs;
+    }
+
+    /**
+     * @return the field tuples are partitioned by
+     */
+    public int getField() {
+        return field;
+    }
+
+    @Override
+    public String getName() {
+        return "exchange(" + getTupleDesc().getFieldName(field) + "," + getNumOutputs() + ")";
+    }
+}
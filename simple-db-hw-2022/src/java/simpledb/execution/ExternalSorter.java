@@ -0,0 +1,189 @@
+package simpledb.execution;
+
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Sorts a stream of tuples that may not fit in memory.
+ * <p>
+ * Tuples are collected in memory up to a budget; when the budget is used up
+ * they are sorted and written out as a run to a {@link SpillFile}. If nothing
+ * was spilled, {@link #iterator()} simply returns the sorted buffer. Otherwise
+ * the runs are merged k ways with a heap holding the head tuple of each run.
+ * With more than {@link #MAX_FAN_IN} runs, groups of runs are first merged
+ * into longer runs, so only MAX_FAN_IN runs are read at a time (one page each).
+ */
+public class ExternalSorter {
+
+    // bytes of tuple data buffered before a run is written
+    public static final long    DEFAULT_MEMORY_BUDGET   = 1 << 20;
+    // runs merged at once
+    static final int            MAX_FAN_IN              = 64;
+
+    private final TupleDesc             td;
+    private final Comparator<Tuple>     comparator;
+    private final int                   maxBuffered;
+    private final List<Tuple>           buffer  = new ArrayList<>();
+    private final List<SpillFile>       runs    = new ArrayList<>();
+    private boolean                     finished;
+
+    public ExternalSorter(TupleDesc td, Comparator<Tuple> comparator) {
+        this(td, comparator, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget bytes of tuple data held in memory before a sorted
+     *                     run is written to disk
+     */
+    public ExternalSorter(TupleDesc td, Comparator<Tuple> comparator, long memoryBudget) {
+        this.td             = td;
+        this.comparator     = comparator;
+        this.maxBuffered    = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / td.getSize()));
+    }
+
+    /**
+     * Adds a tuple to be sorted. No tuple may be added once
+     * {@link #iterator()} has been called.
+     */
+    public void add(Tuple t) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("sorter already finished");
+        }
+        buffer.add(t);
+        if (buffer.size() >= maxBuffered) {
+            spillBuffer();
+        }
+    }
+
+    /**
+     * @return the number of sorted runs written to disk so far
+     */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the tuples added so far in sorted order. May be called again to
+     * read them once more, e.g. on rewind.
+     */
+    public Iterator<Tuple> iterator() throws IOException {
+        if (!finished) {
+            finished = true;
+            if (runs.isEmpty()) {
+                buffer.sort(comparator);
+            } else {
+                if (!buffer.isEmpty()) {
+                    spillBuffer();
+                }
+                while (runs.size() > MAX_FAN_IN) {
+                    mergePass();
+                }
+            }
+        }
+        if (runs.isEmpty()) {
+            return Collections.unmodifiableList(buffer).iterator();
+        }
+        return merge(runs);
+    }
+
+    /**
+     * Deletes the runs and drops the buffered tuples.
+     */
+    public void close() {
+        for (SpillFile run : runs) {
+            run.close();
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private void spillBuffer() throws IOException {
+        buffer.sort(comparator);
+        final SpillFile run = new SpillFile(td);
+        runs.add(run);
+        for (Tuple t : buffer) {
+            run.add(t);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Merges the runs MAX_FAN_IN at a time into fewer, longer runs.
+     */
+    private void mergePass() throws IOException {
+        final List<SpillFile> merged = new ArrayList<>();
+        for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+            final List<SpillFile> group = runs.subList(from, Math.min(runs.size(), from + MAX_FAN_IN));
+            final SpillFile run = new SpillFile(td);
+            merged.add(run);
+            final Iterator<Tuple> it = merge(group);
+            while (it.hasNext()) {
+                run.add(it.next());
+            }
+            for (SpillFile old : group) {
+                old.close();
+            }
+        }
+        runs.clear();
+        runs.addAll(merged);
+    }
+
+    private Iterator<Tuple> merge(List<SpillFile> from) throws IOException {
+        final List<Iterator<Tuple>> its = new ArrayList<>(from.size());
+        for (SpillFile run : from) {
+            its.add(run.iterator());
+        }
+        return new MergeIterator(its, comparator);
+    }
+
+    /**
+     * K-way merge of sorted iterators with a heap of their head tuples.
+     */
+    private static class MergeIterator implements Iterator<Tuple> {
+
+        private final List<Iterator<Tuple>>  its;
+        private final PriorityQueue<Head>    heap;
+
+        MergeIterator(List<Iterator<Tuple>> its, Comparator<Tuple> comparator) {
+            this.its    = its;
+            this.heap   = new PriorityQueue<>(Math.max(1, its.size()), (a, b) -> comparator.compare(a.tuple, b.tuple));
+            for (int i = 0; i < its.size(); i++) {
+                if (its.get(i).hasNext()) {
+                    heap.add(new Head(its.get(i).next(), i));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        @Override
+        public Tuple next() {
+            final Head head = heap.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            final Iterator<Tuple> it = its.get(head.run);
+            if (it.hasNext()) {
+                heap.add(new Head(it.next(), head.run));
+            }
+            return head.tuple;
+        }
+    }
+
+    private static class Head {
+        final Tuple tuple;
+        final int   run;
+
+        Head(Tuple tuple, int run) {
+            this.tuple  = tuple;
+            this.run    = run;
+        }
+    }
+}
@@ -5,18 +5,29 @@ import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. It may apply a
+ * conjunction of predicates, which are compiled (see {@link CompiledPredicate})
+ * into one test per tuple.
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
 
-    private Predicate         p;
-    private OpIterator        child;
-    private TupleDesc         td;
+    private final List<Predicate>   ps;
+    private OpIterator              child;
+    private TupleDesc               td;
+
+    // ps compiled for td, on open()
+    private transient CompiledPredicate.TupleTest test;
+
+    // batch path: the child read in batches, and the selection vector test builds per batch
+    private transient BatchIterator childBatches;
+    private transient int[]         selected;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -27,14 +38,37 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, OpIterator child) {
         // DONE
-        this.p      = p;
+        this(Collections.singletonList(p), child);
+    }
+
+    /**
+     * Constructor for a filter passing the tuples that satisfy all of ps.
+     *
+     * @param ps    The predicates, applied in order; must not be empty
+     * @param child The child operator
+     */
+    public Filter(List<Predicate> ps, OpIterator child) {
+        if (ps.isEmpty()) {
+            throw new IllegalArgumentException("filter needs a predicate");
+        }
+        this.ps     = ps;
         this.child  = child;
         this.td     = child.getTupleDesc();
     }
 
+    /**
+     * @return the first predicate
+     */
     public Predicate getPredicate() {
         // DONE
-        return p;
+        return ps.get(0);
+    }
+
+    /**
+     * @return all predicates, which a tuple must all satisfy to pass
+     */
+    public List<Predicate> getPredicates() {
+        return ps;
     }
 
     public TupleDesc getTupleDesc() {
@@ -45,6 +79,7 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // DONE
+        test = CompiledPredicate.compile(ps, td);
         child.open();
         super.open();
     }
@@ -75,13 +110,37 @@ public class Filter extends Operator {
         Tuple tp;
         while (child.hasNext()) {
             tp = child.next();
-            if (p.filter(tp)) {
+            if (test.test(tp)) {
                 return tp;
             }
         }
         return null;
     }
 
+    /**
+     * Batch implementation: narrows the selection vector of each of the
+     * child's batches with the kernel of the compiled predicates, skipping
+     * batches no row of which passes.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (childBatches == null) {
+            childBatches = BatchIterator.of(child);
+        }
+        TupleBatch batch;
+        while ((batch = childBatches.nextBatch()) != null) {
+            if (selected == null || selected.length < batch.capacity()) {
+                selected = new int[batch.capacity()];
+            }
+            int n = test.select(batch, batch.getSelection(), batch.numSelected(), selected);
+            batch.setSelection(selected, n);
+            if (n > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // DONE
@@ -93,6 +152,7 @@ public class Filter extends Operator {
         // DONE
         this.child  = children[0];
         this.td     = child.getTupleDesc();
+        this.childBatches = null;
     }
 
 }
@@ -0,0 +1,29 @@
+package simpledb.execution;
+
+/**
+ * Gather runs each of its inputs on a thread of its own and returns all their
+ * tuples as one stream, in no particular order. It is how parallel work is
+ * brought back to the thread running the rest of the plan, e.g. the
+ * partitions of a parallel join.
+ */
+public class Gather extends AbstractExchange {
+
+    private static final long serialVersionUID = 1L;
+
+    public Gather(OpIterator... inputs) {
+        this(inputs, 0);
+    }
+
+    /**
+     * @param queueCapacity chunks of tuples buffered between the producers
+     *                      and the consumer, or 0 for the default
+     */
+    public Gather(OpIterator[] inputs, int queueCapacity) {
+        super(new Producers(inputs, 1, (batch, chunks) -> chunks[0] = tuples(batch), queueCapacity), 0);
+    }
+
+    @Override
+    public String getName() {
+        return "gather";
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Numbers the distinct group-by values seen by an aggregator 0, 1, 2, ... in
+ * order of first appearance, so that per-group aggregate state can live in
+ * primitive arrays indexed by group number.
+ * <p>
+ * INT_TYPE values are looked up in an open-addressing table of primitive
+ * ints, so the per-tuple lookup neither boxes the value nor allocates; other
+ * types fall back to a HashMap. Either way the table holds one entry per
+ * group, however many tuples are merged.
+ */
+class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int    INITIAL_CAPACITY    = 16;
+
+    private final boolean               intKeys;
+    // open addressing for INT_TYPE: slot -> key, and slot -> group number + 1 (0 = empty slot)
+    private int[]                       slotKeys;
+    private int[]                       slotGroups;
+    private int                         slotMask;
+    // other types
+    private final Map<Field, Integer>   groups;
+
+    // group number -> group-by value
+    private Field[]                     values;
+    private int                         size;
+
+    /**
+     * @param type the type of the group-by values
+     */
+    GroupTable(Type type) {
+        this.intKeys    = type == Type.INT_TYPE;
+        if (intKeys) {
+            this.slotKeys   = new int[INITIAL_CAPACITY];
+            this.slotGroups = new int[INITIAL_CAPACITY];
+            this.slotMask   = INITIAL_CAPACITY - 1;
+            this.groups     = null;
+        } else {
+            this.groups     = new HashMap<>();
+        }
+        this.values     = new Field[INITIAL_CAPACITY];
+        this.size       = 0;
+    }
+
+    /**
+     * @return the number of groups
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the group-by value of group number group
+     */
+    Field valueOf(int group) {
+        return values[group];
+    }
+
+    /**
+     * @return the group number of value, adding a new group if value was not seen before
+     */
+    int groupOf(Field value) {
+        if (!intKeys) {
+            Integer group = groups.get(value);
+            if (group == null) {
+                group = addGroup(value);
+                groups.put(value, group);
+            }
+            return group;
+        }
+
+        return groupOf(((IntField) value).getValue(), value);
+    }
+
+    /**
+     * INT_TYPE variant of {@link #groupOf(Field)} that only creates a Field
+     * for values not seen before.
+     */
+    int groupOf(int key) {
+        return groupOf(key, null);
+    }
+
+    private int groupOf(int key, Field value) {
+        int slot = mix(key) & slotMask;
+        while (slotGroups[slot] != 0) {
+            if (slotKeys[slot] == key) {
+                return slotGroups[slot] - 1;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        int group = addGroup(value != null ? value : new IntField(key));
+        slotKeys[slot] = key;
+        slotGroups[slot] = group + 1;
+        // keep the load factor at most 1/2
+        if (size * 2 > slotGroups.length) {
+            rehash();
+        }
+        return group;
+    }
+
+    private int addGroup(Field value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value;
+        return size++;
+    }
+
+    private void rehash() {
+        int[] oldKeys = slotKeys;
+        int[] oldGroups = slotGroups;
+        slotKeys = new int[oldKeys.length * 2];
+        slotGroups = new int[oldGroups.length * 2];
+        slotMask = slotKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldGroups[i] != 0) {
+                int slot = mix(oldKeys[i]) & slotMask;
+                while (slotGroups[slot] != 0) {
+                    slot = (slot + 1) & slotMask;
+                }
+                slotKeys[slot] = oldKeys[i];
+                slotGroups[slot] = oldGroups[i];
+            }
+        }
+    }
+
+    // group-by values are often small consecutive ints, spread them over the table
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -3,41 +3,28 @@ package simpledb.execution;
 import simpledb.common.Type;
 import simpledb.storage.*;
 
-import java.lang.reflect.Method;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Aggregates are computed incrementally: each group keeps only its running
+ * count, sum, min and max (whichever the operator needs) in primitive arrays
+ * indexed by group number (see {@link GroupTable}), so memory grows with the
+ * number of groups rather than the number of tuples merged.
+ * <p>
+ * For two-phase aggregation, SUM_COUNT outputs the sum and the count of each
+ * group, and SC_AVG computes averages from such (sum, count) pairs. There is
+ * no 64-bit field type, so the sum travels as two ints: the aggregate field
+ * holds its low 32 bits, the field after it the count, and the field after
+ * that the high 32 bits of the sum.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
-    static class AggOperation {
-        public static int min(List<IntField> gbList) {
-            return gbList.stream().mapToInt(IntField::getValue).min().getAsInt();
-//            return Collections.min(gbList, (field1, field2) -> field1.getValue() - field2.getValue()).getValue();
-        }
-
-        public static int max(List<IntField> gbList) {
-            return gbList.stream().mapToInt(IntField::getValue).max().getAsInt();
-//            return Collections.max(gbList, (field1, field2) -> field1.getValue() - field2.getValue()).getValue();
-        }
-
-        public static int sum(List<IntField> gbList) {
-            return gbList.stream().mapToInt(IntField::getValue).sum();
-        }
-
-        public static int avg(List<IntField> gbList) {
-            return (int) gbList.stream().mapToDouble(IntField::getValue).average().getAsDouble();
-//            return (int) 1.0 * sum(gbList) / count(gbList);
-        }
-
-        public static int count(List<IntField> gbList) {
-            return gbList.size();
-        }
-    }
-
     // Group by field
     private int                         gbfield;
     private Type                        gbfieldtype;
@@ -47,7 +34,13 @@ public class IntegerAggregator implements Aggregator {
     private Op                          aop;
 
     private TupleDesc                   td;
-    private Map<Field, List<IntField>>  groupMap;
+    // group-by value -> group number, null if there is no grouping (everything is group 0)
+    private GroupTable                  groups;
+    // per-group running state, only the arrays the operator needs are allocated
+    private long[]                      counts;
+    private long[]                      sums;
+    private long[]                      mins;
+    private long[]                      maxs;
 
     /**
      * Aggregate constructor
@@ -66,7 +59,12 @@ public class IntegerAggregator implements Aggregator {
         this.agfield        = afield;
         this.aop            = what;
 
-        this.groupMap       = new HashMap<>();
+        this.groups         = gbfield == NO_GROUPING ? null : new GroupTable(gbfieldtype);
+        this.counts         = new long[1];
+        this.sums           = what == Op.SUM || what == Op.AVG || what == Op.SUM_COUNT || what == Op.SC_AVG
+                ? new long[1] : null;
+        this.mins           = what == Op.MIN ? new long[1] : null;
+        this.maxs           = what == Op.MAX ? new long[1] : null;
     }
 
     /**
@@ -80,65 +78,175 @@ public class IntegerAggregator implements Aggregator {
         if (this.td == null) {
             this.td = buildTupleDesc(tup.getTupleDesc());
         }
-        final Field     gbFIELD = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
-        final IntField  aFIELD  = (IntField) tup.getField(agfield);
+        final int       group   = groups == null ? 0 : groups.groupOf(tup.getField(gbfield));
+        final int       value   = ((IntField) tup.getField(agfield)).getValue();
+        if (aop == Op.SC_AVG) {
+            accumulate(group, sumOf(value, ((IntField) tup.getField(agfield + 2)).getValue()),
+                    ((IntField) tup.getField(agfield + 1)).getValue());
+        } else {
+            accumulate(group, value, 1);
+        }
+    }
+
+    /**
+     * @return the sum whose low and high 32 bits are low and high
+     */
+    private static long sumOf(int low, int high) {
+        return ((long) high << 32) | (low & 0xffffffffL);
+    }
+
+    /**
+     * Merges the selected rows of a batch, reading the aggregate column, and
+     * an INT_TYPE group-by column, as primitive ints.
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) {
+        if (this.td == null) {
+            this.td = buildTupleDesc(batch.getTupleDesc());
+        }
+        final int[]     values      = batch.getIntColumn(agfield);
+        final int[]     ns          = aop == Op.SC_AVG ? batch.getIntColumn(agfield + 1) : null;
+        final int[]     highs       = aop == Op.SC_AVG ? batch.getIntColumn(agfield + 2) : null;
+        final int[]     intKeys     = groups != null && gbfieldtype == Type.INT_TYPE ? batch.getIntColumn(gbfield) : null;
+        final int[]     selection   = batch.getSelection();
+        for (int i = 0, n = batch.numSelected(); i < n; i++) {
+            final int row   = selection[i];
+            final int group = groups == null ? 0
+                    : intKeys != null ? groups.groupOf(intKeys[row]) : groups.groupOf(batch.getField(row, gbfield));
+            accumulate(group, highs == null ? values[row] : sumOf(values[row], highs[row]), ns == null ? 1 : ns[row]);
+        }
+    }
+
+    /**
+     * Adds value, standing for n tuples, to the state of group.
+     */
+    private void accumulate(int group, long value, long n) {
+        if (group == counts.length) {
+            grow();
+        }
+
+        final boolean   first   = counts[group] == 0;
+        counts[group] += n;
+        switch (aop) {
+            case MIN:
+                mins[group] = first ? value : Math.min(mins[group], value);
+                break;
+            case MAX:
+                maxs[group] = first ? value : Math.max(maxs[group], value);
+                break;
+            case SUM:
+            case AVG:
+            case SUM_COUNT:
+            case SC_AVG:
+                sums[group] += value;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void grow() {
+        int capacity = counts.length * 2;
+        counts = Arrays.copyOf(counts, capacity);
+        if (sums != null) {
+            sums = Arrays.copyOf(sums, capacity);
+        }
+        if (mins != null) {
+            mins = Arrays.copyOf(mins, capacity);
+        }
+        if (maxs != null) {
+            maxs = Arrays.copyOf(maxs, capacity);
+        }
+    }
 
-        List<IntField> gbList = groupMap.getOrDefault(gbFIELD, new LinkedList<>());
-        gbList.add(aFIELD);
-        groupMap.put(gbFIELD, gbList);
+    /**
+     * @return the aggregate value of group number group
+     */
+    private int aggregateOf(int group) {
+        switch (aop) {
+            case MIN:
+                return (int) mins[group];
+            case MAX:
+                return (int) maxs[group];
+            case SUM:
+                return (int) sums[group];
+            case AVG:
+            case SC_AVG:
+                return (int) (sums[group] / counts[group]);
+            case COUNT:
+                return (int) counts[group];
+            default:
+                throw new IllegalStateException("impossible to reach here");
+        }
     }
 
     public TupleDesc buildTupleDesc(final TupleDesc originTd) {
         Type[]      types;
         String[]    names;
-        if (gbfield == NO_GROUPING) {
-            types = new Type[] { Type.INT_TYPE };
-            names = new String[] { aop.toString() + '(' + originTd.getFieldName(agfield) + ')' };
+        final String aggName = originTd.getFieldName(agfield);
+        if (aop == Op.SUM_COUNT) {
+            types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+            names = new String[] { Op.SUM.toString() + '(' + aggName + ')', Op.COUNT.toString() + '(' + aggName + ')',
+                                   Op.SUM.toString() + "_high(" + aggName + ')' };
         } else {
-            types = new Type[] { gbfieldtype, Type.INT_TYPE };
-            names = new String[] { originTd.getFieldName(gbfield), aop.toString() + '(' + originTd.getFieldName(agfield) + ')' };
+            types = new Type[] { Type.INT_TYPE };
+            names = new String[] { aop.toString() + '(' + aggName + ')' };
+        }
+        if (gbfield != NO_GROUPING) {
+            types = prepend(gbfieldtype, types);
+            names = prepend(originTd.getFieldName(gbfield), names);
         }
 
         return new TupleDesc(types, names);
     }
 
+    private static <T> T[] prepend(T first, T[] rest) {
+        final T[] all = Arrays.copyOf(rest, rest.length + 1);
+        System.arraycopy(rest, 0, all, 1, rest.length);
+        all[0] = first;
+        return all;
+    }
+
+    /**
+     * Sets the aggregate fields of tuple, from index at on, to the result of
+     * group.
+     */
+    private void setAggregate(Tuple tuple, int at, int group) {
+        if (aop == Op.SUM_COUNT) {
+            tuple.setField(at, new IntField((int) sums[group]));
+            tuple.setField(at + 1, new IntField((int) counts[group]));
+            tuple.setField(at + 2, new IntField((int) (sums[group] >> 32)));
+        } else {
+            tuple.setField(at, new IntField(aggregateOf(group)));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      *
      * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *         the constructor; for SUM_COUNT it is three fields, the low 32
+     *         bits of the sum, the count and the high 32 bits of the sum.
      */
     public OpIterator iterator() {
         // DONE
-        final List<Tuple> tuples = new LinkedList<>();
+        final List<Tuple> tuples = new ArrayList<>();
         if (gbfield != NO_GROUPING) {
-            groupMap.forEach((key, gbList) -> {
+            for (int group = 0; group < groups.size(); group++) {
                 final Tuple tuple = new Tuple(td);
-                tuple.setField(0, key);
-                tuple.setField(1, new IntField(callByReflection(gbList)));
+                tuple.setField(0, groups.valueOf(group));
+                setAggregate(tuple, 1, group);
                 tuples.add(tuple);
-            });
-        } else {
+            }
+        } else if (counts[0] > 0) {
             final Tuple tuple = new Tuple(td);
-            tuple.setField(0, new IntField(callByReflection(groupMap.get(null))));
+            setAggregate(tuple, 0, 0);
             tuples.add(tuple);
         }
 
         return new TupleIterator(td, tuples);
     }
 
-    public int callByReflection(List<IntField> gbList) {
-        int aVal = 0;
-        try {
-            Method staticMethod = AggOperation.class.getMethod(aop.name().toLowerCase(), List.class);
-            aVal = (int) staticMethod.invoke(null, gbList);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("NOT possible to reach");
-        }
-        return aVal;
-    }
-
 }
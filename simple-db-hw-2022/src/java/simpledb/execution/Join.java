@@ -88,6 +88,9 @@ public class Join extends Operator {
             case NestedLoop:
                 this.joinHelper = new NestedLoopJoin(jp, child1, child2);
                 break;
+            case BlockNestedLoop:
+                this.joinHelper = new BlockNestedLoopJoin(jp, child1, child2);
+                break;
             case SortMerge:
                 this.joinHelper = new SortMergeJoin(jp, child1, child2);
                 break;
@@ -101,7 +104,10 @@ public class Join extends Operator {
     public void close() {
         // DONE
         super.close();
-        this.joinHelper = null;
+        if (this.joinHelper != null) {
+            this.joinHelper.close();
+            this.joinHelper = null;
+        }
         this.child2.close();
         this.child1.close();
     }
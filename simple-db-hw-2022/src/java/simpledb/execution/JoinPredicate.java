@@ -16,6 +16,9 @@ public class JoinPredicate implements Serializable {
     private final int               field2;
     private final Predicate.Op      op;
 
+    // compiled on the first call to filter(), from the types of the tuples' fields
+    private transient CompiledPredicate.PairTest compiled;
+
     /**
      * Constructor -- create a new predicate over two fields of two tuples.
      *
@@ -35,14 +38,19 @@ public class JoinPredicate implements Serializable {
     }
 
     /**
-     * Apply the predicate to the two specified tuples. The comparison can be
-     * made through Field's compare method.
+     * Apply the predicate to the two specified tuples. The predicate is
+     * compiled (see {@link CompiledPredicate}) for the field types of the
+     * first pair of tuples it is applied to.
      *
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // DONE
-        return t1.getField(field1).compare(op, t2.getField(field2));
+        CompiledPredicate.PairTest test = compiled;
+        if (test == null) {
+            test = compiled = CompiledPredicate.compile(this, t1.getTupleDesc(), t2.getTupleDesc());
+        }
+        return test.test(t1, t2);
     }
 
     public int getField1() {
@@ -10,9 +10,10 @@ import java.util.NoSuchElementException;
 /**
  * Abstract class for implementing operators. It handles <code>close</code>,
  * <code>next</code> and <code>hasNext</code>. Subclasses only need to implement
- * <code>open</code> and <code>readNext</code>.
+ * <code>open</code> and <code>readNext</code>. <code>nextBatch</code> fills
+ * batches from <code>next</code> unless a subclass has a batch implementation.
  */
-public abstract class Operator implements OpIterator {
+public abstract class Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -20,6 +21,8 @@ public abstract class Operator implements OpIterator {
     private boolean open                    = false;
     private int     estimatedCardinality    = 0;
 
+    private transient TupleBatch batch;
+
     public boolean hasNext() throws DbException, TransactionAbortedException {
         if (!this.open) {
             throw new IllegalStateException("Operator not yet open");
@@ -43,6 +46,16 @@ public abstract class Operator implements OpIterator {
         return result;
     }
 
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        return TupleBatch.fill(this, batch);
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -1,15 +1,19 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
-import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The child is sorted with an {@link ExternalSorter}, so inputs larger than
+ * memory are sorted in runs on disk and merged. With a limit (top-N), only the
+ * first N tuples are kept, in a bounded heap, and nothing is spilled.
  */
 public class OrderBy extends Operator {
 
@@ -17,11 +21,13 @@ public class OrderBy extends Operator {
 
     private OpIterator          child;
     private final TupleDesc     td;
-    private final List<Tuple>   childTups = new ArrayList<>();
     private final int           orderByField;
     private final String        orderByFieldName;
     private Iterator<Tuple>     it;
     private final boolean       asc;
+    private final int           limit;
+    private ExternalSorter      sorter;
+    private List<Tuple>         topTups;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -31,11 +37,25 @@ public class OrderBy extends Operator {
      * @param child        the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, -1);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns only the first limit tuples of
+     * the ordering.
+     *
+     * @param orderbyField the field to which the sort is applied.
+     * @param asc          true if the sort order is ascending.
+     * @param child        the tuples to sort.
+     * @param limit        the number of tuples to return, or -1 for all of them.
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int limit) {
         this.child              = child;
         this.td                 = child.getTupleDesc();
         this.orderByField       = orderbyField;
         this.orderByFieldName   = td.getFieldName(orderbyField);
         this.asc                = asc;
+        this.limit              = limit;
     }
 
     public boolean isASC() {
@@ -50,28 +70,80 @@ public class OrderBy extends Operator {
         return this.orderByFieldName;
     }
 
+    /**
+     * @return the number of tuples returned, or -1 if there is no limit
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
     public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext()) {
-            childTups.add(child.next());
+        final Comparator<Tuple> comparator = new TupleComparator(orderByField, asc);
+        if (limit >= 0) {
+            topTups = topN(comparator);
+            it      = topTups.iterator();
+        } else {
+            sorter  = new ExternalSorter(td, comparator);
+            try {
+                while (child.hasNext()) {
+                    sorter.add(child.next());
+                }
+                it = sorter.iterator();
+            } catch (IOException e) {
+                sorter.close();
+                sorter = null;
+                throw new DbException("order by spill failed: " + e.getMessage());
+            }
         }
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
         super.open();
     }
 
+    /**
+     * Keeps the first limit tuples of the ordering in a heap whose root is the
+     * last of them, so each child tuple costs at most O(log limit).
+     */
+    private List<Tuple> topN(Comparator<Tuple> comparator) throws DbException, TransactionAbortedException {
+        final PriorityQueue<Tuple> heap = new PriorityQueue<>(Math.max(1, limit), comparator.reversed());
+        while (child.hasNext()) {
+            final Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(t);
+            } else if (limit > 0 && comparator.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(t);
+            }
+        }
+        final List<Tuple> top = new ArrayList<>(heap);
+        top.sort(comparator);
+        return top;
+    }
+
     public void close() {
         super.close();
         it = null;
+        topTups = null;
+        if (sorter != null) {
+            sorter.close();
+            sorter = null;
+        }
+        child.close();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        if (topTups != null) {
+            it = topTups.iterator();
+            return;
+        }
+        try {
+            it = sorter.iterator();
+        } catch (IOException e) {
+            throw new DbException("order by spill failed: " + e.getMessage());
+        }
     }
 
     /**
@@ -100,25 +172,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-
-}
@@ -0,0 +1,94 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Scans a HeapFile with several threads.
+ * <p>
+ * The pages of the file are split into contiguous ranges, one per worker.
+ * Each worker runs its own pipeline, a {@link SeqScan} of its range possibly
+ * under a Filter or Project (see {@link #setChildren}), as an input of a
+ * {@link Gather}, so a slow consumer makes the workers wait instead of
+ * buffering the table; the tuples come out in no particular order. The
+ * pipelines may also be taken out of the scan with {@link #getChildren()}
+ * and fed into another exchange, e.g. to repartition the table for a
+ * parallel join.
+ * <p>
+ * All workers run as part of the scan's transaction, so the page locks they
+ * take are released with it as usual.
+ */
+public class ParallelScan extends Gather {
+
+    private static final long serialVersionUID = 1L;
+
+    // fewer pages are not worth a thread
+    public static final int     MIN_PAGES_PER_WORKER    = 64;
+
+    private static volatile int maxParallelism = Runtime.getRuntime().availableProcessors();
+
+    private final int           tableId;
+    private final String        tableAlias;
+
+    /**
+     * Creates a scan of a HeapFile split into up to dop page ranges.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; must be stored in a HeapFile
+     * @param tableAlias the alias of this table
+     * @param dop        the number of workers
+     */
+    public ParallelScan(TransactionId tid, int tableid, String tableAlias, int dop) {
+        super(rangeScans(tid, tableid, tableAlias, dop));
+        this.tableId    = tableid;
+        this.tableAlias = tableAlias;
+    }
+
+    private static OpIterator[] rangeScans(TransactionId tid, int tableid, String tableAlias, int dop) {
+        final int numPages  = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+        final int n         = Math.max(1, Math.min(dop, numPages));
+        final int perWorker = (numPages + n - 1) / n;
+        final OpIterator[] scans = new OpIterator[n];
+        for (int i = 0; i < n; i++) {
+            scans[i] = new SeqScan(tid, tableid, tableAlias, i * perWorker, (i + 1) * perWorker);
+        }
+        return scans;
+    }
+
+    /**
+     * @return the number of workers to scan a table of numPages pages with:
+     *         one per {@link #MIN_PAGES_PER_WORKER} pages, at most
+     *         {@link #getMaxParallelism()}
+     */
+    public static int degreeOfParallelism(int numPages) {
+        return Math.max(1, Math.min(maxParallelism, numPages / MIN_PAGES_PER_WORKER));
+    }
+
+    public static int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    /**
+     * Limits the workers per scan, e.g. 1 to plan sequential scans only.
+     */
+    public static void setMaxParallelism(int maxParallelism) {
+        ParallelScan.maxParallelism = Math.max(1, maxParallelism);
+    }
+
+    /**
+     * @return the name of the table scanned
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableId);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    @Override
+    public String getName() {
+        return "parallel scan(" + getChildren().length + ")";
+    }
+}
@@ -19,6 +19,9 @@ public class Project extends Operator {
     private OpIterator          child;
     private final TupleDesc     td;
     private final List<Integer> outFieldIds;
+    private final int[]         outFields;
+
+    private transient BatchIterator childBatches;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -42,6 +45,7 @@ public class Project extends Operator {
         }
         this.td                 = new TupleDesc(types, fieldAr);
         this.outFieldIds        = fieldList;
+        this.outFields          = fieldList.stream().mapToInt(Integer::intValue).toArray();
     }
 
     public TupleDesc getTupleDesc() {
@@ -82,6 +86,22 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    /**
+     * Batch implementation: returns the child's batch restricted to the
+     * projected columns, without copying them.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (childBatches == null) {
+            childBatches = BatchIterator.of(child);
+        }
+        final TupleBatch batch = childBatches.nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        return batch.project(outFields, td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -90,7 +110,8 @@ public class Project extends Operator {
     @Override
     public void setChildren(OpIterator[] children) {
         if (this.child != children[0]) {
-            this.child = children[0];
+            this.child          = children[0];
+            this.childBatches   = null;
         }
     }
 
@@ -0,0 +1,64 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Reads an OpIterator without a batch implementation in batches, filling a
+ * reused TupleBatch from next().
+ *
+ * @see BatchIterator#of(OpIterator)
+ */
+class RowBatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator    child;
+    private transient TupleBatch batch;
+
+    RowBatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            batch = new TupleBatch(child.getTupleDesc());
+        }
+        return TupleBatch.fill(child, batch);
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    @Override
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    @Override
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return child.next();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
@@ -2,11 +2,13 @@ package simpledb.execution;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Type;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.util.HeapFileIterator;
+import simpledb.util.SequentialPrefetcher;
 
 import java.util.NoSuchElementException;
 
@@ -14,8 +16,15 @@ import java.util.NoSuchElementException;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Read in batches, a scan of a HeapFile decodes the columns of each page
+ * straight into the batch ({@link HeapPage#fillBatch}), one page pinned at a
+ * time, without creating Tuples.
+ * <p>
+ * A scan of a HeapFile may be limited to a range of pages, so that the ranges
+ * of one table can be scanned by different threads ({@link ParallelScan}).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -24,8 +33,19 @@ public class SeqScan implements OpIterator {
     private String              tableAlias;
     private DbFileIterator      baseIter;
     private TupleDesc           tupleDesc;
+    // pages [fromPage, toPage) are scanned; toPage is -1 for the whole file
+    private int                 fromPage;
+    private int                 toPage;
 
     private boolean             isOpenFlag;
+
+    // batch path: the next page and slot to read, and the batch handed out
+    private transient int                   batchPgNo;
+    private transient int                   batchSlot;
+    private transient int                   batchEndPage;
+    private transient SequentialPrefetcher  batchPrefetcher;
+    private transient TupleBatch            batch;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -46,6 +66,31 @@ public class SeqScan implements OpIterator {
         this.tableAlias     = tableAlias;
         this.baseIter       = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
         this.tupleDesc      = null;
+        this.fromPage       = 0;
+        this.toPage         = -1;
+
+        this.isOpenFlag     = false;
+    }
+
+    /**
+     * Creates a scan over the pages [fromPage, toPage) of a HeapFile.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; must be stored in a HeapFile
+     * @param tableAlias the alias of this table
+     * @param fromPage   the first page to scan
+     * @param toPage     one past the last page to scan; pages beyond the end
+     *                   of the file are ignored
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int fromPage, int toPage) {
+        this.transactionId  = tid;
+        this.tableId        = tableid;
+        this.tableAlias     = tableAlias;
+        final HeapFile dbFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.baseIter       = new HeapFileIterator(tid, dbFile, fromPage, toPage);
+        this.tupleDesc      = null;
+        this.fromPage       = fromPage;
+        this.toPage         = toPage;
 
         this.isOpenFlag     = false;
     }
@@ -59,6 +104,21 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the first page scanned
+     */
+    public int getFromPage() {
+        return fromPage;
+    }
+
+    /**
+     * @return one past the last page scanned, or -1 if the scan reads to the
+     *         end of the file
+     */
+    public int getToPage() {
+        return toPage;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      */
@@ -84,7 +144,10 @@ public class SeqScan implements OpIterator {
         this.tableAlias         = tableAlias;
         this.tupleDesc          = null;
         final HeapFile dbFile   = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
-        this.baseIter           = new HeapFileIterator(transactionId, tableid, dbFile.numPages());
+        this.baseIter           = new HeapFileIterator(transactionId, dbFile);
+        this.fromPage           = 0;
+        this.toPage             = -1;
+        this.batch              = null;
 
         this.isOpenFlag         = false;
     }
@@ -97,6 +160,57 @@ public class SeqScan implements OpIterator {
         // DONE
         baseIter.open();
         isOpenFlag = true;
+        resetBatchCursor();
+    }
+
+    private void resetBatchCursor() {
+        batchPgNo       = fromPage;
+        batchSlot       = 0;
+        batchEndPage    = -1;
+        if (batchPrefetcher != null) {
+            batchPrefetcher.close();
+            batchPrefetcher = null;
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!isOpenFlag) {
+            throw new IllegalStateException("The iterator is NOT open.");
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        final DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            return TupleBatch.fill(this, batch);
+        }
+        final HeapFile heapFile = (HeapFile) file;
+        if (batchEndPage < 0) {
+            batchEndPage = toPage < 0 ? heapFile.numPages() : Math.min(toPage, heapFile.numPages());
+            if (SequentialPrefetcher.isUseful(heapFile)) {
+                batchPrefetcher = new SequentialPrefetcher(heapFile);
+            }
+        }
+
+        batch.clear();
+        while (!batch.isFull() && batchPgNo < batchEndPage) {
+            final HeapPageId pid = new HeapPageId(tableId, batchPgNo);
+            if (batchSlot == 0 && batchPrefetcher != null) {
+                batchPrefetcher.access(batchPgNo);
+            }
+            final BufferPool.Pin pin = Database.getBufferPool().pinPage(transactionId, pid, Permissions.READ_ONLY);
+            try {
+                final HeapPage page = (HeapPage) pin.getPage();
+                batchSlot = page.fillBatch(batch, batchSlot);
+                if (batchSlot >= page.getNumSlots()) {
+                    batchPgNo++;
+                    batchSlot = 0;
+                }
+            } finally {
+                Database.getBufferPool().unpinPage(pin);
+            }
+        }
+        return batch.numSelected() == 0 ? null : batch;
     }
 
     /**
@@ -162,6 +276,7 @@ public class SeqScan implements OpIterator {
 //        }
         isOpenFlag = false;
         baseIter.close();
+        resetBatchCursor();
     }
 
     public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
@@ -170,5 +285,6 @@ public class SeqScan implements OpIterator {
             throw new IllegalStateException("The iterator is NOT open.");
         }
         baseIter.rewind();
+        resetBatchCursor();
     }
 }
@@ -3,13 +3,15 @@ package simpledb.execution;
 import simpledb.common.Type;
 import simpledb.storage.*;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * Like {@link IntegerAggregator}, each group only keeps a running count in a
+ * primitive array indexed by group number.
  */
 public class StringAggregator implements Aggregator {
 
@@ -24,7 +26,9 @@ public class StringAggregator implements Aggregator {
     private Op                  aop;
 
     private TupleDesc           td;
-    private Map<Field, Integer> groupMap;
+    // group-by value -> group number, null if there is no grouping (everything is group 0)
+    private GroupTable          groups;
+    private long[]              counts;
 
     /**
      * Aggregate constructor
@@ -45,7 +49,8 @@ public class StringAggregator implements Aggregator {
         this.agfield        = afield;
         this.aop            = what;
 
-        this.groupMap       = new HashMap<>();
+        this.groups         = gbfield == NO_GROUPING ? null : new GroupTable(gbfieldtype);
+        this.counts         = new long[1];
     }
 
     /**
@@ -58,9 +63,11 @@ public class StringAggregator implements Aggregator {
         if (this.td == null) {
             this.td = buildTupleDesc(tup.getTupleDesc());
         }
-        final Field         gbFIELD = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
-        final StringField   aFIELD  = (StringField) tup.getField(agfield);
-        groupMap.put(gbFIELD, groupMap.getOrDefault(gbFIELD, 0) + 1);
+        final int           group   = groups == null ? 0 : groups.groupOf(tup.getField(gbfield));
+        if (group == counts.length) {
+            counts = Arrays.copyOf(counts, counts.length * 2);
+        }
+        counts[group]++;
     }
 
     public TupleDesc buildTupleDesc(final TupleDesc originTd) {
@@ -87,17 +94,17 @@ public class StringAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // DONE
-        final List<Tuple> tuples = new LinkedList<>();
+        final List<Tuple> tuples = new ArrayList<>();
         if (gbfield != NO_GROUPING) {
-            groupMap.forEach((key, cnt) -> {
+            for (int group = 0; group < groups.size(); group++) {
                 final Tuple tuple = new Tuple(td);
-                tuple.setField(0, key);
-                tuple.setField(1, new IntField(cnt));
+                tuple.setField(0, groups.valueOf(group));
+                tuple.setField(1, new IntField((int) counts[group]));
                 tuples.add(tuple);
-            });
-        } else {
+            }
+        } else if (counts[0] > 0) {
             final Tuple tuple = new Tuple(td);
-            tuple.setField(0, new IntField(groupMap.get(null)));
+            tuple.setField(0, new IntField((int) counts[0]));
             tuples.add(tuple);
         }
         return new TupleIterator(td, tuples);
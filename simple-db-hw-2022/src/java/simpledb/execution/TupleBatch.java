@@ -0,0 +1,233 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * A batch of up to {@link #capacity()} rows stored column by column, passed
+ * between operators by {@link BatchIterator#nextBatch()}.
+ * <p>
+ * INT_TYPE columns are int[] and STRING_TYPE columns String[], indexed by row.
+ * Rows that are part of the batch are listed in the selection vector, so an
+ * operator like Filter drops rows by shrinking the selection instead of
+ * copying the columns; consumers must only read the selected rows. Columns
+ * may be shared between batches (see {@link #project}), so a batch must be
+ * treated as read-only once it has been handed out, and is only valid until
+ * the next call to nextBatch() of the iterator that returned it.
+ */
+public class TupleBatch {
+
+    // rows per batch
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc     td;
+    private final int           capacity;
+    // column -> values by row; exactly one of the two is non-null per column
+    private final int[][]       intCols;
+    private final String[][]    strCols;
+    private final RecordId[]    recordIds;
+    // rows filled so far
+    private int                 size;
+    // selection vector: the selected rows, in increasing order; may be
+    // replaced by setSelection() until the batch is cleared
+    private final int[]         ownSelection;
+    private int[]               selection;
+    private int                 numSelected;
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td         = td;
+        this.capacity   = capacity;
+        this.intCols    = new int[td.numFields()][];
+        this.strCols    = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                intCols[i] = new int[capacity];
+            } else {
+                strCols[i] = new String[capacity];
+            }
+        }
+        this.recordIds      = new RecordId[capacity];
+        this.ownSelection   = new int[capacity];
+        this.selection      = ownSelection;
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int[][] intCols, String[][] strCols,
+                       RecordId[] recordIds, int size, int[] selection, int numSelected) {
+        this.td             = td;
+        this.capacity       = capacity;
+        this.intCols        = intCols;
+        this.strCols        = strCols;
+        this.recordIds      = recordIds;
+        this.size           = size;
+        this.ownSelection   = selection;
+        this.selection      = selection;
+        this.numSelected    = numSelected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return true if no more rows can be added
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Empties the batch for reuse.
+     */
+    public void clear() {
+        size        = 0;
+        selection   = ownSelection;
+        numSelected = 0;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int numSelected() {
+        return numSelected;
+    }
+
+    /**
+     * @return the row index of the ith selected row
+     */
+    public int selectedRow(int i) {
+        return selection[i];
+    }
+
+    /**
+     * @return the selection vector; only its first {@link #numSelected()}
+     *         entries are meaningful
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /**
+     * Keeps only the first n rows listed in selection, which must be a subset
+     * of the currently selected rows, in increasing order. The array is used
+     * as is, so it may be the one returned by {@link #getSelection()}.
+     */
+    public void setSelection(int[] selection, int n) {
+        this.selection      = selection;
+        this.numSelected    = n;
+    }
+
+    /**
+     * @return the values of an INT_TYPE column by row
+     */
+    public int[] getIntColumn(int col) {
+        return intCols[col];
+    }
+
+    /**
+     * @return the values of a STRING_TYPE column by row
+     */
+    public String[] getStringColumn(int col) {
+        return strCols[col];
+    }
+
+    public Field getField(int row, int col) {
+        if (intCols[col] != null) {
+            return new IntField(intCols[col][row]);
+        }
+        return new StringField(strCols[col][row], Type.STRING_LEN);
+    }
+
+    public RecordId getRecordId(int row) {
+        return recordIds[row];
+    }
+
+    /**
+     * @return row as a Tuple
+     */
+    public Tuple getTuple(int row) {
+        final Tuple t = new Tuple(td);
+        for (int col = 0; col < intCols.length; col++) {
+            t.setField(col, getField(row, col));
+        }
+        t.setRecordId(recordIds[row]);
+        return t;
+    }
+
+    /**
+     * Appends a selected row and returns its index; the caller fills in the
+     * columns with {@link #setInt} and {@link #setString}.
+     */
+    public int addRow(RecordId rid) {
+        final int row = size++;
+        recordIds[row]          = rid;
+        selection[numSelected++] = row;
+        return row;
+    }
+
+    public void setInt(int row, int col, int value) {
+        intCols[col][row] = value;
+    }
+
+    public void setString(int row, int col, String value) {
+        strCols[col][row] = value;
+    }
+
+    /**
+     * Appends t as a selected row.
+     */
+    public void add(Tuple t) {
+        final int row = addRow(t.getRecordId());
+        for (int col = 0; col < intCols.length; col++) {
+            final Field f = t.getField(col);
+            if (intCols[col] != null) {
+                intCols[col][row] = ((IntField) f).getValue();
+            } else {
+                strCols[col][row] = ((StringField) f).getValue();
+            }
+        }
+    }
+
+    /**
+     * Returns a batch of the given columns of this one, in the given order.
+     * The columns and the selection vector are shared, not copied.
+     */
+    public TupleBatch project(int[] cols, TupleDesc outTd) {
+        final int[][]       outInts = new int[cols.length][];
+        final String[][]    outStrs = new String[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            outInts[i] = intCols[cols[i]];
+            outStrs[i] = strCols[cols[i]];
+        }
+        return new TupleBatch(outTd, capacity, outInts, outStrs, recordIds, size, selection, numSelected);
+    }
+
+    /**
+     * Fills into with the next tuples of it, for iterators without a batch
+     * implementation of their own.
+     *
+     * @return into, or null if it has no more tuples
+     */
+    public static TupleBatch fill(OpIterator it, TupleBatch into)
+            throws DbException, TransactionAbortedException {
+        into.clear();
+        while (!into.isFull() && it.hasNext()) {
+            into.add(it.next());
+        }
+        return into.numSelected() == 0 ? null : into;
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb.execution.algorithm;
+
+import simpledb.common.DbException;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * Block nested-loop join: reads a block of outer (child1) tuples, as many as
+ * fit on a given number of heap pages, and scans the inner (child2) once per
+ * block instead of once per outer tuple. Works for any predicate.
+ */
+public class BlockNestedLoopJoin extends JoinHelper {
+
+    private static final long serialVersionUID = 1L;
+
+    // outer pages buffered per scan of the inner
+    public static final int DEFAULT_BLOCK_PAGES = 64;
+
+    private final Tuple[]   block;
+    private int             blockLen;
+    private int             blockIdx;
+    private Tuple           right;
+    private boolean         started;
+
+    public BlockNestedLoopJoin(JoinPredicate jp, OpIterator child1, OpIterator child2)
+            throws DbException, TransactionAbortedException {
+        this(jp, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * @param blockPages number of heap pages worth of outer tuples to buffer
+     */
+    public BlockNestedLoopJoin(JoinPredicate jp, OpIterator child1, OpIterator child2, int blockPages)
+            throws DbException, TransactionAbortedException {
+        super(jp, child1, child2);
+        this.block = new Tuple[tuplesPerBlock(child1.getTupleDesc(), blockPages)];
+    }
+
+    /**
+     * @return the number of tuples of the given schema on blockPages heap pages
+     */
+    public static int tuplesPerBlock(TupleDesc td, int blockPages) {
+        final int perPage = (BufferPool.getPageSize() << 3) / ((td.getSize() << 3) + 1);
+        return Math.max(1, blockPages * perPage);
+    }
+
+    @Override
+    public Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (!started) {
+            started = true;
+            if (!fillBlock()) {
+                return null;
+            }
+        }
+        while (true) {
+            if (right != null) {
+                while (blockIdx < blockLen) {
+                    final Tuple left = block[blockIdx++];
+                    if (jp.filter(left, right)) {
+                        return mergeTuple(left, right, td);
+                    }
+                }
+            }
+            // next inner tuple, or the next block and a fresh scan of the inner
+            if (child2.hasNext()) {
+                right       = child2.next();
+                blockIdx    = 0;
+                continue;
+            }
+            if (!fillBlock()) {
+                return null;
+            }
+            child2.rewind();
+            right = null;
+        }
+    }
+
+    /**
+     * Reads the next block of outer tuples.
+     *
+     * @return false if the outer is exhausted
+     */
+    private boolean fillBlock() throws DbException, TransactionAbortedException {
+        Arrays.fill(block, 0, blockLen, null);
+        blockLen = 0;
+        while (blockLen < block.length && child1.hasNext()) {
+            block[blockLen++] = child1.next();
+        }
+        blockIdx = 0;
+        return blockLen > 0;
+    }
+}
@@ -1,23 +1,359 @@
 package simpledb.execution.algorithm;
 
 import simpledb.common.DbException;
+import simpledb.execution.AbstractExchange;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
-// An impl of simple hashJoin
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Hash join for equality predicates.
+ * <p>
+ * The join builds a hash table on the smaller input and probes it with the
+ * larger one. Which input is smaller is found out by reading child1 and then
+ * child2 up to the memory budget: the first one to run out within the budget
+ * becomes the build side, and its tuples are never read again.
+ * <p>
+ * If neither input fits, it is a grace hash join: both inputs are hashed on the
+ * join field into {@link #FANOUT} partitions each, written to {@link SpillFile}s,
+ * and every pair of partitions is then joined on its own, building on the
+ * smaller partition of the pair. A partition whose smaller side still exceeds
+ * the budget is partitioned again with a different hash, up to
+ * {@link #MAX_DEPTH} levels; past that (heavy skew on one key) it is built in
+ * memory anyway. Each input is thus read once from its child, and at most
+ * {@link #MAX_DEPTH} more times from spill files.
+ * <p>
+ * A child1 that is an output of an exchange with several outputs is read to
+ * its end before child2 is touched, spilling it if it does not fit: the
+ * producers of the exchange wait while the queue of this output is full, and
+ * would then starve the other outputs, whose joins may in turn hold up the
+ * producers of child2 (see {@link AbstractExchange}).
+ * <p>
+ * Other predicates cannot be hashed and are delegated to {@link NestedLoopJoin}.
+ * Output tuples are always child1's fields followed by child2's, but their
+ * order depends on which side was built.
+ */
 public class HashJoin extends JoinHelper {
 
     private static final long serialVersionUID = 1L;
 
+    // bytes of tuple data held in the hash table before the join spills
+    public static final long    DEFAULT_MEMORY_BUDGET   = 1 << 20;
+    // partitions per spill level
+    static final int            FANOUT                  = 16;
+    // levels of repartitioning before a partition is built in memory regardless
+    static final int            MAX_DEPTH               = 3;
+
+    private final long          memoryBudget;
+    private final JoinHelper    fallback;
+    // child1 must be read to its end before child2 is read
+    private final boolean       drainLeft;
+
+    private boolean             started;
+    // the hash table, built on buildLeft ? child1 : child2
+    private final Map<Field, List<Tuple>> table = new HashMap<>();
+    private boolean             buildLeft;
+    // probe input: first probeBuffer, then probeChild
+    private Iterator<Tuple>     probeBuffer;
+    private OpIterator          probeChild;
+    // current probe tuple and its matches
+    private Tuple               probe;
+    private List<Tuple>         matches;
+    private int                 matchIdx;
+
+    // grace phase: pairs of partitions still to join, and every spill file created
+    private final Deque<Partition>  pending = new ArrayDeque<>();
+    private final List<SpillFile>   spills  = new ArrayList<>();
+    private Partition               current;
+
     public HashJoin(JoinPredicate jp, OpIterator child1, OpIterator child2)
             throws TransactionAbortedException, DbException {
+        this(jp, child1, child2, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget bytes of tuple data the hash table may hold before
+     *                     the inputs are partitioned to disk
+     */
+    public HashJoin(JoinPredicate jp, OpIterator child1, OpIterator child2, long memoryBudget)
+            throws TransactionAbortedException, DbException {
         super(jp, child1, child2);
+        this.memoryBudget   = memoryBudget;
+        this.fallback       = jp.getOperator() == Predicate.Op.EQUALS ? null : new NestedLoopJoin(jp, child1, child2);
+        this.drainLeft      = child1 instanceof AbstractExchange && ((AbstractExchange) child1).getNumOutputs() > 1;
     }
 
     @Override
-    public Tuple fetchNext() {
+    public Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (fallback != null) {
+            return fallback.fetchNext();
+        }
+        if (!started) {
+            started = true;
+            start();
+        }
+        while (true) {
+            if (matches != null && matchIdx < matches.size()) {
+                final Tuple match = matches.get(matchIdx++);
+                return buildLeft ? mergeTuple(match, probe, td) : mergeTuple(probe, match, td);
+            }
+            probe = nextProbe();
+            if (probe != null) {
+                matches     = table.get(probe.getField(buildLeft ? jp.getField2() : jp.getField1()));
+                matchIdx    = 0;
+                continue;
+            }
+            if (pending.isEmpty()) {
+                return null;
+            }
+            try {
+                joinPartition(pending.pop());
+            } catch (IOException e) {
+                throw new DbException("hash join spill failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Deletes the spill files. Called when the join is closed.
+     */
+    @Override
+    public void close() {
+        for (SpillFile spill : spills) {
+            spill.close();
+        }
+        spills.clear();
+        pending.clear();
+        current = null;
+        table.clear();
+        matches = null;
+    }
+
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (probeBuffer != null && probeBuffer.hasNext()) {
+            return probeBuffer.next();
+        }
+        if (probeChild != null && probeChild.hasNext()) {
+            return probeChild.next();
+        }
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads the inputs up to the budget to pick the build side, or partitions
+     * both if neither fits.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        final List<Tuple> left = new ArrayList<>();
+        if (fill(child1, left, child1.getTupleDesc().getSize())) {
+            buildLeft   = true;
+            build(left.iterator(), jp.getField1());
+            probeChild  = child2;
+            return;
+        }
+        if (drainLeft) {
+            startDrained(left);
+            return;
+        }
+        final List<Tuple> right = new ArrayList<>();
+        if (fill(child2, right, child2.getTupleDesc().getSize())) {
+            buildLeft   = false;
+            build(right.iterator(), jp.getField2());
+            probeBuffer = left.iterator();
+            probeChild  = child1;
+            return;
+        }
+        try {
+            final SpillFile[] leftParts     = partition(left.iterator(), child1, jp.getField1());
+            left.clear();
+            final SpillFile[] rightParts    = partition(right.iterator(), child2, jp.getField2());
+            right.clear();
+            for (int i = 0; i < FANOUT; i++) {
+                pending.add(new Partition(leftParts[i], rightParts[i], 0));
+            }
+        } catch (IOException e) {
+            throw new DbException("hash join spill failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Partitions the rest of child1 to disk, then builds on child2 if it fits,
+     * probing with the partitions of child1, or partitions child2 too.
+     *
+     * @param left the tuples of child1 read so far
+     */
+    private void startDrained(List<Tuple> left) throws DbException, TransactionAbortedException {
+        try {
+            final SpillFile[] leftParts = partition(left.iterator(), child1, jp.getField1());
+            left.clear();
+            final List<Tuple> right = new ArrayList<>();
+            if (fill(child2, right, child2.getTupleDesc().getSize())) {
+                buildLeft   = false;
+                build(right.iterator(), jp.getField2());
+                final Deque<Iterator<Tuple>> parts = new ArrayDeque<>();
+                for (SpillFile part : leftParts) {
+                    parts.add(part.iterator());
+                }
+                probeBuffer = new Iterator<Tuple>() {
+                    @Override
+                    public boolean hasNext() {
+                        while (!parts.isEmpty() && !parts.peek().hasNext()) {
+                            parts.pop();
+                        }
+                        return !parts.isEmpty();
+                    }
+
+                    @Override
+                    public Tuple next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return parts.peek().next();
+                    }
+                };
+                return;
+            }
+            final SpillFile[] rightParts = partition(right.iterator(), child2, jp.getField2());
+            right.clear();
+            for (int i = 0; i < FANOUT; i++) {
+                pending.add(new Partition(leftParts[i], rightParts[i], 0));
+            }
+        } catch (IOException e) {
+            throw new DbException("hash join spill failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads child into buffer until it is exhausted or the budget is used up.
+     *
+     * @return true if child was exhausted within the budget
+     */
+    private boolean fill(OpIterator child, List<Tuple> buffer, int tupleSize)
+            throws DbException, TransactionAbortedException {
+        long bytes = 0;
+        while (child.hasNext()) {
+            if (bytes + tupleSize > memoryBudget) {
+                return false;
+            }
+            buffer.add(child.next());
+            bytes += tupleSize;
+        }
+        return true;
+    }
+
+    private void build(Iterator<Tuple> tuples, int field) {
+        table.clear();
+        while (tuples.hasNext()) {
+            final Tuple t = tuples.next();
+            table.computeIfAbsent(t.getField(field), k -> new ArrayList<>()).add(t);
+        }
+    }
+
+    /**
+     * Hashes the buffered tuples, and then the rest of child, into FANOUT new
+     * spill files.
+     */
+    private SpillFile[] partition(Iterator<Tuple> buffered, OpIterator child, int field)
+            throws IOException, DbException, TransactionAbortedException {
+        final SpillFile[] parts = newPartitions(child.getTupleDesc());
+        while (buffered.hasNext()) {
+            final Tuple t = buffered.next();
+            parts[bucket(t.getField(field), 0)].add(t);
+        }
+        while (child.hasNext()) {
+            final Tuple t = child.next();
+            parts[bucket(t.getField(field), 0)].add(t);
+        }
+        return parts;
+    }
+
+    /**
+     * Sets up the hash table and probe input for the next pair of partitions,
+     * or splits the pair again if its smaller side does not fit.
+     */
+    private void joinPartition(Partition p) throws IOException {
+        table.clear();
+        probeBuffer = null;
+        probeChild  = null;
+        if (current != null) {
+            release(current.left);
+            release(current.right);
+        }
+        current = p;
+        if (p.left.size() == 0 || p.right.size() == 0) {
+            return;
+        }
+        buildLeft = p.left.sizeInBytes() <= p.right.sizeInBytes();
+        final SpillFile buildSide = buildLeft ? p.left : p.right;
+        final SpillFile probeSide = buildLeft ? p.right : p.left;
+        if (buildSide.sizeInBytes() > memoryBudget && p.depth + 1 < MAX_DEPTH) {
+            final SpillFile[] leftParts     = repartition(p.left, jp.getField1(), p.depth + 1);
+            final SpillFile[] rightParts    = repartition(p.right, jp.getField2(), p.depth + 1);
+            current = null;
+            for (int i = FANOUT - 1; i >= 0; i--) {
+                pending.push(new Partition(leftParts[i], rightParts[i], p.depth + 1));
+            }
+            return;
+        }
+        build(buildSide.iterator(), buildLeft ? jp.getField1() : jp.getField2());
+        probeBuffer = probeSide.iterator();
+    }
+
+    private SpillFile[] repartition(SpillFile from, int field, int depth) throws IOException {
+        final SpillFile[] parts = newPartitions(from.getTupleDesc());
+        final Iterator<Tuple> it = from.iterator();
+        while (it.hasNext()) {
+            final Tuple t = it.next();
+            parts[bucket(t.getField(field), depth)].add(t);
+        }
+        release(from);
+        return parts;
+    }
+
+    private SpillFile[] newPartitions(TupleDesc partTd) throws IOException {
+        final SpillFile[] parts = new SpillFile[FANOUT];
+        for (int i = 0; i < FANOUT; i++) {
+            parts[i] = new SpillFile(partTd);
+            spills.add(parts[i]);
+        }
+        return parts;
+    }
+
+    private void release(SpillFile spill) {
+        spill.close();
+        spills.remove(spill);
+    }
+
+    /**
+     * Partition of a join key at the given depth. Each depth mixes in its own
+     * seed so that a partition is split again rather than mapped back to a
+     * single bucket.
+     */
+    static int bucket(Field key, int depth) {
+        int h = key.hashCode() * 0x9E3779B9 + depth * 0x85EBCA6B;
+        h ^= h >>> 16;
+        h *= 0x7FEB352D;
+        h ^= h >>> 15;
+        return (h & 0x7FFFFFFF) % FANOUT;
+    }
+
+    private static final class Partition {
+        final SpillFile left;
+        final SpillFile right;
+        final int       depth;
+
+        Partition(SpillFile left, SpillFile right, int depth) {
+            this.left   = left;
+            this.right  = right;
+            this.depth  = depth;
+        }
+    }
+}
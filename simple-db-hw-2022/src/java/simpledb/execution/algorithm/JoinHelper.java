@@ -27,6 +27,13 @@ public abstract class JoinHelper {
 
     public abstract Tuple fetchNext() throws DbException, TransactionAbortedException;
 
+    /**
+     * Releases whatever the join holds besides its children, e.g. temporary
+     * files. Called by Join before it closes the children.
+     */
+    public void close() {
+    }
+
     public static Tuple mergeTuple(final Tuple tuple1, final Tuple tuple2, final TupleDesc td) {
         final Tuple tuple   = new Tuple(td);
         final int   len1    = tuple1.getTupleDesc().numFields();
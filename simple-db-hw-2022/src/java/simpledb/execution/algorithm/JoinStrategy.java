@@ -8,7 +8,7 @@ import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
 public enum JoinStrategy {
-    NestedLoop, SortMerge, Hash;
+    NestedLoop, BlockNestedLoop, SortMerge, Hash;
 
     private static final long serialVersionUID = 1L;
 }
@@ -1,173 +1,128 @@
 package simpledb.execution.algorithm;
 
 import simpledb.common.DbException;
+import simpledb.execution.ExternalSorter;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.execution.TupleComparator;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
-import simpledb.storage.TupleIterator;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
+/**
+ * Sort-merge join for equality predicates.
+ * <p>
+ * Both inputs are sorted on their join field with an {@link ExternalSorter},
+ * spilling sorted runs to disk if they do not fit in memory, and then merged.
+ * For each join key the matching child2 tuples are collected and paired with
+ * every child1 tuple of that key, so only one key's worth of child2 tuples is
+ * held in memory while merging.
+ * <p>
+ * Other predicates are delegated to {@link BlockNestedLoopJoin}.
+ */
 public class SortMergeJoin extends JoinHelper {
 
     private static final long serialVersionUID = 1L;
 
-    private final int     blockCacheSize = 131072 * 5;
-    private Tuple[]       block1;
-    private Tuple[]       block2;
+    private final JoinHelper    fallback;
 
-    private JoinPredicate lt;
-    private JoinPredicate eq;
-
-    private TupleIterator iter;
+    private ExternalSorter      sorter1;
+    private ExternalSorter      sorter2;
+    private Iterator<Tuple>     it1;
+    private Iterator<Tuple>     it2;
+    private Tuple               left;
+    private Tuple               right;
+    // child2 tuples with the key of the current group, and the one to pair next
+    private final List<Tuple>   group = new ArrayList<>();
+    private Field               groupKey;
+    private int                 groupIdx;
 
     public SortMergeJoin(JoinPredicate jp, OpIterator child1, OpIterator child2)
             throws TransactionAbortedException, DbException {
         super(jp, child1, child2);
-        final int tuple1Num = blockCacheSize / child1.getTupleDesc().getSize();
-        final int tuple2Num = blockCacheSize / child2.getTupleDesc().getSize();
-
-        // build cache block
-        this.block1         = new Tuple[tuple1Num];
-        this.block2         = new Tuple[tuple2Num];
-
-        final int field1    = jp.getField1();
-        final int field2    = jp.getField2();
-        this.lt             = new JoinPredicate(field1, Predicate.Op.LESS_THAN, field2);
-        this.eq             = new JoinPredicate(field1, Predicate.Op.EQUALS, field2);
-
-        // doJoin and cache
-        this.iter           = doJoin();
-        this.iter.open();
+        this.fallback = jp.getOperator() == Predicate.Op.EQUALS ? null : new BlockNestedLoopJoin(jp, child1, child2);
     }
 
     @Override
     public Tuple fetchNext() throws DbException, TransactionAbortedException {
-        if (!iter.hasNext()) {
-            return null;
+        if (fallback != null) {
+            return fallback.fetchNext();
         }
-        return iter.next();
-    }
-
-
-    public TupleIterator doJoin() {
-        final List<Tuple> tupleList = new ArrayList<>();
-
-        // fetch child1
-        try {
-            child1.rewind();
-            while (child1.hasNext()) {
-                int end1 = fetchTuples(child1, block1);
-                // Fetch each block of child2, and do merge join
-                child2.rewind();
-                while (child2.hasNext()) {
-                    int end2 = fetchTuples(child2, block2);
-                    mergeJoin(tupleList, end1, end2);
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("Error happen when sort merge join:" + e.getMessage());
+        if (sorter1 == null) {
+            sort();
         }
-        Arrays.fill(block1, null);
-        Arrays.fill(block2, null);
-        return new TupleIterator(super.td, tupleList);
-    }
-
-    private void mergeJoin(final List<Tuple> tupleList, int end1, int end2) {
-        // 1.Sort each block
-        final int field1 = super.jp.getField1();
-        final int field2 = super.jp.getField2();
-        sortTuples(block1, field1, end1);
-        sortTuples(block2, field2, end2);
-
-        // 2.Join
-        int index1 = 0, index2 = 0;
-        final Predicate.Op op = super.jp.getOperator();
-        switch (op) {
-            case EQUALS: {
-                while (index1 < end1 && index2 < end2) {
-                    final Tuple lTuple = block1[index1];
-                    final Tuple rTuple = block2[index2];
-                    if (eq.filter(lTuple, rTuple)) {
-                        // If equal , we should find the right boundary that equal to lTuple in block1 and rTuple in block2
-                        final JoinPredicate eq1 = new JoinPredicate(field1, Predicate.Op.EQUALS, field1);
-                        final JoinPredicate eq2 = new JoinPredicate(field2, Predicate.Op.EQUALS, field2);
-                        int begin1 = index1 + 1, begin2 = index2 + 1;
-                        while (begin1 < end1 && eq1.filter(lTuple, block1[begin1]))
-                            begin1++;
-                        while (begin2 < end2 && eq2.filter(rTuple, block2[begin2]))
-                            begin2++;
-                        for (int i = index1; i < begin1; i++) {
-                            for (int j = index2; j < begin2; j++) {
-                                tupleList.add(mergeTuple(block1[i], block2[j], super.td));
-                            }
-                        }
-                        index1 = begin1;
-                        index2 = begin2;
-                    } else if (lt.filter(lTuple, rTuple)) {
-                        index1++;
-                    } else {
-                        index2++;
-                    }
-                }
-                return;
+        while (true) {
+            // pair the current child1 tuple with the rest of the group
+            if (left != null && groupKey != null && groupIdx < group.size()) {
+                return mergeTuple(left, group.get(groupIdx++), td);
             }
-            case LESS_THAN:
-            case LESS_THAN_OR_EQ: {
-                while (index1 < end1) {
-                    final Tuple lTuple = block1[index1++];
-                    while (index2 < end2 && !super.jp.filter(lTuple, block2[index2]))
-                        index2++;
-                    while (index2 < end2) {
-                        final Tuple rTuple = block2[index2++];
-                        tupleList.add(mergeTuple(lTuple, rTuple, td));
-                    }
+            if (groupKey != null) {
+                // next child1 tuple; stay in the group while it has the same key
+                left = it1.hasNext() ? it1.next() : null;
+                if (left != null && left.getField(jp.getField1()).equals(groupKey)) {
+                    groupIdx = 0;
+                    continue;
                 }
-                return;
+                groupKey = null;
+                group.clear();
             }
-            case GREATER_THAN:
-            case GREATER_THAN_OR_EQ: {
-                while (index1 < end1) {
-                    final Tuple lTuple = block1[index1++];
-                    while (index2 < end2 && super.jp.filter(lTuple, block2[index2]))
-                        index2++;
-                    for (int i = 0; i < index2; i++) {
-                        final Tuple rTuple = block2[i];
-                        tupleList.add(mergeTuple(lTuple, rTuple, super.td));
-                    }
+            if (left == null || right == null) {
+                return null;
+            }
+            final Field key1 = left.getField(jp.getField1());
+            final Field key2 = right.getField(jp.getField2());
+            if (key1.compare(Predicate.Op.LESS_THAN, key2)) {
+                left = it1.hasNext() ? it1.next() : null;
+            } else if (key1.compare(Predicate.Op.GREATER_THAN, key2)) {
+                right = it2.hasNext() ? it2.next() : null;
+            } else {
+                // collect the child2 tuples of this key
+                groupKey = key1;
+                groupIdx = 0;
+                while (right != null && right.getField(jp.getField2()).equals(key1)) {
+                    group.add(right);
+                    right = it2.hasNext() ? it2.next() : null;
                 }
             }
         }
     }
 
-    private void sortTuples(Tuple[] tuples, int field, int len) {
-        final JoinPredicate lt = new JoinPredicate(field, Predicate.Op.LESS_THAN, field);
-        final JoinPredicate gt = new JoinPredicate(field, Predicate.Op.GREATER_THAN, field);
-        Arrays.sort(tuples, 0, len, (o1, o2) -> {
-            if (lt.filter(o1, o2)) {
-                return -1;
-            }
-            if (gt.filter(o1, o2)) {
-                return 1;
-            }
-            return 0;
-        });
+    /**
+     * Deletes the sorters' runs. Called when the join is closed.
+     */
+    @Override
+    public void close() {
+        if (sorter1 != null) {
+            sorter1.close();
+        }
+        if (sorter2 != null) {
+            sorter2.close();
+        }
+        group.clear();
     }
 
-    private int fetchTuples(final OpIterator child, final Tuple[] tuples) throws Exception {
-        int i = 0;
-        Arrays.fill(tuples, null);
-        while (child.hasNext() && i < tuples.length) {
-            final Tuple next = child.next();
-            if (next != null) {
-                tuples[i++] = next;
+    private void sort() throws DbException, TransactionAbortedException {
+        sorter1 = new ExternalSorter(child1.getTupleDesc(), new TupleComparator(jp.getField1(), true));
+        sorter2 = new ExternalSorter(child2.getTupleDesc(), new TupleComparator(jp.getField2(), true));
+        try {
+            while (child1.hasNext()) {
+                sorter1.add(child1.next());
+            }
+            while (child2.hasNext()) {
+                sorter2.add(child2.next());
             }
+            it1 = sorter1.iterator();
+            it2 = sorter2.iterator();
+        } catch (IOException e) {
+            throw new DbException("sort merge join spill failed: " + e.getMessage());
         }
-        return i;
+        left    = it1.hasNext() ? it1.next() : null;
+        right   = it2.hasNext() ? it2.next() : null;
     }
 }
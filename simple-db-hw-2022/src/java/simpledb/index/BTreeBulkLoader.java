@@ -0,0 +1,280 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the pages of an empty BTreeFile bottom-up from tuples sorted on the
+ * key field, see {@link BTreeFile#bulkLoad(simpledb.transaction.TransactionId, java.util.Iterator, double)}.
+ * <p>
+ * Leaves are filled to the fill factor in key order, and each finished page is
+ * handed to its parent level the same way, so every page is written exactly
+ * once, straight to the file. A level only closes a page once the tuples or
+ * children buffered after it are enough for another page at least half full,
+ * so the last pages of a level need no rebalancing; a page is written when its
+ * parent is closed and its parent pointer is known. Page numbers are handed
+ * out in advance, so that siblings can point to each other before they are
+ * written. Memory use is about one and a half pages per level.
+ */
+class BTreeBulkLoader {
+
+    private final BTreeFile         bf;
+    private final TupleDesc         td;
+    private final Type[]            types;
+    private final Type              keyType;
+    private final int               tableid;
+
+    private final int               leafCapacity;
+    private final int               leafFill;
+    private final int               minLeaf;
+    // internal pages, counted in bytes of entries since keys may differ in length
+    private final BTreeInternalPage internal;
+    private final int               internalCapacity;
+    private final int               internalFill;
+    private final int               minInternal;
+    private final int               maxEntrySize;
+
+    // pages up to this number exist in the file but are not in use
+    private final int               unusedPages;
+    private int                     nextPageNo;
+
+    private final List<Tuple>       tuples      = new ArrayList<>();
+    private Field                   prevKey;
+    private Field                   prevLeafKey;
+    private BTreePageId             prevLeaf;
+    private BTreePageId             nextLeaf;
+    private boolean                 closedLeaf;
+    // levels of internal pages, from the parents of the leaves up
+    private final List<Level>       levels      = new ArrayList<>();
+
+    /**
+     * Pages waiting for a parent on one level of internal pages.
+     */
+    private static final class Level {
+        // the separator before each child; null before the first child of the level
+        final List<Field>       keys        = new ArrayList<>();
+        final List<BTreePage>   children    = new ArrayList<>();
+        // bytes the entries of all but the first child take
+        int                     size;
+        BTreePageId             nextPage;
+        boolean                 closedPage;
+    }
+
+    /**
+     * @param bf         - the empty BTreeFile to fill
+     * @param fillFactor - the fraction of each page to fill, at least one half
+     */
+    BTreeBulkLoader(BTreeFile bf, double fillFactor) throws IOException {
+        if (fillFactor < 0.5 || fillFactor > 1.0) {
+            throw new IllegalArgumentException("fill factor must be between 0.5 and 1, was " + fillFactor);
+        }
+        this.bf         = bf;
+        this.td         = bf.getTupleDesc();
+        this.types      = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+        }
+        this.keyType    = td.getFieldType(bf.keyField());
+        this.tableid    = bf.getId();
+
+        final BTreeLeafPage     leaf        = newLeafPage(new BTreePageId(tableid, 0, BTreePageId.LEAF),
+                BTreeLeafPage.createEmptyPageData());
+        this.internal           = newInternalPage(new BTreePageId(tableid, 0, BTreePageId.INTERNAL),
+                BTreeInternalPage.createEmptyPageData());
+        this.leafCapacity       = leaf.getMaxTuples();
+        this.minLeaf            = leafCapacity / 2;
+        this.leafFill           = Math.max(Math.max(minLeaf, 1), (int) (leafCapacity * fillFactor));
+        // a page is not below minimum occupancy once fewer than half of the longest
+        // possible entries would still fit, see BTreeFile.deleteParentEntry
+        this.internalCapacity   = internal.getCapacity();
+        this.maxEntrySize       = internalCapacity / internal.getMaxEntries();
+        this.minInternal        = (internal.getMaxEntries() / 2 - 1) * maxEntrySize + 1;
+        this.internalFill       = Math.max(minInternal, (int) (internalCapacity * fillFactor));
+
+        this.unusedPages    = bf.numPages();
+        this.nextPageNo     = 1;
+    }
+
+    /**
+     * Adds the next tuple; its key may not be less than that of the one before.
+     *
+     * @throws DbException if the tuple does not match the schema of the file or is out of order
+     */
+    void add(Tuple t) throws DbException, IOException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("type mismatch, in bulk load");
+        }
+        final Field key = t.getField(bf.keyField());
+        if (prevKey != null && key.compare(Op.LESS_THAN, prevKey)) {
+            throw new DbException("tuples not sorted on the key field, in bulk load");
+        }
+        prevKey = key;
+        tuples.add(t);
+        if (tuples.size() >= leafFill + minLeaf) {
+            closeLeaf(leafFill, false);
+        }
+    }
+
+    /**
+     * Writes out the pages still buffered.
+     *
+     * @return the id of the root page, or null if no tuple was added
+     */
+    BTreePageId finish() throws DbException, IOException {
+        final int n = tuples.size();
+        if (n == 0 && !closedLeaf) {
+            return null;
+        }
+        if (n <= leafCapacity) {
+            closeLeaf(n, true);
+        } else {
+            closeLeaf(n / 2, false);
+            closeLeaf(tuples.size(), true);
+        }
+
+        for (int i = 0; ; i++) {
+            final Level level = levels.get(i);
+            final int   m     = level.children.size();
+            if (m == 1 && !level.closedPage) {
+                final BTreePage root = level.children.get(0);
+                root.setParentId(BTreeRootPtrPage.getId(tableid));
+                write(root);
+                return root.getId();
+            }
+            if (level.size <= internalCapacity) {
+                closeInternal(i, m, true);
+            } else {
+                // less than half of the bytes in the first page
+                closeInternal(i, numChildren(level, (level.size - 1) / 2), false);
+                closeInternal(i, level.children.size(), true);
+            }
+        }
+    }
+
+    /**
+     * Makes a leaf of the first n buffered tuples and passes it up.
+     */
+    private void closeLeaf(int n, boolean last) throws DbException, IOException {
+        final List<Tuple>   page    = new ArrayList<>(tuples.subList(0, n));
+        final BTreePageId   pid     = nextLeaf != null ? nextLeaf : newPageId(BTreePageId.LEAF);
+        tuples.subList(0, n).clear();
+        nextLeaf = last ? null : newPageId(BTreePageId.LEAF);
+
+        final BTreeLeafPage leaf = newLeafPage(pid, BTreeFileEncoder.convertToLeafPage(page,
+                BufferPool.getPageSize(), types.length, types, bf.keyField()));
+        leaf.setLeftSiblingId(prevLeaf);
+        leaf.setRightSiblingId(nextLeaf);
+        prevLeaf = pid;
+
+        // the first key of the leaf is copied up, as when a leaf is split
+        final Field firstKey = page.get(0).getField(bf.keyField());
+        addChild(0, closedLeaf ? BTreeInternalPage.separator(prevLeafKey, firstKey) : null, leaf);
+        prevLeafKey = page.get(page.size() - 1).getField(bf.keyField());
+        closedLeaf = true;
+    }
+
+    /**
+     * Adds a finished page to the given level of internal pages.
+     */
+    private void addChild(int i, Field key, BTreePage child) throws DbException, IOException {
+        if (levels.size() == i) {
+            levels.add(new Level());
+        }
+        final Level level = levels.get(i);
+        level.keys.add(key);
+        level.children.add(child);
+        if (key != null && level.children.size() > 1) {
+            level.size += internal.getEntrySize(key);
+        }
+        // enough for a page filled to the fill factor, the key pushed up, and a page at
+        // minimum occupancy
+        if (level.size >= internalFill + maxEntrySize + minInternal) {
+            closeInternal(i, numChildren(level, internalFill), false);
+        }
+    }
+
+    /**
+     * @return the largest number of children at the start of level whose entries take
+     *         no more than size bytes
+     */
+    private int numChildren(Level level, int size) {
+        int n = 1;
+        for (int used = 0; n < level.children.size(); n++) {
+            used += internal.getEntrySize(level.keys.get(n));
+            if (used > size) {
+                break;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Makes an internal page of the first n children waiting on level i, writes the
+     * children, and passes the page up.
+     */
+    private void closeInternal(int i, int n, boolean last) throws DbException, IOException {
+        final Level         level   = levels.get(i);
+        final BTreePageId   pid     = level.nextPage != null ? level.nextPage : newPageId(BTreePageId.INTERNAL);
+        level.nextPage      = last ? null : newPageId(BTreePageId.INTERNAL);
+        level.closedPage    = true;
+
+        final List<BTreePage>   children    = new ArrayList<>(level.children.subList(0, n));
+        final List<BTreeEntry>  entries     = new ArrayList<>();
+        for (int j = 1; j < n; j++) {
+            entries.add(new BTreeEntry(level.keys.get(j), children.get(j - 1).getId(), children.get(j).getId()));
+        }
+        final int childCategory = children.get(0).getId().pgcateg();
+        final BTreeInternalPage page = newInternalPage(pid,
+                BTreeFileEncoder.convertToInternalPage(entries, BufferPool.getPageSize(), keyType, childCategory));
+        // the key before the next child bounds this page, and is pushed up
+        final Field pushUpKey = level.keys.get(0);
+        page.setHighKey(last ? null : level.keys.get(n));
+        page.setRightSiblingId(level.nextPage);
+        level.size          -= page.getUsedSize() + (last ? 0 : internal.getEntrySize(level.keys.get(n)));
+        level.keys.subList(0, n).clear();
+        level.children.subList(0, n).clear();
+
+        for (BTreePage child : children) {
+            child.setParentId(pid);
+            write(child);
+        }
+        addChild(i + 1, pushUpKey, page);
+    }
+
+    private BTreePageId newPageId(int pgcateg) {
+        return new BTreePageId(tableid, nextPageNo++, pgcateg);
+    }
+
+    private BTreeLeafPage newLeafPage(BTreePageId pid, byte[] data) throws IOException {
+        return new BTreeLeafPage(pid, data, bf.keyField());
+    }
+
+    private BTreeInternalPage newInternalPage(BTreePageId pid, byte[] data) throws IOException {
+        return new BTreeInternalPage(pid, data, bf.keyField());
+    }
+
+    private void write(BTreePage page) throws IOException {
+        final int pageNo = page.getId().getPageNumber();
+        if (pageNo <= unusedPages) {
+            // an unused page of the file, such as the empty leaf a new file starts
+            // with, may still be cached
+            for (int categ : new int[]{BTreePageId.INTERNAL, BTreePageId.LEAF, BTreePageId.HEADER}) {
+                final BTreePageId cached = new BTreePageId(tableid, pageNo, categ);
+                if (Database.getBufferPool().isResident(cached)) {
+                    Database.getBufferPool().removePage(cached);
+                }
+            }
+        }
+        bf.writePage(page);
+    }
+}
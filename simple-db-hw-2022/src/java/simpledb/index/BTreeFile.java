@@ -4,8 +4,10 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.ExternalSorter;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
+import simpledb.execution.TupleComparator;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -19,6 +21,16 @@ import java.util.*;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * The internal pages form a B-link tree: each knows its right sibling and its
+ * high key (see {@link BTreeInternalPage#getHighKey()}). Inserts and index
+ * scans descend optimistically, latching one page at a time (see
+ * {@link BTreeLatches}) instead of locking, and only lock the leaf; a page
+ * that was split after its parent was read is recognized by a high key below
+ * the search key, and the descent moves right. Only an insert that has to
+ * split the leaf, or a delete that has to merge or redistribute, locks its
+ * way down the tree as before, and latches the pages it changes for the
+ * duration of the operation.
  *
  * @author Becca Taft
  * @see BTreeLeafPage#BTreeLeafPage
@@ -28,10 +40,15 @@ import java.util.*;
  */
 public class BTreeFile implements DbFile {
 
-    private final File      f;
-    private final TupleDesc td;
-    private final int       tableid;
-    private final int       keyField;
+    private final File              f;
+    private final TupleDesc         td;
+    private final int               tableid;
+    private final int               keyField;
+    private final PageFileChannel   channel;
+    private final BTreeLatches      latches;
+
+    // optimistic descents to try before an insert locks its way down the tree
+    private static final int        OPTIMISTIC_ATTEMPTS = 3;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -46,6 +63,8 @@ public class BTreeFile implements DbFile {
         this.tableid    = f.getAbsoluteFile().hashCode();
         this.keyField   = key;
         this.td         = td;
+        this.channel    = new PageFileChannel(f);
+        this.latches    = new BTreeLatches();
     }
 
     /**
@@ -87,10 +106,10 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+                int retval = channel.read(0, pageBuf);
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
@@ -102,12 +121,7 @@ public class BTreeFile implements DbFile {
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+                int retval = channel.read(pageOffset(id.getPageNumber()), pageBuf);
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
@@ -127,8 +141,6 @@ public class BTreeFile implements DbFile {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
     /**
@@ -141,17 +153,30 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            channel.write(0, data);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            channel.write(pageOffset(page.getId().getPageNumber()), data);
         }
     }
 
+    /**
+     * Returns the byte offset of the given (1-based) non-root-pointer page in the file.
+     */
+    private static long pageOffset(int pageNo) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
+    }
+
+    // see DbFile.java for javadocs
+    public void sync() throws IOException {
+        channel.sync();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() {
+        channel.close();
+    }
+
     /**
      * Returns the number of pages in this BTreeFile.
      */
@@ -167,6 +192,29 @@ public class BTreeFile implements DbFile {
         return keyField;
     }
 
+    /**
+     * Returns the number of levels of internal pages above the leaves, 0 if the root is
+     * a leaf, by reading the left-most path of the tree with READ_ONLY permission.
+     *
+     * @param tid - the transaction id
+     */
+    public int depth(TransactionId tid) throws DbException, TransactionAbortedException {
+        final Map<PageId, Page> dirtypages = new HashMap<>();
+        BTreePageId pid;
+        try {
+            pid = getRootPtrPage(tid, dirtypages).getRootId();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        int depth = 0;
+        while (pid != null && pid.pgcateg() == BTreePageId.INTERNAL) {
+            final BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+            pid = page.iterator().next().getLeftChild();
+            depth++;
+        }
+        return depth;
+    }
+
     /**
      * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
      * the left-most page possibly containing the key field f. It locks all internal
@@ -193,7 +241,16 @@ public class BTreeFile implements DbFile {
         }
         // Recursion:
         final BTreeInternalPage internalPage    = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY); // internal node, READ_ONLY
-        final Iterator<BTreeEntry> iter         = internalPage.iterator();
+        final BTreePageId       childId         = childFor(internalPage, f);
+        return childId == null ? null : findLeafPage(tid, dirtypages, childId, perm, f);
+    }
+
+    /**
+     * @return the child of page to descend to when looking for the left-most leaf page
+     *         possibly containing f, or null if page has no entries
+     */
+    private static BTreePageId childFor(BTreeInternalPage page, Field f) {
+        final Iterator<BTreeEntry> iter = page.iterator();
         BTreeEntry curEntry = null;
         while (iter.hasNext()) {
             curEntry = iter.next();
@@ -203,13 +260,97 @@ public class BTreeFile implements DbFile {
                  * time in order to find the left-most leaf page. Finding the left-most leaf page
                  * is useful for scanning the entire file.
                  */
-                return findLeafPage(tid, dirtypages, curEntry.getLeftChild(), perm, f);
+                return curEntry.getLeftChild();
             }
             if (f.compare(Op.LESS_THAN_OR_EQ, curEntry.getKey())) {
-                return findLeafPage(tid, dirtypages, curEntry.getLeftChild(), perm, f);
+                return curEntry.getLeftChild();
             }
         }
-        return curEntry == null ? null : findLeafPage(tid, dirtypages, curEntry.getRightChild(), perm, f);
+        return curEntry == null ? null : curEntry.getRightChild();
+    }
+
+    /**
+     * Finds the id of the left-most leaf page possibly containing f without locking
+     * anything. The root pointer and internal pages on the way are latched shared one at
+     * a time; a page split since its parent was read has a high key below f, and the
+     * search continues with its right sibling.
+     *
+     * @param tid - the transaction id
+     * @param f   - the field to search for
+     * @return the id of the leaf page, or null if the tree has no root yet, the root was
+     *         changed by another transaction that has not committed yet, or a page on the
+     *         way was latched exclusive or was emptied by a merge
+     */
+    private BTreePageId findLeafPageId(TransactionId tid, Field f) throws DbException {
+        final BufferPool    bp          = Database.getBufferPool();
+        final BTreePageId   rootPtrId   = BTreeRootPtrPage.getId(tableid);
+        if (!latches.trySharedLatch(rootPtrId)) {
+            return null;
+        }
+        BTreePageId pid;
+        try {
+            final BTreeRootPtrPage  rootPtr = (BTreeRootPtrPage) bp.getPageUnlocked(rootPtrId);
+            final TransactionId     dirtier = rootPtr.isDirty();
+            if (dirtier != null && !dirtier.equals(tid)) {
+                // e.g. a bulk load, whose pages are not locked
+                return null;
+            }
+            pid = rootPtr.getRootId();
+        } finally {
+            latches.releaseShared(rootPtrId);
+        }
+        // every page is visited at most once, unless the tree changes under us
+        for (int steps = numPages(); pid != null && pid.pgcateg() == BTreePageId.INTERNAL; steps--) {
+            final BTreePageId cur = pid;
+            if (steps < 0 || !latches.trySharedLatch(cur)) {
+                return null;
+            }
+            try {
+                final Page p = bp.getPageUnlocked(cur);
+                if (!(p instanceof BTreeInternalPage) || ((BTreeInternalPage) p).getNumEntries() == 0) {
+                    return null;
+                }
+                final BTreeInternalPage page    = (BTreeInternalPage) p;
+                final Field             highKey = page.getHighKey();
+                if (f != null && highKey != null && f.compare(Op.GREATER_THAN, highKey)) {
+                    pid = page.getRightSiblingId();
+                } else {
+                    pid = childFor(page, f);
+                }
+            } finally {
+                latches.releaseShared(cur);
+            }
+        }
+        return pid;
+    }
+
+    /**
+     * Finds and locks with READ_ONLY permission the left-most leaf page possibly
+     * containing f, locking none of the pages above it unless the tree keeps changing
+     * under the latch-free descent. Used by the BTreeFile iterators.
+     *
+     * @param tid - the transaction id
+     * @param f   - the field to search for, or null for the left-most leaf page
+     * @return the leaf page, or null if the tree is empty
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Field f)
+            throws DbException, TransactionAbortedException {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            final BTreePageId leafId = findLeafPageId(tid, f);
+            if (leafId == null) {
+                Thread.yield();
+                continue;
+            }
+            // look again once the leaf is locked, as insertTuple does
+            final Page leafPage = Database.getBufferPool().getPage(tid, leafId, Permissions.READ_ONLY);
+            if (leafId.equals(findLeafPageId(tid, f))) {
+                return (BTreeLeafPage) leafPage;
+            }
+        }
+        final BTreeRootPtrPage  rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+        final BTreePageId       rootId  = rootPtr.getRootId();
+        return rootId == null ? null : findLeafPage(tid, rootId, f);
     }
 
     /**
@@ -231,7 +372,8 @@ public class BTreeFile implements DbFile {
     /**
      * Split a leaf page to make room for new tuples and recursively split the parent node
      * as needed to accommodate a new entry. The new entry should have a key matching the key field
-     * of the first tuple in the right-hand page (the key is "copied up"), and child pointers
+     * of the first tuple in the right-hand page (the key is "copied up", truncated as far as
+     * {@link BTreeInternalPage#separator} allows), and child pointers
      * pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent
      * pointers as needed.
      * <p>
@@ -291,7 +433,9 @@ public class BTreeFile implements DbFile {
         // 3.Update parent entry (copy up)
         // 此InternalPage一定有EmptySlot，因为页满时，getParentWithEmptySlots()方法会调用splitInternalPage，
         // where may cause recursive splits
-        final BTreeEntry        entry       = new BTreeEntry(newPageFirstTuple.getField(keyField), page.getId(), newRPage.getId());
+        final Field             separator   = BTreeInternalPage.separator(
+                page.reverseIterator().next().getField(keyField), newPageFirstTuple.getField(keyField));
+        final BTreeEntry        entry       = new BTreeEntry(separator, page.getId(), newRPage.getId());
         final BTreeInternalPage parentPage  = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), field);
         // set parent id for page and newRPage
         page.setParentId(parentPage.getId());
@@ -309,7 +453,7 @@ public class BTreeFile implements DbFile {
         dirtypages.put(parentPage.getId(), parentPage);
 
         // 6.Return the page into which a tuple with the given key field should be inserted.
-        final boolean isLeft = field.compare(Op.LESS_THAN, newPageFirstTuple.getField(parentPage.keyField));
+        final boolean isLeft = field.compare(Op.LESS_THAN, separator);
         return isLeft ? page : newRPage;
     }
 
@@ -349,14 +493,16 @@ public class BTreeFile implements DbFile {
 
         // 1.Create a new right internal page
         final BTreeInternalPage     newRPage        = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
-        int                         reservedNum     = page.getNumEntries() / 2;
+        // keep the first half of the entries, by size, since keys may differ in length
+        final int                   reservedSize    = page.getUsedSize() / 2;
         final Iterator<BTreeEntry>  iter            = page.iterator();
-        for (int i = 0; i < reservedNum; i++) {
-            iter.next();
-        }
 
         // 2.Get mid-entry
-        final BTreeEntry midEntry = iter.next();
+        BTreeEntry midEntry = iter.next();
+        for (int size = page.getEntrySize(midEntry.getKey()); size <= reservedSize;
+             size += page.getEntrySize(midEntry.getKey())) {
+            midEntry = iter.next();
+        }
         page.deleteKeyAndRightChild(midEntry);
         midEntry.setLeftChild(page.getId());
         midEntry.setRightChild(newRPage.getId());
@@ -367,6 +513,11 @@ public class BTreeFile implements DbFile {
             page.deleteKeyAndRightChild(entry);
             newRPage.insertEntry(entry);
         }
+        // link the new page in to the right of page, the mid key bounds page from above
+        newRPage.setHighKey(page.getHighKey());
+        newRPage.setRightSiblingId(page.getRightSiblingId());
+        page.setHighKey(midEntry.getKey());
+        page.setRightSiblingId(newRPage.getId());
 
         // 4.Update parent entry and push up mid-entry
         // 此InternalPage一定有EmptySlot，因为页满时，getParentWithEmptySlots()方法会调用splitInternalPage，
@@ -515,12 +666,37 @@ public class BTreeFile implements DbFile {
         } else {
             Page p = Database.getBufferPool().getPage(tid, pid, perm);
             if (perm == Permissions.READ_WRITE) {
+                if (dirtypages instanceof LatchedPages && pid.pgcateg() != BTreePageId.LEAF
+                        && pid.pgcateg() != BTreePageId.HEADER) {
+                    // optimistic descents read these pages without locks
+                    ((LatchedPages) dirtypages).latched.latch(pid);
+                }
                 dirtypages.put(pid, p);
             }
             return p;
         }
     }
 
+    /**
+     * The dirtypages map of one insert or delete. The root pointer and internal pages it
+     * fetches with read-write permission are also latched exclusive, until
+     * {@link #releaseLatches()} is called when the operation is done.
+     */
+    private static final class LatchedPages extends HashMap<PageId, Page> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient BTreeLatches.Exclusive latched;
+
+        LatchedPages(BTreeLatches.Exclusive latched) {
+            this.latched = latched;
+        }
+
+        void releaseLatches() {
+            latched.releaseAll();
+        }
+    }
+
     /**
      * Insert a tuple into this BTreeFile, keeping the tuples in sorted order.
      * May cause pages to split if the page where tuple t belongs is full.
@@ -533,29 +709,119 @@ public class BTreeFile implements DbFile {
      */
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        Map<PageId, Page> dirtypages = new HashMap<>();
+        final Field key = t.getField(keyField);
+        createFileIfEmpty();
+
+        // latch our way down to the leaf and lock only the leaf, unless it must be split
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            final BTreePageId leafId = findLeafPageId(tid, key);
+            if (leafId == null) {
+                Thread.yield();
+                continue;
+            }
+            // no latch is held while we wait for the lock, so look again once we have it:
+            // the leaf may have been split or merged in the meantime
+            final Map<PageId, Page> dirtypages  = new HashMap<>();
+            final BTreeLeafPage     leafPage    = (BTreeLeafPage) getPage(tid, dirtypages, leafId, Permissions.READ_WRITE);
+            if (!leafId.equals(findLeafPageId(tid, key))) {
+                continue;
+            }
+            if (leafPage.getNumEmptySlots() == 0) {
+                break;
+            }
+            leafPage.insertTuple(t);
+            return new ArrayList<>(dirtypages.values());
+        }
 
-        // get a read lock on the root pointer page and use it to locate the root page
-        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-        BTreePageId rootId = rootPtr.getRootId();
+        final LatchedPages dirtypages = new LatchedPages(latches.exclusive());
+        try {
+            // get a read lock on the root pointer page and use it to locate the root page
+            BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+            BTreePageId rootId = rootPtr.getRootId();
 
-        if (rootId == null) { // the root has just been created, so set the root pointer to point to it
-            rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-            rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-            rootPtr.setRootId(rootId);
-        }
+            if (rootId == null) { // the root has just been created, so set the root pointer to point to it
+                rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
+                rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+                rootPtr.setRootId(rootId);
+            }
+
+            // find and lock the left-most leaf page corresponding to the key field,
+            // and split the leaf page if there are no more slots available
+            BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, key);
+            if (leafPage.getNumEmptySlots() == 0) {
+                leafPage = splitLeafPage(tid, dirtypages, leafPage, key);
+            }
+
+            // insert the tuple into the leaf page
+            leafPage.insertTuple(t);
 
-        // find and lock the left-most leaf page corresponding to the key field,
-        // and split the leaf page if there are no more slots available
-        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-        if (leafPage.getNumEmptySlots() == 0) {
-            leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+            return new ArrayList<>(dirtypages.values());
+        } finally {
+            dirtypages.releaseLatches();
         }
+    }
 
-        // insert the tuple into the leaf page
-        leafPage.insertTuple(t);
+    /**
+     * Fill this empty BTreeFile with the given tuples, sorted on the key field, building
+     * the tree bottom-up: leaves are filled to the fill factor and written in key order,
+     * and each level of internal pages is built from the one below it, without a descent
+     * per tuple. The pages are written straight to the file and only become visible when
+     * the root pointer, locked by tid, is committed; an aborted load leaves them unused.
+     *
+     * @param tid        - the transaction id
+     * @param tuples     - the tuples to load, sorted on the key field
+     * @param fillFactor - the fraction of each page to fill, between 0.5 and 1
+     * @throws DbException if the tree is not empty or the tuples are not sorted
+     * @see BTreeBulkLoader
+     */
+    public void bulkLoad(TransactionId tid, Iterator<Tuple> tuples, double fillFactor)
+            throws DbException, IOException, TransactionAbortedException {
+        final LatchedPages dirtypages = new LatchedPages(latches.exclusive());
+        try {
+            createFileIfEmpty();
+            final BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+                    BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+            if (rootPtr.getRootId() != null) {
+                throw new DbException("bulk load into a non-empty B+ tree");
+            }
 
-        return new ArrayList<>(dirtypages.values());
+            final BTreeBulkLoader loader = new BTreeBulkLoader(this, fillFactor);
+            while (tuples.hasNext()) {
+                loader.add(tuples.next());
+            }
+            final BTreePageId rootId = loader.finish();
+            if (rootId != null) {
+                // the pages must be on disk before the root pointer is
+                sync();
+                rootPtr.setRootId(rootId);
+                rootPtr.markDirty(true, tid);
+            }
+        } finally {
+            dirtypages.releaseLatches();
+        }
+    }
+
+    /**
+     * Fill this empty BTreeFile with the tuples of the given iterator, in any order:
+     * they are sorted on the key field by an {@link ExternalSorter} first.
+     *
+     * @param tid        - the transaction id
+     * @param tuples     - the tuples to load, opened
+     * @param fillFactor - the fraction of each page to fill, between 0.5 and 1
+     * @throws DbException if the tree is not empty
+     * @see #bulkLoad(TransactionId, Iterator, double)
+     */
+    public void bulkLoad(TransactionId tid, DbFileIterator tuples, double fillFactor)
+            throws DbException, IOException, TransactionAbortedException {
+        final ExternalSorter sorter = new ExternalSorter(td, new TupleComparator(keyField, true));
+        try {
+            while (tuples.hasNext()) {
+                sorter.add(tuples.next());
+            }
+            bulkLoad(tid, sorter.iterator(), fillFactor);
+        } finally {
+            sorter.close();
+        }
     }
 
     /**
@@ -601,6 +867,11 @@ public class BTreeFile implements DbFile {
         } else { // BTreePageId.INTERNAL
             handleMinOccupancyInternalPage(tid, dirtypages, (BTreeInternalPage) page, parent, leftEntry, rightEntry);
         }
+
+        // a steal may have replaced the separator in the parent with a longer one
+        if (parent != null && parent.getUsedSize() > parent.getCapacity()) {
+            splitInternalPage(tid, dirtypages, parent, parent.iterator().next().getKey());
+        }
     }
 
     /**
@@ -682,10 +953,10 @@ public class BTreeFile implements DbFile {
         }
 
         // copy up
-//        Tuple rightPageFirstTuple = isRightSibling ? iter.next() : page.iterator().next();
-//        entry.setKey(rightPageFirstTuple.getField(keyField));
+        Tuple rightPageFirstTuple = isRightSibling ? iter.next() : page.iterator().next();
         Tuple leftPageLastTuple = isRightSibling ? page.reverseIterator().next() : iter.next();
-        entry.setKey(leftPageLastTuple.getField(keyField));
+        entry.setKey(BTreeInternalPage.separator(leftPageLastTuple.getField(keyField),
+                rightPageFirstTuple.getField(keyField)));
         parent.updateEntry(entry);
         // Because the pages has in dirtypages,
         // So do not have to update dirty pages in this function
@@ -769,8 +1040,9 @@ public class BTreeFile implements DbFile {
 
         // 不含有+1，也就是说被偷页对于页的优先级更高，
         // 逻辑是，被偷页需要额外push up 1页作parent
-        int stealNum        = (leftSibling.getNumEntries() - page.getNumEntries()) >>> 1;
-        int siblingHalfNum  = leftSibling.getMaxEntries() >>> 1;
+        // 按字节计算，因为key的长度可能不同
+        int stealSize       = (leftSibling.getUsedSize() - page.getUsedSize()) >>> 1;
+        int siblingHalfSize = leftSibling.getCapacity() >>> 1;
 
         // Redistribute entries by "pushing through"
         // the splitting entry in the parent
@@ -780,20 +1052,25 @@ public class BTreeFile implements DbFile {
                                                 leftSibling.reverseIterator().next().getRightChild(),
                                                 page.iterator().next().getLeftChild());
         page.insertEntry(entry);
+        int stolenSize = page.getEntrySize(entry.getKey());
 
         // 2.Moved entry from sibling to curPage
         Iterator<BTreeEntry> leftIter = leftSibling.reverseIterator();
-        for (int i = 0; leftSibling.getNumEntries() > siblingHalfNum && i < stealNum - 1; i++) {
-            final BTreeEntry next = leftIter.next();
+        BTreeEntry next = leftIter.next();
+        while (leftSibling.getUsedSize() > siblingHalfSize
+                && stolenSize + page.getEntrySize(next.getKey()) <= stealSize) {
+            stolenSize += page.getEntrySize(next.getKey());
             leftSibling.deleteKeyAndRightChild(next);
             page.insertEntry(next);
+            next = leftIter.next();
         }
 
         // 3.Update parent entry
-        final BTreeEntry leftSiblingLastTuple = leftIter.next();
+        final BTreeEntry leftSiblingLastTuple = next;
         leftSibling.deleteKeyAndRightChild(leftSiblingLastTuple);
         parentEntry.setKey(leftSiblingLastTuple.getKey());
         parent.updateEntry(parentEntry);
+        leftSibling.setHighKey(parentEntry.getKey());
         // entries move to page, their children's parent are changed.
         updateParentPointers(tid, dirtypages, page);
 
@@ -833,8 +1110,9 @@ public class BTreeFile implements DbFile {
 
         // 不含有+1，也就是说被偷页对于页的优先级更高，
         // 逻辑是，被偷页需要额外push up 1页作parent
-        int stealNum = (rightSibling.getNumEntries() - page.getNumEntries()) >>> 1;
-        int siblingHalfNum = rightSibling.getMaxEntries() >>> 1;
+        // 按字节计算，因为key的长度可能不同
+        int stealSize = (rightSibling.getUsedSize() - page.getUsedSize()) >>> 1;
+        int siblingHalfSize = rightSibling.getCapacity() >>> 1;
 
         // Redistribute entries by "pushing through"
         // the splitting entry in the parent
@@ -844,20 +1122,25 @@ public class BTreeFile implements DbFile {
                                         page.reverseIterator().next().getRightChild(),
                                         rightSibling.iterator().next().getLeftChild());
         page.insertEntry(entry);
+        int stolenSize = page.getEntrySize(entry.getKey());
 
         // 2.Moved entry from sibling to curPage
         Iterator<BTreeEntry> rightIter = rightSibling.iterator();
-        for (int i = 0; rightSibling.getNumEntries() > siblingHalfNum && i < stealNum - 1; i++) {
-            BTreeEntry next = rightIter.next();
+        BTreeEntry next = rightIter.next();
+        while (rightSibling.getUsedSize() > siblingHalfSize
+                && stolenSize + page.getEntrySize(next.getKey()) <= stealSize) {
+            stolenSize += page.getEntrySize(next.getKey());
             rightSibling.deleteKeyAndLeftChild(next);
             page.insertEntry(next);
+            next = rightIter.next();
         }
 
         // 3.Update parent entry
-        BTreeEntry rightSiblingFirstTuple = rightIter.next();
+        BTreeEntry rightSiblingFirstTuple = next;
         rightSibling.deleteKeyAndLeftChild(rightSiblingFirstTuple);
         parentEntry.setKey(rightSiblingFirstTuple.getKey());
         parent.updateEntry(parentEntry);
+        page.setHighKey(parentEntry.getKey());
         // entries move to page, their children's parent are changed.
         updateParentPointers(tid, dirtypages, page);
 
@@ -972,6 +1255,11 @@ public class BTreeFile implements DbFile {
             leftPage.insertEntry(entry);
         }
         updateParentPointers(tid, dirtypages, leftPage);
+        // unlink the right page; emptied, it sends latch-free descents back to the root
+        leftPage.setHighKey(rightPage.getHighKey());
+        leftPage.setRightSiblingId(rightPage.getRightSiblingId());
+        rightPage.setHighKey(null);
+        rightPage.setRightSiblingId(null);
 
         // 3.Be sure to call setEmptyPage() on deleted pages to make them available for reuse.
         setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
@@ -1023,6 +1311,8 @@ public class BTreeFile implements DbFile {
             BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
             leftPage.setParentId(rootPtrId);
             rootPtr.setRootId(leftPage.getId());
+            assert !(leftPage instanceof BTreeInternalPage)
+                    || ((BTreeInternalPage) leftPage).getRightSiblingId() == null;
 
             // release the parent page for reuse
             setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
@@ -1044,21 +1334,25 @@ public class BTreeFile implements DbFile {
      */
     public List<Page> deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        Map<PageId, Page> dirtypages = new HashMap<>();
-
-        BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
-                BTreePageId.LEAF);
-        BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        // the leaf is found through the record id, so only merges touch the rest of the tree
+        LatchedPages dirtypages = new LatchedPages(latches.exclusive());
+        try {
+            BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
+                    BTreePageId.LEAF);
+            BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+            page.deleteTuple(t);
+
+            // if the page is below minimum occupancy, get some tuples from its siblings
+            // or merge with one of the siblings
+            int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples() / 2; // ceiling
+            if (page.getNumEmptySlots() > maxEmptySlots) {
+                handleMinOccupancyPage(tid, dirtypages, page);
+            }
 
-        // if the page is below minimum occupancy, get some tuples from its siblings
-        // or merge with one of the siblings
-        int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples() / 2; // ceiling
-        if (page.getNumEmptySlots() > maxEmptySlots) {
-            handleMinOccupancyPage(tid, dirtypages, page);
+            return new ArrayList<>(dirtypages.values());
+        } finally {
+            dirtypages.releaseLatches();
         }
-
-        return new ArrayList<>(dirtypages.values());
     }
 
     /**
@@ -1073,23 +1367,25 @@ public class BTreeFile implements DbFile {
      * @throws TransactionAbortedException
      */
     BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
-        synchronized (this) {
-            if (f.length() == 0) {
-                // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
-                byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-                byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
-            }
-        }
+        createFileIfEmpty();
 
         // get a read lock on the root pointer page
         return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
     }
 
+    /**
+     * Create the root pointer page and the root page if the file is empty.
+     */
+    private synchronized void createFileIfEmpty() throws IOException {
+        if (f.length() == 0) {
+            // create the root pointer page and the root page
+            byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
+            byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
+            channel.write(0, emptyRootPtrData);
+            channel.write(emptyRootPtrData.length, emptyLeafData);
+        }
+    }
+
     /**
      * Get the page number of the first empty page in this BTreeFile.
      * Creates a new page if none of the existing pages are empty.
@@ -1136,11 +1432,8 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                channel.append(emptyData);
                 emptyPageNo = numPages();
             }
         }
@@ -1168,16 +1461,30 @@ public class BTreeFile implements DbFile {
         // create the new page
         int emptyPageNo = getEmptyPageNo(tid, dirtypages);
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
+        if (dirtypages instanceof LatchedPages) {
+            // a latch-free descent may still reach the page through a link read before it
+            // was freed; keep it from reading the page back in while it is being reused
+            ((LatchedPages) dirtypages).latched.latch(new BTreePageId(tableid, emptyPageNo, BTreePageId.INTERNAL));
+        }
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        channel.write(pageOffset(emptyPageNo), BTreePage.createEmptyPageData());
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().removePage(newPageId);
         dirtypages.remove(newPageId);
+        // nor under the category it had before it was freed: a committed copy
+        // waiting for write-back would otherwise land on top of the new page
+        for (int categ : new int[]{BTreePageId.INTERNAL, BTreePageId.LEAF, BTreePageId.HEADER}) {
+            BTreePageId oldPageId = new BTreePageId(tableid, emptyPageNo, categ);
+            if (categ == pgcateg) {
+                continue;
+            }
+            if (Database.getBufferPool().isResident(oldPageId)) {
+                Database.getBufferPool().removePage(oldPageId);
+            }
+            dirtypages.remove(oldPageId);
+        }
 
         return getPage(tid, dirtypages, newPageId, Permissions.READ_WRITE);
     }
@@ -1302,6 +1609,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    BufferPool.Pin curPin = null;
 
     final TransactionId tid;
     final BTreeFile f;
@@ -1321,11 +1629,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
      * Open this iterator by getting an iterator on the first leaf page
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        curp = f.findLeafPage(tid, root, null);
-        it = curp.iterator();
+        BTreeLeafPage leaf = f.findLeafPage(tid, null);
+        if (leaf != null) {
+            moveTo(leaf.getId());
+            it = curp.iterator();
+        }
     }
 
     /**
@@ -1342,10 +1650,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         while (it == null && curp != null) {
             BTreePageId nextp = curp.getRightSiblingId();
             if (nextp == null) {
-                curp = null;
+                unpinCurrent();
             } else {
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+                moveTo(nextp);
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1371,7 +1678,25 @@ class BTreeFileIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
-        curp = null;
+        unpinCurrent();
+    }
+
+    /**
+     * Pin the leaf page pid and make it the current page, unpinning the page
+     * we are leaving. Only the leaf being read is pinned.
+     */
+    private void moveTo(BTreePageId pid) throws TransactionAbortedException, DbException {
+        unpinCurrent();
+        curPin = Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY);
+        curp = (BTreeLeafPage) curPin.getPage();
+    }
+
+    private void unpinCurrent() {
+        if (curPin != null) {
+            Database.getBufferPool().unpinPage(curPin);
+            curPin = null;
+            curp = null;
+        }
     }
 }
 
@@ -1383,6 +1708,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    BufferPool.Pin curPin = null;
 
     final TransactionId tid;
     final BTreeFile f;
@@ -1406,16 +1732,17 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
      * for the given predicate operation
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
+        BTreeLeafPage leaf;
         if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
                 || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-            curp = f.findLeafPage(tid, root, ipred.getField());
+            leaf = f.findLeafPage(tid, ipred.getField());
         } else {
-            curp = f.findLeafPage(tid, root, null);
+            leaf = f.findLeafPage(tid, null);
+        }
+        if (leaf != null) {
+            moveTo(leaf.getId());
+            it = curp.iterator();
         }
-        it = curp.iterator();
     }
 
     /**
@@ -1436,22 +1763,21 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
                 } else if (ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
                     // if the predicate was not satisfied and the operation is less than, we have
                     // hit the end
-                    return null;
+                    return finish();
                 } else if (ipred.getOp() == Op.EQUALS &&
                         t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
                     // if the tuple is now greater than the field passed in and the operation
                     // is equals, we have reached the end
-                    return null;
+                    return finish();
                 }
             }
 
             BTreePageId nextp = curp.getRightSiblingId();
             // if there are no more pages to the right, end the iteration
             if (nextp == null) {
-                return null;
+                return finish();
             } else {
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+                moveTo(nextp);
                 it = curp.iterator();
             }
         }
@@ -1473,5 +1799,33 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
+        unpinCurrent();
+    }
+
+    /**
+     * End the iteration early, releasing the pin on the current leaf.
+     */
+    private Tuple finish() {
+        it = null;
+        unpinCurrent();
+        return null;
+    }
+
+    /**
+     * Pin the leaf page pid and make it the current page, unpinning the page
+     * we are leaving. Only the leaf being read is pinned.
+     */
+    private void moveTo(BTreePageId pid) throws TransactionAbortedException, DbException {
+        unpinCurrent();
+        curPin = Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY);
+        curp = (BTreeLeafPage) curPin.getPage();
+    }
+
+    private void unpinCurrent() {
+        if (curPin != null) {
+            Database.getBufferPool().unpinPage(curPin);
+            curPin = null;
+            curp = null;
+        }
     }
 }
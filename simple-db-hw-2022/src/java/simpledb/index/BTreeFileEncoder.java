@@ -232,10 +232,7 @@ public class BTreeFileEncoder {
         int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE;
         int nrecords = (npagebytes * 8 - leafpointerbytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
 
-        int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-        // pointerbytes: one extra child pointer, parent pointer, child page category
-        int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
-        int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) / (nentrybytes * 8 + 1);  //floor comes for free
+        int nentries = BTreeInternalPage.getMaxEntries(npagebytes, keyType);
 
         List<List<BTreeEntry>> entries = new ArrayList<>();
 
@@ -266,7 +263,8 @@ public class BTreeFileEncoder {
                 leftSiblingId = leafPid;
 
                 // update the parent by "copying up" the next key
-                BTreeEntry copyUpEntry = new BTreeEntry(page2.get(0).getField(keyField), leafPid, null);
+                BTreeEntry copyUpEntry = new BTreeEntry(BTreeInternalPage.separator(
+                        page1.get(page1.size() - 1).getField(keyField), page2.get(0).getField(keyField)), leafPid, null);
                 updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes,
                         keyType, tableid, keyField);
 
@@ -313,7 +311,9 @@ public class BTreeFileEncoder {
             bf.writePage(lastPage);
 
             // update the parent by "copying up" the next key
-            BTreeEntry copyUpEntry = new BTreeEntry(lastPg.get(0).getField(keyField), secondToLastPid, lastPid);
+            BTreeEntry copyUpEntry = new BTreeEntry(BTreeInternalPage.separator(
+                    secondToLastPg.get(secondToLastPg.size() - 1).getField(keyField), lastPg.get(0).getField(keyField)),
+                    secondToLastPid, lastPid);
             updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes,
                     keyType, tableid, keyField);
         }
@@ -330,6 +330,7 @@ public class BTreeFileEncoder {
         // set all the parent and sibling pointers
         setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
         setRightSiblingPtrs(bf, lastPid, null);
+        setInternalLinks(bf, new BTreePageId(tableid, root, rootCategory));
 
         Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
         return bf;
@@ -355,6 +356,65 @@ public class BTreeFileEncoder {
         }
     }
 
+    /**
+     * Set the high keys and right sibling pointers of all the internal pages
+     *
+     * @param bf   - the BTreeFile
+     * @param root - the id of the root page
+     * @throws IOException
+     * @throws DbException
+     */
+    private static void setInternalLinks(BTreeFile bf, BTreePageId root)
+            throws IOException, DbException {
+        List<List<BTreePageId>> levels = new ArrayList<>();
+        setHighKeys(bf, root, null, 0, levels);
+        for (List<BTreePageId> level : levels) {
+            for (int i = 0; i + 1 < level.size(); i++) {
+                BTreeInternalPage page = (BTreeInternalPage) bf.readPage(level.get(i));
+                page.setRightSiblingId(level.get(i + 1));
+                bf.writePage(page);
+            }
+        }
+    }
+
+    /**
+     * Recursive function to set the high keys of the internal pages, left to right,
+     * collecting the ids of the internal pages of each level in order
+     *
+     * @param bf      - the BTreeFile
+     * @param pid     - id of the page to update with the high key
+     * @param highKey - the high key of the page
+     * @param depth   - the level of the page, 0 for the root
+     * @param levels  - the ids of the internal pages of each level seen so far
+     * @throws IOException
+     * @throws DbException
+     */
+    private static void setHighKeys(BTreeFile bf, BTreePageId pid, Field highKey, int depth,
+                                    List<List<BTreePageId>> levels)
+            throws IOException, DbException {
+        if (pid.pgcateg() != BTreePageId.INTERNAL) {
+            return;
+        }
+        if (levels.size() == depth) {
+            levels.add(new ArrayList<>());
+        }
+        levels.get(depth).add(pid);
+
+        BTreeInternalPage page = (BTreeInternalPage) bf.readPage(pid);
+        page.setHighKey(highKey);
+        bf.writePage(page);
+
+        Iterator<BTreeEntry> it = page.iterator();
+        BTreeEntry e = null;
+        while (it.hasNext()) {
+            e = it.next();
+            setHighKeys(bf, e.getLeftChild(), e.getKey(), depth + 1, levels);
+        }
+        if (e != null) {
+            setHighKeys(bf, e.getRightChild(), highKey, depth + 1, levels);
+        }
+    }
+
     /**
      * Recursive function to set all the parent pointers
      *
@@ -616,9 +676,13 @@ public class BTreeFileEncoder {
     public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
                                                Type keyType, int childPageCategory)
             throws IOException {
+        if (BTreeInternalPage.hasVariableLengthKeys(keyType)) {
+            return convertToVariableLengthInternalPage(entries, npagebytes, keyType, childPageCategory);
+        }
         int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-        // pointerbytes: one extra child pointer, parent pointer, child page category
-        int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
+        // pointerbytes: one extra child pointer, parent pointer, child page category,
+        // right sibling pointer, high key flag and high key
+        int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + 1 + keyType.getLen();
         int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) / (nentrybytes * 8 + 1);  //floor comes for free
 
         //  per entry, we need one bit; there are nentries per page, so we need
@@ -642,6 +706,11 @@ public class BTreeFileEncoder {
 
         dos.writeInt(0); // parent pointer
         dos.writeByte((byte) childPageCategory);
+        dos.writeInt(0); // right sibling pointer
+        dos.writeByte(0); // no high key
+        for (int j = 0; j < keyType.getLen(); j++) {
+            dos.writeByte(0);
+        }
 
         int i = 0;
         byte headerbyte = 0;
@@ -689,6 +758,38 @@ public class BTreeFileEncoder {
 
     }
 
+    /**
+     * Convert a set of entries to a byte array in the format of a BTreeInternalPage with
+     * variable-length keys; see {@link #convertToInternalPage}
+     */
+    private static byte[] convertToVariableLengthInternalPage(List<BTreeEntry> entries, int npagebytes,
+                                                              Type keyType, int childPageCategory)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        int entrycount = Math.min(entries.size(), BTreeInternalPage.getMaxEntries(npagebytes, keyType));
+
+        dos.writeInt(0); // parent pointer
+        dos.writeByte((byte) childPageCategory);
+        dos.writeInt(0); // right sibling pointer
+        dos.writeByte(0); // no high key
+        dos.write(new byte[1 + Type.STRING_LEN]);
+
+        entries.sort(new EntryComparator());
+        dos.writeShort(entrycount);
+        dos.writeInt(entries.get(0).getLeftChild().getPageNumber());
+        for (int e = 0; e < entrycount; e++) {
+            dos.writeInt(entries.get(e).getRightChild().getPageNumber());
+            BTreeInternalPage.writeKey(dos, entries.get(e).getKey());
+        }
+
+        // pad the rest of the page with zeroes
+        dos.write(new byte[npagebytes - dos.size()]);
+
+        return baos.toByteArray();
+    }
+
     /**
      * Create a byte array in the format of a BTreeRootPtrPage
      *
@@ -6,6 +6,7 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 import java.io.*;
 import java.util.Iterator;
@@ -14,6 +15,21 @@ import java.util.NoSuchElementException;
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * As in a Lehman-Yao B-link tree, every internal page also knows its right
+ * sibling on the same level and its high key, the upper bound of the keys
+ * below it (null for the right-most page of a level). A reader that reached
+ * the page through a parent read before the page was split sees the key it
+ * looks for above the high key, and follows the right link.
+ * <p>
+ * STRING_TYPE keys are stored with their actual length rather than padded to
+ * Type.STRING_LEN, and the separators copied up from the leaves are cut down
+ * to the shortest prefix that still separates the two pages (see
+ * {@link #separator}), so string indexes get many more entries per page.
+ * Such a page holds as many entries as fit in its bytes: it counts as full
+ * once an entry with the longest possible key may not fit any more, and
+ * {@link #getMaxEntries()} and {@link #getNumEmptySlots()} are counted in
+ * entries of that size.
  *
  * @see BTreeFile
  * @see BufferPool
@@ -21,14 +37,32 @@ import java.util.NoSuchElementException;
 // 存储结构：
 //    parent pointer:   1 * int
 //    childCategory:    1 * byte
+//    right sibling:    1 * int
+//    high key:         1 * byte (1 if present) + 1 * key
 //    header:           ceiling((no. entry slots + 1) / 8) * byte
 //    keys:             no. entry slots * int
 //    children:         (no. entry slots + 1) * int
 // 1 * entry = 1 * key + 1 * child
 // Max no. entry slots  = floor((BufferPool.getPageSize()*8 - extra bits) / (entry size*8 + 1))
-// extra bits           = parent pointer * 8 + childCategory * 8 + one extra child pointer * 8 + 1 extra header bit
+// extra bits           = parent pointer * 8 + childCategory * 8 + right sibling * 8 + high key * 8
+//                        + one extra child pointer * 8 + 1 extra header bit
+// 变长key（STRING_TYPE）的存储结构：
+//    parent pointer, childCategory, right sibling:  as above
+//    high key:         1 * byte (1 if present) + 1 * byte (length) + Type.STRING_LEN * byte
+//    no. entries:      1 * short
+//    first child:      1 * int (0 if none)
+//    entries:          no. entries * (1 * int (child) + 1 * byte (length) + length * byte (key))
+// Max no. entries      = floor((BufferPool.getPageSize() - fixed bytes) / longest entry size)
 public class BTreeInternalPage extends BTreePage {
+    // size of the length in front of a variable-length key
+    private static final int    KEY_LENGTH_SIZE = 1;
+    // bytes in front of the entries of a page with variable-length keys
+    private static final int    VAR_FIXED_SIZE  = 3 * INDEX_SIZE + 1 + 1 + KEY_LENGTH_SIZE + Type.STRING_LEN + 2;
+
+    private final boolean   variableLengthKeys;
     private int             childCategory; // either leaf or internal
+    private int             rightSibling;  // 0 if this is the right-most page of its level
+    private Field           highKey;       // null if this is the right-most page of its level
     private final byte[]    header;
     private final Field[]   keys;
     private final int[]     children;
@@ -49,7 +83,12 @@ public class BTreeInternalPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        // the high key is the upper bound the parent gives this page
+        assert highKey == null ? upperBound == null : highKey.equals(upperBound);
+        assert (highKey == null) == (rightSibling == 0);
+
+        assert getUsedSize() <= getCapacity();
+        assert !checkOccupancy || depth <= 0 || (getNumEmptySlots() <= getMaxEntries() - getMaxEntries() / 2);
     }
 
     /**
@@ -57,8 +96,8 @@ public class BTreeInternalPage extends BTreePage {
      * The format of a BTreeInternalPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of entry slots, and extra
      * bytes for the parent pointer, one extra child pointer (a node with m entries
-     * has m+1 pointers to children), and the category of all child pages (either
-     * leaf or internal).
+     * has m+1 pointers to children), the category of all child pages (either
+     * leaf or internal), the right sibling pointer and the high key.
      * Specifically, the number of entries is equal to: <p>
      * floor((BufferPool.getPageSize()*8 - extra bits) / (entry size * 8 + 1))
      * <p> where entry size is the size of entries in this index node
@@ -78,7 +117,9 @@ public class BTreeInternalPage extends BTreePage {
      */
     public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
         super(id, key);
-        this.numSlots = getMaxEntries() + 1;
+        this.variableLengthKeys = hasVariableLengthKeys(td.getFieldType(keyField));
+        // with variable-length keys, there is a slot for every entry with an empty key that fits
+        this.numSlots = variableLengthKeys ? getCapacity() / (INDEX_SIZE + KEY_LENGTH_SIZE) + 1 : getMaxEntries() + 1;
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // Read the parent pointer
@@ -92,12 +133,44 @@ public class BTreeInternalPage extends BTreePage {
         // read the child page category
         this.childCategory = dis.readByte();
 
-        // allocate and read the header slots of this page
+        // read the right sibling pointer and the high key
+        this.rightSibling = dis.readInt();
+        final boolean hasHighKey = dis.readByte() != 0;
+        if (variableLengthKeys) {
+            final Field f = readKey(dis);
+            dis.skipBytes(getMaxKeySize() - getKeySize(f));
+            this.highKey = hasHighKey ? f : null;
+        } else {
+            try {
+                final Field f = td.getFieldType(keyField).parse(dis);
+                this.highKey = hasHighKey ? f : null;
+            } catch (java.text.ParseException e) {
+                e.printStackTrace();
+            }
+        }
+
         this.header = new byte[getHeaderSize()];
+        this.keys = new Field[numSlots];
+        this.children = new int[numSlots];
+        if (variableLengthKeys) {
+            // the entries are stored one after the other, fill the slots from the start
+            final int numEntries = dis.readShort();
+            children[0] = dis.readInt();
+            markSlotUsed(0, children[0] != 0);
+            for (int i = 1; i <= numEntries; i++) {
+                children[i] = dis.readInt();
+                keys[i] = readKey(dis);
+                markSlotUsed(i, true);
+            }
+            dis.close();
+            setBeforeImage();
+            return;
+        }
+
+        // allocate and read the header slots of this page
         for (int i = 0; i < header.length; i++)
             header[i] = dis.readByte();
 
-        this.keys = new Field[numSlots];
         try {
             // allocate and read the keys of this page
             // start from 1 because the first key slot is not used
@@ -109,7 +182,6 @@ public class BTreeInternalPage extends BTreePage {
             e.printStackTrace();
         }
 
-        this.children = new int[numSlots];
         try {
             // allocate and read the child pointers of this page
             for (int i = 0; i < children.length; i++)
@@ -122,16 +194,123 @@ public class BTreeInternalPage extends BTreePage {
         setBeforeImage();
     }
 
+    /**
+     * @return whether keys of type keyType are stored with variable length
+     */
+    static boolean hasVariableLengthKeys(Type keyType) {
+        return keyType == Type.STRING_TYPE;
+    }
+
     /**
      * Retrieve the maximum number of entries this page can hold. (The number of keys)
+     * With variable-length keys, the number of entries with the longest possible key.
      */
     public int getMaxEntries() {
-        int keySize = td.getFieldType(keyField).getLen();
+        return getMaxEntries(BufferPool.getPageSize(), td.getFieldType(keyField));
+    }
+
+    /**
+     * @return the maximum number of entries a page of pageSize bytes with keys of type
+     *         keyType can hold, see {@link #getMaxEntries()}
+     */
+    static int getMaxEntries(int pageSize, Type keyType) {
+        if (hasVariableLengthKeys(keyType)) {
+            return (pageSize - VAR_FIXED_SIZE) / (INDEX_SIZE + KEY_LENGTH_SIZE + Type.STRING_LEN);
+        }
+        int keySize = keyType.getLen();
         int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
-        // extraBits are: one parent pointer, 1 byte for child page category,
+        // extraBits are: one parent pointer, 1 byte for child page category, one right sibling pointer,
+        // 1 byte + 1 key for the high key,
         // one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
-        int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
-        return (BufferPool.getPageSize() * 8 - extraBits) / bitsPerEntryIncludingHeader;
+        int extraBits = 3 * INDEX_SIZE * 8 + 8 + 8 + keySize * 8 + 1;
+        return (pageSize * 8 - extraBits) / bitsPerEntryIncludingHeader;
+    }
+
+    /**
+     * @return the number of bytes key takes on this page
+     */
+    private int getKeySize(Field key) {
+        if (variableLengthKeys) {
+            return KEY_LENGTH_SIZE + Math.min(((StringField) key).getValue().length(), Type.STRING_LEN);
+        }
+        return td.getFieldType(keyField).getLen();
+    }
+
+    private int getMaxKeySize() {
+        return variableLengthKeys ? KEY_LENGTH_SIZE + Type.STRING_LEN : td.getFieldType(keyField).getLen();
+    }
+
+    /**
+     * @return the number of bytes an entry with the given key takes on this page
+     */
+    int getEntrySize(Field key) {
+        return getKeySize(key) + INDEX_SIZE;
+    }
+
+    /**
+     * @return the number of bytes the entries on this page take. With variable-length
+     *         keys, this may exceed the capacity for a moment after {@link #updateEntry}
+     *         put in a longer key; the page must then be split before it is written.
+     */
+    int getUsedSize() {
+        int used = 0;
+        for (int i = 1; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                used += getEntrySize(keys[i]);
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return the number of bytes available for entries on this page
+     */
+    int getCapacity() {
+        return getMaxEntries() * (getMaxKeySize() + INDEX_SIZE);
+    }
+
+    /**
+     * @return the number of entry slots of this page, including the unused key slot 0
+     */
+    int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the key to separate a left page whose largest key is left from a right
+     * page whose smallest key is right, a key between the two. Variable-length keys are
+     * truncated to the shortest prefix of right that is still greater than left, the
+     * other keys are copied up from right as they are.
+     */
+    static Field separator(Field left, Field right) {
+        if (!hasVariableLengthKeys(right.getType()) || left.equals(right)) {
+            return right;
+        }
+        final String l = ((StringField) left).getValue();
+        final String r = ((StringField) right).getValue();
+        int common = 0;
+        while (common < l.length() && common < r.length() && l.charAt(common) == r.charAt(common)) {
+            common++;
+        }
+        return new StringField(r.substring(0, Math.min(common + 1, r.length())), Type.STRING_LEN);
+    }
+
+    /**
+     * Writes a variable-length key: its length, then its characters.
+     */
+    static void writeKey(DataOutputStream dos, Field key) throws IOException {
+        String s = ((StringField) key).getValue();
+        if (s.length() > Type.STRING_LEN) {
+            s = s.substring(0, Type.STRING_LEN);
+        }
+        dos.writeByte(s.length());
+        dos.writeBytes(s);
+    }
+
+    private static Field readKey(DataInputStream dis) throws IOException {
+        final byte[] bs = new byte[dis.readUnsignedByte()];
+        dis.readFully(bs);
+        return new StringField(new String(bs), Type.STRING_LEN);
     }
 
     /**
@@ -140,7 +319,7 @@ public class BTreeInternalPage extends BTreePage {
      * @return the number of bytes in the header
      */
     private int getHeaderSize() {
-        int slotsPerPage = getMaxEntries() + 1;
+        int slotsPerPage = numSlots;
         int hb = (slotsPerPage / 8);
         if (hb * 8 < slotsPerPage) hb++;
 
@@ -263,6 +442,41 @@ public class BTreeInternalPage extends BTreePage {
             e.printStackTrace();
         }
 
+        // write out the right sibling pointer and the high key
+        try {
+            dos.writeInt(rightSibling);
+            dos.writeByte(highKey == null ? 0 : 1);
+            if (highKey == null) {
+                dos.write(new byte[getMaxKeySize()]);
+            } else if (variableLengthKeys) {
+                writeKey(dos, highKey);
+                dos.write(new byte[getMaxKeySize() - getKeySize(highKey)]);
+            } else {
+                highKey.serialize(dos);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if (variableLengthKeys) {
+            // write out the entries one after the other, and pad the rest of the page
+            try {
+                dos.writeShort(getNumEntries());
+                dos.writeInt(isSlotUsed(0) ? children[0] : 0);
+                for (int i = 1; i < numSlots; i++) {
+                    if (isSlotUsed(i)) {
+                        dos.writeInt(children[i]);
+                        writeKey(dos, keys[i]);
+                    }
+                }
+                dos.write(new byte[len - dos.size()]);
+                dos.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return baos.toByteArray();
+        }
+
         // create the header of the page
         for (byte b : header) {
             try {
@@ -326,8 +540,8 @@ public class BTreeInternalPage extends BTreePage {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length +
-                td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length);
+        int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + INDEX_SIZE + 1 + td.getFieldType(keyField).getLen()
+                + header.length + td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length);
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -344,6 +558,62 @@ public class BTreeInternalPage extends BTreePage {
         return baos.toByteArray();
     }
 
+    /**
+     * Get the id of the right sibling of this page, the next page on the same level
+     *
+     * @return the id of the right sibling, or null if this is the right-most page of its level
+     */
+    public BTreePageId getRightSiblingId() {
+        if (rightSibling == 0) {
+            return null;
+        }
+        return new BTreePageId(pid.getTableId(), rightSibling, BTreePageId.INTERNAL);
+    }
+
+    /**
+     * Set the right sibling id of this page
+     *
+     * @param id - the new right sibling id
+     * @throws DbException if the id is not valid
+     */
+    public void setRightSiblingId(BTreePageId id) throws DbException {
+        if (id == null) {
+            rightSibling = 0;
+        } else {
+            if (id.getTableId() != pid.getTableId()) {
+                throw new DbException("table id mismatch in setRightSiblingId");
+            }
+            if (id.pgcateg() != BTreePageId.INTERNAL) {
+                throw new DbException("rightSibling must be an internal node");
+            }
+            rightSibling = id.getPageNumber();
+        }
+    }
+
+    /**
+     * Get the high key of this page: every key in the subtree of this page is less than
+     * or equal to it, and every key in the subtree of its right sibling greater than or
+     * equal to it.
+     *
+     * @return the high key, or null if this is the right-most page of its level
+     */
+    public Field getHighKey() {
+        return highKey;
+    }
+
+    /**
+     * Set the high key of this page
+     *
+     * @param highKey - the new high key, null for the right-most page of a level
+     * @throws DbException if the key type does not match the key field
+     */
+    public void setHighKey(Field highKey) throws DbException {
+        if (highKey != null && !highKey.getType().equals(td.getFieldType(keyField))) {
+            throw new DbException("key field type mismatch, in setHighKey");
+        }
+        this.highKey = highKey;
+    }
+
     /**
      * Delete the specified entry (key + 1 child pointer) from the page. The recordId
      * is used to find the specified entry, so it must not be null. After deletion, the
@@ -408,7 +678,8 @@ public class BTreeInternalPage extends BTreePage {
 
     /**
      * Update the key and/or child pointers of an entry at the location specified by its
-     * record id.
+     * record id. A longer variable-length key may leave the page over capacity, see
+     * {@link #getUsedSize()}.
      *
      * @param e - the entry with updated key and/or child pointers
      * @throws DbException if this entry is not on this page, entry slot is
@@ -470,8 +741,11 @@ public class BTreeInternalPage extends BTreePage {
         } else if (e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
             throw new DbException("child page category mismatch in insertEntry");
 
+        if (getUsedSize() + getEntrySize(e.getKey()) > getCapacity())
+            throw new DbException("called insertEntry on page with no empty slots.");
+
         // if this is the first entry, add it and return
-        if (getNumEmptySlots() == getMaxEntries()) {
+        if (getNumEntries() == 0) {
             children[0] = e.getLeftChild().getPageNumber();
             children[1] = e.getRightChild().getPageNumber();
             keys[1] = e.getKey();
@@ -574,13 +848,22 @@ public class BTreeInternalPage extends BTreePage {
      * Returns the number of entries (keys) currently stored on this page
      */
     public int getNumEntries() {
-        return numSlots - getNumEmptySlots() - 1;
+        return numSlots - getNumFreeSlots() - 1;
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. With variable-length keys, the
+     * number of entries with the longest possible key that still fit.
      */
     public int getNumEmptySlots() {
+        if (variableLengthKeys) {
+            final int maxEntrySize = getMaxKeySize() + INDEX_SIZE;
+            return Math.max(0, Math.min(getNumFreeSlots(), (getCapacity() - getUsedSize()) / maxEntrySize));
+        }
+        return getNumFreeSlots();
+    }
+
+    private int getNumFreeSlots() {
         int cnt = 0;
         // start from 1 because the first key slot is not used
         // since a node with m keys has m+1 pointers
@@ -755,7 +1038,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
     public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
         this.p = p;
-        this.curEntry = p.getMaxEntries();
+        this.curEntry = p.getNumSlots() - 1;
         while (!p.isSlotUsed(curEntry) && curEntry > 0) {
             --curEntry;
         }
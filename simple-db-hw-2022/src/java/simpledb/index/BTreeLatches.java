@@ -0,0 +1,80 @@
+package simpledb.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Short-term latches on the root pointer and internal pages of one BTreeFile,
+ * keyed by page number, since a freed page may come back in another category.
+ * <p>
+ * Latches are independent of transactional locks and are only held for the
+ * duration of one insert or delete. Optimistic descents latch the pages on
+ * their path shared, one at a time, following right links past pages split
+ * in between (see {@link BTreeInternalPage#getHighKey()}), and only ever try
+ * to latch: a page latched exclusive makes them start over instead of
+ * waiting. Structure modifications latch the internal pages they change
+ * exclusive, after locking them, and pages they reuse before reading them
+ * back in. So nobody waits for a lock while a shared latch is held, and
+ * whoever waits for a latch holds no latch another thread is waiting for;
+ * latches can't deadlock, with each other or with locks.
+ */
+class BTreeLatches {
+
+    private final ConcurrentHashMap<Integer, ReentrantReadWriteLock> latches = new ConcurrentHashMap<>();
+
+    private ReentrantReadWriteLock latch(BTreePageId pid) {
+        return latches.computeIfAbsent(pid.getPageNumber(), n -> new ReentrantReadWriteLock());
+    }
+
+    /**
+     * Latches pid shared if it is not latched exclusive by another thread.
+     *
+     * @return whether the latch was acquired
+     */
+    boolean trySharedLatch(BTreePageId pid) {
+        return latch(pid).readLock().tryLock();
+    }
+
+    void releaseShared(BTreePageId pid) {
+        latch(pid).readLock().unlock();
+    }
+
+    /**
+     * @return a new, empty set of exclusive latches
+     */
+    Exclusive exclusive() {
+        return new Exclusive();
+    }
+
+    /**
+     * The exclusive latches taken by one structure modification, released
+     * together when it is done.
+     */
+    final class Exclusive {
+        // page number -> latch held
+        private final HashMap<Integer, ReentrantReadWriteLock> held = new HashMap<>();
+
+        /**
+         * Latches pid exclusive, waiting for the shared latches of descending
+         * writers to be released. Does nothing if it is already held.
+         */
+        void latch(BTreePageId pid) {
+            if (!held.containsKey(pid.getPageNumber())) {
+                final ReentrantReadWriteLock l = BTreeLatches.this.latch(pid);
+                l.writeLock().lock();
+                held.put(pid.getPageNumber(), l);
+            }
+        }
+
+        void releaseAll() {
+            final List<ReentrantReadWriteLock> ls = new ArrayList<>(held.values());
+            held.clear();
+            for (ReentrantReadWriteLock l : ls) {
+                l.writeLock().unlock();
+            }
+        }
+    }
+}
@@ -15,7 +15,11 @@ import java.util.NoSuchElementException;
 
 /**
  * BTreeScan is an operator which reads tuples in sorted order
- * according to a predicate
+ * according to a predicate.
+ * <p>
+ * A key-only scan returns tuples of the key field alone, for plans that use no
+ * other field of the table. The leaves hold whole tuples, so it reads the same
+ * pages, but the operators above it handle one field per tuple.
  */
 public class BTreeScan implements OpIterator {
 
@@ -25,6 +29,8 @@ public class BTreeScan implements OpIterator {
     private final TransactionId tid;
     private TupleDesc myTd;
     private IndexPredicate ipred = null;
+    private final boolean keyOnly;
+    private int keyField;
     private transient DbFileIterator it;
     private String tablename;
     private String alias;
@@ -45,8 +51,23 @@ public class BTreeScan implements OpIterator {
      *                   in sorted order
      */
     public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+        this(tid, tableid, tableAlias, ipred, false);
+    }
+
+    /**
+     * Creates a B+ tree scan over the specified table, returning either whole tuples or
+     * only their key field.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table, see {@link #BTreeScan(TransactionId, int, String, IndexPredicate)}
+     * @param ipred      The index predicate to match, or null to return all tuples
+     * @param keyOnly    whether to return tuples of the key field alone
+     */
+    public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred, boolean keyOnly) {
         this.tid = tid;
         this.ipred = ipred;
+        this.keyOnly = keyOnly;
         reset(tableid, tableAlias);
     }
 
@@ -80,12 +101,19 @@ public class BTreeScan implements OpIterator {
         this.isOpen = false;
         this.alias = tableAlias;
         this.tablename = Database.getCatalog().getTableName(tableid);
+        BTreeFile bf = (BTreeFile) Database.getCatalog().getDatabaseFile(tableid);
         if (ipred == null) {
-            this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+            this.it = bf.iterator(tid);
         } else {
-            this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+            this.it = bf.indexIterator(tid, ipred);
         }
+        this.keyField = bf.keyField();
         myTd = Database.getCatalog().getTupleDesc(tableid);
+        if (keyOnly) {
+            myTd = new TupleDesc(new Type[]{myTd.getFieldType(keyField)},
+                    new String[]{tableAlias + "." + myTd.getFieldName(keyField)});
+            return;
+        }
         String[] newNames = new String[myTd.numFields()];
         Type[] newTypes = new Type[myTd.numFields()];
         for (int i = 0; i < myTd.numFields(); i++) {
@@ -102,6 +130,20 @@ public class BTreeScan implements OpIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid), ipred);
     }
 
+    /**
+     * @return whether this scan returns tuples of the key field alone
+     */
+    public boolean isKeyOnly() {
+        return keyOnly;
+    }
+
+    /**
+     * @return the index predicate of this scan, or null if it returns all tuples
+     */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         if (isOpen)
             throw new DbException("double open on one OpIterator.");
@@ -134,7 +176,14 @@ public class BTreeScan implements OpIterator {
         if (!isOpen)
             throw new IllegalStateException("iterator is closed");
 
-        return it.next();
+        Tuple t = it.next();
+        if (!keyOnly) {
+            return t;
+        }
+        Tuple key = new Tuple(myTd);
+        key.setField(0, t.getField(keyField));
+        key.setRecordId(t.getRecordId());
+        return key;
     }
 
     public void close() {
@@ -338,8 +338,9 @@ public class BTreeUtility {
      */
     public static int getNumEntriesPerPage() {
         int nentrybytes = Type.INT_TYPE.getLen() + BTreeInternalPage.INDEX_SIZE;
-        // pointerbytes: one extra child pointer, parent pointer, child page category
-        int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
+        // pointerbytes: one extra child pointer, parent pointer, child page category,
+        // right sibling pointer, high key flag and high key
+        int internalpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + 1 + Type.INT_TYPE.getLen();
         return (BufferPool.getPageSize() * 8 - internalpointerbytes * 8 - 1) / (nentrybytes * 8 + 1);
     }
 
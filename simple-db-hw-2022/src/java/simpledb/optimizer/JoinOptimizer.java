@@ -2,7 +2,12 @@ package simpledb.optimizer;
 
 import simpledb.ParsingException;
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.execution.algorithm.BlockNestedLoopJoin;
+import simpledb.execution.algorithm.HashJoin;
+import simpledb.execution.algorithm.JoinStrategy;
+import simpledb.storage.BufferPool;
 import simpledb.storage.TupleDesc;
 
 import javax.swing.*;
@@ -68,12 +73,46 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        j = new Join(p, plan1, plan2, joinStrategy(lj.p));
 
         return j;
 
     }
 
+    /**
+     * Instantiates an equality join of two tables scanned in parallel as a
+     * partitioned hash join: the workers of both scans are repartitioned on
+     * the join fields ({@link Exchange}) into as many partitions as the
+     * larger scan has workers, every pair of partitions is hash joined on a
+     * thread of its own, and the results are gathered ({@link Gather}).
+     *
+     * @param lj    the join; its operator must be EQUALS
+     * @param plan1 the parallel scan of the left table
+     * @param plan2 the parallel scan of the right table
+     * @return An OpIterator representing the parallel join
+     * @throws ParsingException when the join fields are not found
+     */
+    public static OpIterator instantiateParallelJoin(LogicalJoinNode lj,
+                                                     ParallelScan plan1, ParallelScan plan2) throws ParsingException {
+        final JoinPredicate p   = ((Join) instantiateJoin(lj, plan1, plan2)).getJoinPredicate();
+        final int           n   = Math.max(plan1.getChildren().length, plan2.getChildren().length);
+        final Exchange[]    left    = Exchange.repartition(plan1.getChildren(), p.getField1(), n);
+        final Exchange[]    right   = Exchange.repartition(plan2.getChildren(), p.getField2(), n);
+        final OpIterator[]  joins   = new OpIterator[n];
+        for (int i = 0; i < n; i++) {
+            joins[i] = new Join(p, left[i], right[i], JoinStrategy.Hash);
+        }
+        return new Gather(joins);
+    }
+
+    /**
+     * @return the join algorithm used for a join predicate: equi-joins are
+     *         hashed, everything else is a block nested-loop join
+     */
+    public static JoinStrategy joinStrategy(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS ? JoinStrategy.Hash : JoinStrategy.BlockNestedLoop;
+    }
+
     /**
      * Estimate the cost of a join.
      * <p>
@@ -101,16 +140,99 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            double ioCost   = cost1 + card1 * cost2;
-            double cpuCost  = card1 * card2;
+            if (joinStrategy(j.p) == JoinStrategy.BlockNestedLoop) {
+                // the inner is scanned once per block of outer tuples
+                double blocks   = Math.ceil((double) card1 / outerBlockTuples(j));
+                double ioCost   = cost1 + Math.max(1, blocks) * cost2;
+                double cpuCost  = (double) card1 * card2;
+                return ioCost + cpuCost;
+            }
+            // hash join: each input is read once, and each tuple hashed once
+            double ioCost   = cost1 + cost2;
+            double cpuCost  = (double) card1 + card2;
+            double bytes1   = (double) card1 * tupleSize(j.t1Alias);
+            double bytes2   = (double) card2 * tupleSize(j.t2Alias);
+            if (Math.min(bytes1, bytes2) > HashJoin.DEFAULT_MEMORY_BUDGET) {
+                // neither side fits: both are written to spill files and read back
+                double spillPages = Math.ceil((bytes1 + bytes2) / BufferPool.getPageSize());
+                ioCost += 2 * spillPages * TableStats.IOCOSTPERPAGE;
+            }
             return ioCost + cpuCost;
         }
     }
 
+    /**
+     * @return the TupleDesc of the table with the given alias, or null if the
+     *         alias is not a table of the plan
+     */
+    private TupleDesc tupleDesc(String alias) {
+        Integer tableId = p.getTableAliasToIdMapping().get(alias);
+        return tableId == null ? null : Database.getCatalog().getTupleDesc(tableId);
+    }
+
+    /**
+     * @return the bytes of a tuple of the table with the given alias, or of
+     *         one int if the alias is not a table of the plan
+     */
+    private int tupleSize(String alias) {
+        TupleDesc td = tupleDesc(alias);
+        return td == null ? Type.INT_TYPE.getLen() : td.getSize();
+    }
+
+    /**
+     * @return the number of outer tuples a block nested-loop join buffers per
+     *         scan of the inner, going by the outer table's tuple size
+     */
+    private int outerBlockTuples(LogicalJoinNode j) {
+        TupleDesc td = tupleDesc(j.t1Alias);
+        if (td == null) {
+            return BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES;
+        }
+        return BlockNestedLoopJoin.tuplesPerBlock(td, BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Estimate the cost of reading a whole table, in the same units as
+     * {@link #estimateIndexScanCost}: the cost of its pages, plus one for each
+     * field of every tuple produced.
+     *
+     * @param stats   the statistics of the table
+     * @param keyOnly whether only the key field of each tuple is produced, by a
+     *                key-only scan of a BTreeFile
+     * @return the estimated cost of the scan
+     */
+    public static double estimateSeqScanCost(TableStats stats, boolean keyOnly) {
+        return stats.estimateScanCost()
+                + (double) stats.totalTuples() * (keyOnly ? 1 : stats.numFields());
+    }
+
+    /**
+     * Estimate the cost of reading the tuples of a BTreeFile that match an index
+     * predicate on its key: one page per level of internal pages, then the
+     * matching share of the leaves, plus one for each field of every tuple
+     * produced. The leaves hold whole tuples, so a key-only scan reads as many
+     * pages as a scan of whole tuples, and only produces less.
+     *
+     * @param stats       the statistics of the table
+     * @param selectivity the selectivity of the index predicate
+     * @param keyOnly     whether only the key field of each tuple is produced
+     * @return the estimated cost of the scan
+     */
+    public static double estimateIndexScanCost(TableStats stats, double selectivity, boolean keyOnly) {
+        double pages = stats.indexDepth() + Math.max(1, Math.ceil(selectivity * stats.numPages()));
+        return pages * stats.ioCostPerPage()
+                + (double) stats.estimateTableCardinality(selectivity) * (keyOnly ? 1 : stats.numFields());
+    }
+
+    /**
+     * @return the cost of reading the table with the given alias through the access
+     *         path the plan chose for it, or of scanning it whole if none was chosen
+     */
+    private double scanCost(Map<String, TableStats> stats, String tableName, String alias) {
+        Double cost = p.getAccessCost(alias);
+        return cost != null ? cost : stats.get(tableName).estimateScanCost();
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -253,6 +375,10 @@ public class JoinOptimizer {
         // Not necessary for labs 1 and 2.
 
         // DONE
+        if (joins.isEmpty()) {
+            // single-table query, nothing to order
+            return joins;
+        }
         // Seilinger algorithm, like dp.
         PlanCache   pc              = new PlanCache();
         CostCard    bestCostCard    = null;
@@ -341,13 +467,12 @@ public class JoinOptimizer {
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
+            t1cost = scanCost(stats, table1Name, j.t1Alias);
             t1card = stats.get(table1Name).estimateTableCardinality(
                     filterSelectivities.get(j.t1Alias));
             leftPkey = isPkey(j.t1Alias, j.f1PureName);
 
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
+            t2cost = table2Alias == null ? 0 : scanCost(stats, table2Name, table2Alias);
             t2card = table2Alias == null ? 0 : stats.get(table2Name)
                     .estimateTableCardinality(
                             filterSelectivities.get(j.t2Alias));
@@ -374,8 +499,7 @@ public class JoinOptimizer {
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
 
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
+                t2cost = j.t2Alias == null ? 0 : scanCost(stats, table2Name, j.t2Alias);
                 t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateTableCardinality(
                                 filterSelectivities.get(j.t2Alias));
@@ -389,7 +513,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
+                t1cost = scanCost(stats, table1Name, j.t1Alias);
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
                 leftPkey = isPkey(j.t1Alias, j.f1PureName);
@@ -523,7 +647,7 @@ public class JoinOptimizer {
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
                         + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
+                        + scanCost(stats, table1Name, j.t1Alias)
                         + ", card = "
                         + stats.get(table1Name).estimateTableCardinality(
                         selectivities.get(j.t1Alias)) + ")");
@@ -542,8 +666,7 @@ public class JoinOptimizer {
                         j.t2Alias == null ? "Subplan"
                                 : (j.t2Alias
                                 + " (Cost = "
-                                + stats.get(table2Name)
-                                .estimateScanCost()
+                                + scanCost(stats, table2Name, j.t2Alias)
                                 + ", card = "
                                 + stats.get(table2Name)
                                 .estimateTableCardinality(
@@ -5,6 +5,8 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -23,7 +25,9 @@ import java.util.*;
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
  * {@link JoinOptimizer} to order joins optimally and to select the
- * best implementations for joins.
+ * best implementations for joins. Tables stored in a {@link BTreeFile}
+ * are read through the index when a predicate on the key field makes
+ * that cheaper, and key field alone when the query uses no other field.
  */
 public class LogicalPlan {
     private List<LogicalJoinNode> joins;
@@ -31,6 +35,8 @@ public class LogicalPlan {
     private final List<LogicalFilterNode> filters;
     private final Map<String, OpIterator> subplanMap;
     private final Map<String, Integer> tableMap;
+    // table alias -> estimated cost of the access path chosen for it
+    private final Map<String, Double> accessCosts;
 
     private final List<LogicalSelectListNode> selectList;
     private String groupByField = null;
@@ -51,6 +57,7 @@ public class LogicalPlan {
         tables = new ArrayList<>();
         subplanMap = new HashMap<>();
         tableMap = new HashMap<>();
+        accessCosts = new HashMap<>();
 
         selectList = new ArrayList<>();
         this.query = "";
@@ -89,6 +96,14 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /**
+     * @return the estimated cost of reading the table with the given alias through the
+     *         access path chosen by {@link #physicalPlan}, or null if none was chosen yet
+     */
+    Double getAccessCost(String alias) {
+        return accessCosts.get(alias);
+    }
+
     /**
      * Add a new filter to the logical plan
      *
@@ -334,6 +349,8 @@ public class LogicalPlan {
 
         }
 
+        // the filters on each table, applied as one conjunction
+        Map<String, List<Predicate>> filterPredicates = new LinkedHashMap<>();
         for (LogicalFilterNode lf : filters) {
             OpIterator subplan = subplanMap.get(lf.tableAlias);
             if (subplan == null) {
@@ -360,7 +377,7 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            filterPredicates.computeIfAbsent(lf.tableAlias, k -> new ArrayList<>()).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -369,6 +386,34 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+        // large heap files are scanned in parallel, each worker filtering its pages;
+        // B+ trees may be read through the index instead
+        for (LogicalScanNode table : tables) {
+            List<Predicate> preds = filterPredicates.get(table.alias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+            int dop = s == null ? 1 : ParallelScan.degreeOfParallelism(s.numPages());
+            if (file instanceof BTreeFile) {
+                subplanMap.put(table.alias, indexAccessPath(t, table, (BTreeFile) file, preds, s));
+                continue;
+            }
+            if (s != null) {
+                accessCosts.put(table.alias, JoinOptimizer.estimateSeqScanCost(s, false));
+            }
+            if (dop > 1 && file instanceof HeapFile) {
+                ParallelScan ps = new ParallelScan(t, table.t, table.alias, dop);
+                if (preds != null) {
+                    OpIterator[] workers = ps.getChildren();
+                    for (int i = 0; i < workers.length; i++) {
+                        workers[i] = new Filter(preds, workers[i]);
+                    }
+                    ps.setChildren(workers);
+                }
+                subplanMap.put(table.alias, ps);
+            } else if (preds != null) {
+                subplanMap.put(table.alias, new Filter(preds, subplanMap.get(table.alias)));
+            }
+        }
 
         JoinOptimizer jo = new JoinOptimizer(this, joins);
 
@@ -406,7 +451,13 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            if (!isSubqueryJoin && lj.p == Predicate.Op.EQUALS
+                    && plan1 instanceof ParallelScan && plan2 instanceof ParallelScan) {
+                // both tables are large, join them partition by partition in parallel
+                j = JoinOptimizer.instantiateParallelJoin(lj, (ParallelScan) plan1, (ParallelScan) plan2);
+            } else {
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            }
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -503,6 +554,102 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Chooses how to read a table stored in a BTreeFile: through the index with its
+     * most selective predicate on the key field, if {@link JoinOptimizer#estimateIndexScanCost}
+     * is below the cost of reading the whole table, and returning the key field alone
+     * if the query uses no other field of the table. The other predicates are
+     * applied by a Filter above the scan.
+     *
+     * @param preds the predicates on the table, or null if there are none
+     * @param s     the statistics of the table, or null if there are none; the index is
+     *              then used whenever there is a predicate on the key field
+     */
+    private OpIterator indexAccessPath(TransactionId t, LogicalScanNode table, BTreeFile bf,
+                                       List<Predicate> preds, TableStats s) {
+        final boolean keyOnly = usesOnlyField(table.alias, bf.getTupleDesc().getFieldName(bf.keyField()));
+        if (preds == null) {
+            preds = Collections.emptyList();
+        }
+
+        Predicate   indexPred   = null;
+        double      indexSel    = 1.0;
+        for (Predicate p : preds) {
+            if (p.getField() != bf.keyField()
+                    || p.getOp() == Predicate.Op.NOT_EQUALS || p.getOp() == Predicate.Op.LIKE) {
+                continue;
+            }
+            double sel = s == null ? 0.0 : s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            if (indexPred == null || sel < indexSel) {
+                indexPred   = p;
+                indexSel    = sel;
+            }
+        }
+        if (s != null) {
+            double cost = JoinOptimizer.estimateSeqScanCost(s, keyOnly);
+            if (indexPred != null) {
+                double indexCost = JoinOptimizer.estimateIndexScanCost(s, indexSel, keyOnly);
+                if (indexCost < cost) {
+                    cost = indexCost;
+                } else {
+                    indexPred = null;
+                }
+            }
+            accessCosts.put(table.alias, cost);
+        }
+
+        OpIterator scan;
+        if (indexPred == null && !keyOnly) {
+            scan = subplanMap.get(table.alias);
+        } else {
+            scan = new BTreeScan(t, table.t, table.alias,
+                    indexPred == null ? null : new IndexPredicate(indexPred.getOp(), indexPred.getOperand()), keyOnly);
+        }
+        // the index returns exactly the tuples matching its predicate
+        List<Predicate> rest = new ArrayList<>();
+        for (Predicate p : preds) {
+            if (p != indexPred) {
+                rest.add(keyOnly ? new Predicate(0, p.getOp(), p.getOperand()) : p);
+            }
+        }
+        return rest.isEmpty() ? scan : new Filter(rest, scan);
+    }
+
+    /**
+     * @return whether field is the only field of the table with the given alias the
+     *         query refers to, in its select list, filters, joins, aggregate, grouping
+     *         or ordering
+     */
+    private boolean usesOnlyField(String alias, String field) {
+        List<String> used = new ArrayList<>(Arrays.asList(aggField, groupByField, oByField));
+        for (LogicalSelectListNode si : selectList) {
+            used.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters) {
+            used.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                used.add(lj.f2QuantifiedName);
+            }
+        }
+        for (String name : used) {
+            if (name == null) {
+                continue;
+            }
+            String[] parts = name.split("[.]");
+            if (parts.length != 2 || parts[1].equals("*")) {
+                // every field, e.g. SELECT *
+                return false;
+            }
+            if (parts[0].equals(alias) && !parts[1].equals(field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
@@ -55,20 +55,25 @@ public class OperatorCardinality {
                                                    Map<String, Integer> tableAliasToId,
                                                    Map<String, TableStats> tableStats) {
         OpIterator child = f.getChildren()[0];
-        Predicate pred = f.getPredicate();
-        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                .split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
+        Integer tableId = null;
         double selectivity = 1.0;
-        if (tableId != null) {
-            selectivity = tableStats.get(
+        for (Predicate pred : f.getPredicates()) {
+            String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
+                    .split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                break;
+            }
+            selectivity *= tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .estimateSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .indexForFieldName(pureFieldName),
                             pred.getOp(), pred.getOperand());
+        }
+        if (tableId != null) {
             if (child instanceof Operator) {
                 Operator oChild = (Operator) child;
                 boolean hasJoinPK = updateOperatorCardinality(oChild,
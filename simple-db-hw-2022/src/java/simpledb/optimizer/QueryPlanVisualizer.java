@@ -7,6 +7,7 @@ import simpledb.storage.TupleDesc.TDItem;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.StringJoiner;
 
 public class QueryPlanVisualizer {
 
@@ -197,11 +198,14 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(), f.getEstimatedCardinality());
+                StringJoiner cond = new StringJoiner(" AND ");
+                for (Predicate p : f.getPredicates()) {
+                    cond.add(children[0].getTupleDesc().getFieldName(p.getField())
+                            + p.getOp()
+                            + p.getOperand());
+                }
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, cond,
+                        f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -259,6 +263,24 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof AbstractExchange) {
+                // the inputs usually run the same pipeline, show the first one
+                String name = ((AbstractExchange) plan).getName();
+                thisNode.text = String.format("%1$s,card:%2$d", name, plan.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (name.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = name.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - name.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
                 String name = "Exchange";
                 int card = 0;
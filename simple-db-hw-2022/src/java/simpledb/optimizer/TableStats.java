@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -72,6 +73,7 @@ public class TableStats {
     private int                 tupleNum;
     private int                 pageNum;
     private int                 ioCostPerPage;
+    private int                 indexDepth;     // levels of internal pages, for a BTreeFile
 
 
     /**
@@ -92,7 +94,7 @@ public class TableStats {
         // in a single scan of the table.
         // DONE
         this.tableId            = tableid;
-        final HeapFile table    = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        final DbFile table      = Database.getCatalog().getDatabaseFile(tableid);
         this.td                 = table.getTupleDesc();
         this.histograms         = new Histogram[td.numFields()];
         this.tupleNum           = 0;
@@ -105,7 +107,8 @@ public class TableStats {
 
         // Compute the minimum and maximum values for every attribute in the table
         // (by scanning it once).
-        SeqScan scan = new SeqScan(new TransactionId(), tableid, "");
+        final TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, tableid, "");
         try {
             scan.open();
             while (scan.hasNext()) {
@@ -153,19 +156,52 @@ public class TableStats {
                 }
             }
 
+            if (table instanceof BTreeFile) {
+                this.indexDepth = ((BTreeFile) table).depth(tid);
+            }
         } catch (DbException e) {
             e.printStackTrace();
         } catch (TransactionAbortedException e) {
             e.printStackTrace();
         } finally {
             scan.close();
+            Database.getBufferPool().transactionComplete(tid);
         }
 
-        this.pageNum        = table.numPages();
+        this.pageNum        = table instanceof BTreeFile ? ((BTreeFile) table).numPages() : ((HeapFile) table).numPages();
         this.ioCostPerPage  = ioCostPerPage;
     }
 
 
+    /**
+     * @return the number of pages of the table
+     */
+    public int numPages() {
+        return pageNum;
+    }
+
+    /**
+     * @return the cost of reading one page of the table
+     */
+    public int ioCostPerPage() {
+        return ioCostPerPage;
+    }
+
+    /**
+     * @return the number of levels of internal pages above the leaves, if the table is
+     *         a BTreeFile, otherwise 0
+     */
+    public int indexDepth() {
+        return indexDepth;
+    }
+
+    /**
+     * @return the number of fields of the tuples of the table
+     */
+    public int numFields() {
+        return td.numFields();
+    }
+
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
      * to read a page is costPerPageIO. You can assume that there are no seeks
@@ -6,10 +6,13 @@ import simpledb.common.Permissions;
 import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
-import simpledb.util.LRUCache;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -21,6 +24,18 @@ import java.util.*;
  * locks to read/write the page.
  *
  * @Threadsafe, all fields are final
+ * <p>
+ * Resident pages live in a sharded {@link PageTable}: a getPage hit is one
+ * lock-free lookup plus the eviction policy's bookkeeping, which is lock-free
+ * for the default {@link ClockEvictionPolicy} but takes the policy's monitor
+ * for {@link LruEvictionPolicy}. Flushing, replacing and evicting a page
+ * are serialized by the latch of its frame rather than by monitors on PageId
+ * objects.
+ * <p>
+ * By default a commit writes the transaction's pages before it returns
+ * (FORCE). Under {@link CommitPolicy#NO_FORCE}, or while a background
+ * {@link PageCleaner} runs, a commit only logs them; recovery redoes them from
+ * the log if they had not been written back before a crash.
  */
 // BufferPool类似于银行，DbFile相当于储户。
 // 储户(DbFile)拥有赚钱(通过系统I/O读取文件数据)的能力。
@@ -45,20 +60,82 @@ public class BufferPool {
      */
     public static final int         DEFAULT_PAGES       = 50;
 
-    private final int                       maxPageNum;
-    private volatile LRUCache<PageId, Page> lruCache;       // LRUCache有线程安全的内部实现，在当前业务场景也不可能出现线程安全问题(同时写同一页)
+    /**
+     * When a committing transaction's pages reach disk.
+     */
+    public enum CommitPolicy {
+        /** commit writes the pages before it returns */
+        FORCE,
+        /** commit only logs the pages; they are written by the page cleaner, eviction or a checkpoint */
+        NO_FORCE
+    }
+
+    /**
+     * A pin taken with {@link #pinPage}. It names the frame that was pinned,
+     * so releasing it never touches a later frame of the same page, e.g. one
+     * reloaded after the pinned one was discarded.
+     */
+    public static final class Pin {
+        private final TransactionId     tid;
+        private final PageTable.Frame   frame;
+        private final Page              page;
+        private final AtomicBoolean     released;
+
+        private Pin(TransactionId tid, PageTable.Frame frame, Page page) {
+            this.tid        = tid;
+            this.frame      = frame;
+            this.page       = page;
+            this.released   = new AtomicBoolean();
+        }
+
+        /**
+         * @return the pinned page
+         */
+        public Page getPage() {
+            return page;
+        }
+    }
+
+    private final PageTable                 pageTable;      // 分片页表，命中路径无锁；每个frame自带latch和pin count
     private volatile LockManager            lockManager;    // LockManager有线程安全的内部实现，对其操作不需上锁
+    private final EvictionPolicy            evictionPolicy; // 决定evict哪一页，本身线程安全
+    private final LongAdder                 hitCount;
+    private final LongAdder                 missCount;
+    private final AtomicInteger             writeBackCount; // 已提交但尚未写回磁盘的页数
+    private volatile PageCleaner            pageCleaner;    // 后台写回线程；运行时commit总是NO_FORCE
+    private volatile CommitPolicy           commitPolicy;
+    // pins not released yet, by transaction; released when the transaction completes
+    private final ConcurrentHashMap<TransactionId, Set<Pin>> pins;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, replacing pages
+     * with the CLOCK policy, whose hit path takes no lock.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, EvictionPolicy.Kind.CLOCK.create(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks the
+     * pages to evict with the given replacement policy.
+     *
+     * @param numPages       maximum number of pages in this buffer pool.
+     * @param evictionPolicy the replacement policy, e.g.
+     *                       {@code EvictionPolicy.Kind.TWO_QUEUE.create(numPages)}
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy) {
         // NOT YET COMPLETELY DONE
-        this.maxPageNum     = numPages;
-        this.lruCache       = new LRUCache<>(numPages);
+        this.pageTable      = new PageTable(numPages);
         this.lockManager    = new LockManager();
+        this.evictionPolicy = evictionPolicy;
+        this.hitCount       = new LongAdder();
+        this.missCount      = new LongAdder();
+        this.writeBackCount = new AtomicInteger();
+        this.pageCleaner    = null;
+        this.commitPolicy   = CommitPolicy.FORCE;
+        this.pins           = new ConcurrentHashMap<>();
     }
 
     public static int getPageSize() {
@@ -100,18 +177,209 @@ public class BufferPool {
         } catch (TransactionAbortedException e) {
             throw e;
         }
+        return getPageUnlocked(pid);
+    }
 
-
-        if (lruCache.containsKey(pid)) {
-            return lruCache.get(pid);
+    /**
+     * Retrieves a page like {@link #getPage}, but without acquiring a lock on
+     * it: the caller must protect the page against concurrent changes by
+     * other means, e.g. BTreeFile latches the internal pages it walks past
+     * this way.
+     *
+     * @param pid the ID of the requested page
+     */
+    public Page getPageUnlocked(PageId pid) throws DbException {
+        // hit path: one lock-free page table lookup
+        PageTable.Frame frame = pageTable.get(pid);
+        if (frame != null) {
+            hitCount.increment();
+            evictionPolicy.recordAccess(pid);
+            return frame.page;
         }
 
+        missCount.increment();
         Page page = Database.getCatalog()
                             .getDatabaseFile(pid.getTableId())
                             .readPage(pid);
-        addOrUpdatePage(pid, page);
+        // another transaction holding a shared lock may have loaded the page
+        // meanwhile, in which case its copy is the one to use
+        return installPage(pid, page, false);
+    }
+
+    /**
+     * Retrieves a page like {@link #getPage} and pins it: the page stays
+     * resident, and the pinned Page object stays the one the buffer pool
+     * hands out, until the returned pin is passed to {@link #unpinPage}.
+     * Iterators pin the page they are reading and unpin it as soon as they
+     * move on, so pinned frames are few and short-lived.
+     * <p>
+     * Pins still held when tid completes are released then, so an iterator
+     * abandoned without being closed does not keep its page resident.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @return the pin, which holds the page
+     */
+    public Pin pinPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        while (true) {
+            getPage(tid, pid, perm);
+            PageTable.Frame frame = pageTable.get(pid);
+            if (frame == null) {
+                // evicted right after it was loaded, load it again
+                continue;
+            }
+            // evictPage checks the pin count and removes the frame under the
+            // latch, so a frame still resident here cannot be evicted any more
+            frame.latch.lock();
+            try {
+                if (pageTable.get(pid) == frame) {
+                    frame.pinCount.incrementAndGet();
+                    final Pin pin = new Pin(tid, frame, frame.page);
+                    pins.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(pin);
+                    return pin;
+                }
+            } finally {
+                frame.latch.unlock();
+            }
+        }
+    }
 
-        return page;
+    /**
+     * Releases a pin taken with {@link #pinPage}. The page becomes evictable
+     * again once the last pin on its frame is released. Releasing a pin that
+     * was already released, e.g. when its transaction completed, does nothing.
+     *
+     * @param pin the pin to release
+     */
+    public void unpinPage(Pin pin) {
+        final Set<Pin> held = pins.get(pin.tid);
+        if (held != null) {
+            held.remove(pin);
+        }
+        release(pin);
+    }
+
+    private void release(Pin pin) {
+        if (!pin.released.compareAndSet(false, true)) {
+            return;
+        }
+        // the frame may have been discarded (e.g. a freed B+ tree page) while
+        // pinned, in which case this pin was the only thing left using it
+        if (pin.frame.pinCount.decrementAndGet() < 0) {
+            throw new IllegalStateException("pin count of " + pin.frame.pid + " is negative");
+        }
+    }
+
+    /**
+     * Releases the pins tid has not released itself.
+     */
+    private void releasePins(TransactionId tid) {
+        final Set<Pin> held = pins.remove(tid);
+        if (held != null) {
+            for (Pin pin : held) {
+                release(pin);
+            }
+        }
+    }
+
+    /**
+     * @return the number of pins currently held on pid, 0 if it is not resident
+     */
+    public int getPinCount(PageId pid) {
+        PageTable.Frame frame = pageTable.get(pid);
+        return frame == null ? 0 : frame.pinCount.get();
+    }
+
+    /**
+     * @return the number of getPage calls served from the buffer pool
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return the number of getPage calls that had to read the page from disk
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return the fraction of getPage calls served from the buffer pool, 0 if none were made
+     */
+    public double getHitRatio() {
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * Resets the hit and miss counters, e.g. between benchmark phases.
+     */
+    public void resetStatistics() {
+        hitCount.reset();
+        missCount.reset();
+    }
+
+    public CommitPolicy getCommitPolicy() {
+        return commitPolicy;
+    }
+
+    /**
+     * Chooses when committed pages are written, see {@link CommitPolicy}.
+     * Switching back to FORCE leaves pages committed under NO_FORCE to the
+     * usual lazy write-back.
+     */
+    public void setCommitPolicy(CommitPolicy commitPolicy) {
+        this.commitPolicy = commitPolicy;
+    }
+
+    /**
+     * Starts a background page cleaner. From now on committing transactions
+     * log their dirty pages and leave writing them to the cleaner, which keeps
+     * the fraction of frames holding committed-but-unwritten pages between the
+     * two watermarks.
+     *
+     * @param lowWatermark  the dirty ratio a cleaning pass stops at, e.g. 0.1
+     * @param highWatermark the dirty ratio that triggers a cleaning pass, e.g. 0.5
+     */
+    public synchronized void startPageCleaner(double lowWatermark, double highWatermark) {
+        if (pageCleaner != null) {
+            throw new IllegalStateException("the page cleaner is already running");
+        }
+        PageCleaner cleaner = new PageCleaner(this, lowWatermark, highWatermark);
+        cleaner.start();
+        pageCleaner = cleaner;
+    }
+
+    /**
+     * Stops the background page cleaner, if one is running; later commits
+     * write their pages again. Pages already handed over to the cleaner are
+     * written by eviction or by {@link #flushAllPages()}.
+     */
+    public synchronized void stopPageCleaner() {
+        PageCleaner cleaner = pageCleaner;
+        if (cleaner != null) {
+            pageCleaner = null;
+            cleaner.shutdown();
+        }
+    }
+
+    /**
+     * @return the fraction of the buffer pool holding committed pages that
+     *         have not been written to disk yet
+     */
+    public double getDirtyRatio() {
+        return (double) writeBackCount.get() / pageTable.capacity();
+    }
+
+    /**
+     * @return true if pid is currently cached in the buffer pool
+     */
+    public boolean isResident(PageId pid) {
+        return pageTable.get(pid) != null;
     }
 
     /**
@@ -159,30 +427,57 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // DONE
         // not necessary for lab1|lab2
+        try {
+            transactionComplete(tid, commit, false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Commit or abort a given transaction like
+     * {@link #transactionComplete(TransactionId, boolean)}, optionally also
+     * appending its COMMIT record. The record is appended after the UPDATE
+     * records of the commit and forced before the locks are released, so no
+     * other transaction reads the changes before the commit is durable; under
+     * NO_FORCE the changes are not on disk yet when the locks go.
+     *
+     * @param tid       the ID of the transaction requesting the unlock
+     * @param commit    a flag indicating whether we should commit or abort
+     * @param logCommit whether to append the COMMIT record of a commit
+     * @throws IOException if the pages or the COMMIT record cannot be written
+     */
+    public void transactionComplete(TransactionId tid, boolean commit, boolean logCommit)
+            throws IOException {
+        releasePins(tid);
         Set<PageId> lockedPageSet = lockManager.getLockedPage(tid);
         if (lockedPageSet == null) {   // this transaction may acquire no lock
-            return;
+            lockedPageSet = Collections.emptySet();
         }
+        PageCleaner cleaner = pageCleaner;
         try {
-            for (PageId pid : lockedPageSet) {
-                synchronized (pid) {
-                    if (!lruCache.containsKey(pid)) {
+            if (commit) {
+                commitPages(tid, lockedPageSet, cleaner != null || commitPolicy == CommitPolicy.NO_FORCE);
+                if (logCommit) {
+                    Database.getLogFile().logCommit(tid);
+                }
+                if (cleaner != null) {
+                    cleaner.pagesQueued();
+                }
+            } else {
+                for (PageId pid : lockedPageSet) {
+                    PageTable.Frame frame = pageTable.get(pid);
+                    if (frame == null) {
                         continue;
                     }
-                    Page page = lruCache.get(pid);
-                    if (commit) {
-                        flushPage(pid, page);
-
-                        // use current page contents as the before-image
-                        // for the next transaction that modifies this page.
-                        page.setBeforeImage();
-                    } else {
-                        addOrUpdatePage(page.getId(), page.getBeforeImage());
+                    frame.latch.lock();
+                    try {
+                        frame.page = frame.page.getBeforeImage();
+                    } finally {
+                        frame.latch.unlock();
                     }
                 }
             }
-        } catch (DbException | IOException e) {
-            e.printStackTrace();
         } finally {
             // 尽量不在遍历时release，因为会修改底层数据结构，
             // 尽管底层用的是线程安全的ConcurrentHashMap，
@@ -191,6 +486,72 @@ public class BufferPool {
         }
     }
 
+    /**
+     * Commit path: log the UPDATE record of every dirty page first, then
+     * either write the pages (FORCE), or only mark them for write-back by the
+     * page cleaner, eviction or the next checkpoint (NO-FORCE).
+     * <p>
+     * FORCE forces the log once before the pages are written and syncs each
+     * table once after. NO-FORCE leaves forcing the log to the COMMIT record
+     * written right after by {@link LogFile#logCommit}, before the locks are
+     * released; page write-backs force the log themselves if they get there
+     * first.
+     */
+    private void commitPages(TransactionId tid, Set<PageId> lockedPageSet, boolean noForce)
+            throws IOException {
+        final LogFile logFile = Database.getLogFile();
+        List<PageTable.Frame> frames = new ArrayList<>();
+        boolean logged = false;
+        for (PageId pid : lockedPageSet) {
+            PageTable.Frame frame = pageTable.get(pid);
+            if (frame == null) {
+                continue;
+            }
+            frames.add(frame);
+            frame.latch.lock();
+            try {
+                Page page = frame.page;
+                if (page.isDirty() != null) {
+                    logFile.logWrite(tid, page.getBeforeImage(), page);
+                    frame.pageLsn = logFile.getAppendedLsn();
+                    logged = true;
+                }
+            } finally {
+                frame.latch.unlock();
+            }
+        }
+        if (logged && !noForce) {
+            // WAL: all UPDATE records reach disk before any page does
+            logFile.force();
+        }
+
+        Set<Integer> writtenTables = new HashSet<>();
+        for (PageTable.Frame frame : frames) {
+            frame.latch.lock();
+            try {
+                Page page = frame.page;
+                if (page.isDirty() != null) {
+                    if (noForce) {
+                        markForWriteBack(frame);
+                    } else {
+                        Database.getCatalog().getDatabaseFile(frame.pid.getTableId()).writePage(page);
+                        writtenTables.add(frame.pid.getTableId());
+                        clearWriteBack(frame);
+                    }
+                    page.markDirty(false, null);
+                }
+
+                // use current page contents as the before-image
+                // for the next transaction that modifies this page.
+                page.setBeforeImage();
+            } finally {
+                frame.latch.unlock();
+            }
+        }
+        // FORCE: one sync per touched table instead of one per written page
+        syncTables(writtenTables);
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other
@@ -252,25 +613,110 @@ public class BufferPool {
     public void flushAllPages() throws IOException {
         // DONE
         // not necessary for lab1
-        for (Map.Entry<PageId, Page> e: this.lruCache.entrySet()) {
-            PageId pid = e.getKey();
-            synchronized (pid) {
-                flushPage(pid, e.getValue());
+        Set<Integer> flushedTables = new HashSet<>();
+        for (PageTable.Frame frame : pageTable.frames()) {
+            frame.latch.lock();
+            try {
+                flushedTables.add(frame.pid.getTableId());
+                flushFrame(frame);
+            } finally {
+                frame.latch.unlock();
             }
         }
-        return;
+        syncTables(flushedTables);
+    }
+
+    /**
+     * Forces the page writes of the given tables to disk, once per table.
+     */
+    private void syncTables(Set<Integer> tableIds) throws IOException {
+        for (int tableId : tableIds) {
+            Database.getCatalog().getDatabaseFile(tableId).sync();
+        }
     }
 
     public void addOrUpdatePage(PageId pid, Page page) throws DbException {
         if (pid == null || page == null) {
-            System.out.println("CANNOT add page to LRUCache. Because the page is null!");
+            System.out.println("CANNOT add page to the buffer pool. Because the page is null!");
+            return;
         }
-        synchronized (pid) {
-            while (lruCache.size() > maxPageNum || (lruCache.size() == maxPageNum && !lruCache.containsKey(pid))) {
+        installPage(pid, page, true);
+    }
+
+    /**
+     * Makes page the resident copy of pid, evicting another page if the pool
+     * is full.
+     *
+     * @param replace whether page replaces an already resident copy of pid;
+     *                if false, the resident copy wins
+     * @return the page now resident for pid
+     */
+    private Page installPage(PageId pid, Page page, boolean replace) throws DbException {
+        while (true) {
+            PageTable.Frame frame = pageTable.get(pid);
+            if (frame != null) {
+                frame.latch.lock();
+                try {
+                    if (pageTable.get(pid) == frame) {
+                        if (replace) {
+                            frame.page = page;
+                        }
+                        evictionPolicy.recordAccess(pid);
+                        return frame.page;
+                    }
+                } finally {
+                    frame.latch.unlock();
+                }
+                // evicted while we waited for the latch, start over
+                continue;
+            }
+
+            while (!pageTable.tryReserve()) {
                 evictPage();
             }
-            lruCache.put(pid, page);
+            if (pageTable.putIfAbsent(new PageTable.Frame(pid, page)) == null) {
+                evictionPolicy.recordInsert(pid);
+                return page;
+            }
+            // lost the race against another loader of the same page
+            pageTable.cancelReservation();
+        }
+    }
+
+    /**
+     * Installs pages read ahead of their use, without locks. Pages that are
+     * already resident are skipped, since the resident copy may be newer
+     * than the one read from disk. Only clean pages are evicted to make room,
+     * and the call stops early rather than wait for a latch or a write, so
+     * read-ahead never holds up the transactions using the pool.
+     *
+     * @return the number of pages installed
+     */
+    public int cachePages(List<? extends Page> pages) {
+        int installed = 0;
+        for (Page page : pages) {
+            PageId pid = page.getId();
+            if (pageTable.get(pid) != null) {
+                continue;
+            }
+            if (!pageTable.tryReserve() && !(evictCleanPage() && pageTable.tryReserve())) {
+                break;
+            }
+            if (pageTable.putIfAbsent(new PageTable.Frame(pid, page)) == null) {
+                evictionPolicy.recordInsert(pid);
+                installed++;
+            } else {
+                pageTable.cancelReservation();
+            }
         }
+        return installed;
+    }
+
+    /**
+     * @return the maximum number of pages in this buffer pool
+     */
+    public int getNumPages() {
+        return pageTable.capacity();
     }
 
     /**
@@ -285,27 +731,39 @@ public class BufferPool {
     public void removePage(PageId pid) {
         // DONE
         // not necessary for lab1
-        synchronized (pid) {
-            if (!lruCache.containsKey(pid)) {
-                // To do: this happens a lot. Figure out why
-                System.out.println("removing non-existing page");
-                return;
-            }
-            this.lruCache.remove(pid);
+        if (!removeFrame(pid)) {
+            // To do: this happens a lot. Figure out why
+            System.out.println("removing non-existing page");
         }
     }
 
     public boolean discardPage(PageId pid) {
         // DONE
         // not necessary for lab1
-        synchronized (pid) {
-            if (!lruCache.containsKey(pid)) {
-                // To do: this happens a lot. Figure out why
-                System.out.println("discarding non-existing page");
+        if (!removeFrame(pid)) {
+            // To do: this happens a lot. Figure out why
+            System.out.println("discarding non-existing page");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean removeFrame(PageId pid) {
+        PageTable.Frame frame = pageTable.get(pid);
+        if (frame == null) {
+            return false;
+        }
+        frame.latch.lock();
+        try {
+            if (!pageTable.remove(frame)) {
                 return false;
             }
-            this.lruCache.remove(pid);
+            // the page is dropped on purpose, a pending write-back goes with it
+            clearWriteBack(frame);
+            evictionPolicy.recordRemove(pid);
             return true;
+        } finally {
+            frame.latch.unlock();
         }
     }
 
@@ -317,32 +775,129 @@ public class BufferPool {
     private void flushPage(PageId pid) throws IOException {
         // DONE
         // not necessary for lab1
-        synchronized (pid) {
-            flushPage(pid, lruCache.get(pid));
+        PageTable.Frame frame = pageTable.get(pid);
+        if (frame == null) {
+            return;
+        }
+        frame.latch.lock();
+        try {
+            flushFrame(frame);
+        } finally {
+            frame.latch.unlock();
         }
     }
 
+    // callers hold the latch of the frame
+    private void flushFrame(PageTable.Frame frame) throws IOException {
+        if (frame.needsWriteBack && frame.pageLsn > Database.getLogFile().getDurableLsn()) {
+            // NO-FORCE commits leave forcing their UPDATE records to later
+            Database.getLogFile().force();
+        }
+        flushPage(frame.pid, frame.page);
+        clearWriteBack(frame);
+    }
+
+    // callers hold the latch of the page's frame
     private void flushPage(PageId pid, Page page) throws IOException {
         // NOE YET COMPLETELY DONE
         // not necessary for lab1
-        synchronized (pid) {
-            try {
-                // for lab6, write update record first
-                final LogFile logFile = Database.getLogFile();
-                if (page.isDirty() != null) {
-                    logFile.logWrite(page.isDirty(), page.getBeforeImage(), page);
-                    logFile.force();
-                }
+        try {
+            // for lab6, write update record first
+            logPage(page);
 
-                // Write page
-                DbFile tableFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                tableFile.writePage(page);
-                page.markDirty(false, null);
-            } catch (IOException e) {
-                e.printStackTrace();
-                System.out.println("Error happen when flush page to disk:" + e.getMessage());
+            // Write page
+            DbFile tableFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            tableFile.writePage(page);
+            page.markDirty(false, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Error happen when flush page to disk:" + e.getMessage());
+        }
+    }
+
+    /**
+     * WAL: log a dirty page and force the log before the page may reach disk.
+     */
+    private void logPage(Page page) throws IOException {
+        if (page.isDirty() != null) {
+            final LogFile logFile = Database.getLogFile();
+            logFile.logWrite(page.isDirty(), page.getBeforeImage(), page);
+            logFile.force();
+        }
+    }
+
+    // callers hold the latch of the frame
+    private void markForWriteBack(PageTable.Frame frame) {
+        if (!frame.needsWriteBack) {
+            frame.needsWriteBack = true;
+            writeBackCount.incrementAndGet();
+        }
+    }
+
+    // callers hold the latch of the frame
+    private void clearWriteBack(PageTable.Frame frame) {
+        if (frame.needsWriteBack) {
+            frame.needsWriteBack = false;
+            writeBackCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Writes committed pages back in page-number order until at most
+     * targetRatio of the buffer pool is waiting for write-back. Used by the
+     * {@link PageCleaner}.
+     */
+    void writeBackPages(double targetRatio) throws IOException {
+        final int target = (int) (targetRatio * pageTable.capacity());
+        // WAL: make the UPDATE records of the pages to write durable first
+        Database.getLogFile().force();
+        List<PageTable.Frame> pending = new ArrayList<>();
+        for (PageTable.Frame frame : pageTable.frames()) {
+            if (frame.needsWriteBack) {
+                pending.add(frame);
             }
         }
+        // 按(表, 页号)顺序写回，尽量把随机写变成顺序写
+        pending.sort(Comparator.comparingInt((PageTable.Frame f) -> f.pid.getTableId())
+                               .thenComparingInt(f -> f.pid.getPageNumber()));
+
+        Set<Integer> writtenTables = new HashSet<>();
+        for (PageTable.Frame frame : pending) {
+            if (writeBackCount.get() <= target) {
+                break;
+            }
+            if (writeBack(frame)) {
+                writtenTables.add(frame.pid.getTableId());
+            }
+        }
+        syncTables(writtenTables);
+    }
+
+    /**
+     * Writes the committed contents of a frame waiting for write-back. The
+     * before-image is written rather than the page itself: it is exactly the
+     * last committed version, while the page may already carry changes of a
+     * running transaction (NO STEAL).
+     *
+     * @return false if the frame no longer needed writing
+     */
+    private boolean writeBack(PageTable.Frame frame) throws IOException {
+        frame.latch.lock();
+        try {
+            if (!frame.needsWriteBack || pageTable.get(frame.pid) != frame) {
+                return false;
+            }
+            if (frame.pageLsn > Database.getLogFile().getDurableLsn()) {
+                // WAL: committed again after the caller forced the log
+                Database.getLogFile().force();
+            }
+            Page committed = frame.page.getBeforeImage();
+            Database.getCatalog().getDatabaseFile(frame.pid.getTableId()).writePage(committed);
+            clearWriteBack(frame);
+            return true;
+        } finally {
+            frame.latch.unlock();
+        }
     }
 
     /**
@@ -355,11 +910,12 @@ public class BufferPool {
         if (pageIds == null) {  // tid may acquire no lock
             return;
         }
+        Set<Integer> flushedTables = new HashSet<>();
         for (PageId pid : pageIds) {
-            synchronized (pid) {
-                flushPage(pid);
-            }
+            flushedTables.add(pid.getTableId());
+            flushPage(pid);
         }
+        syncTables(flushedTables);
     }
 
     /**
@@ -369,22 +925,101 @@ public class BufferPool {
     private void evictPage() throws DbException {
         // DONE
         // not necessary for lab1
+        if (evictCleanPage()) {
+            return;
+        }
 
-        // LRUCache底层用的数据结构是ConcurrentHashMap，
-        // 所以可以线程安全地在遍历时修改
-        for (Map.Entry<PageId, Page> e: this.lruCache.entrySet()) {
-            PageId pid = e.getKey();
-            synchronized (pid) {
-                if (e.getValue().isDirty() != null) {
+        // 没有干净页：page cleaner跟不上时，由evict线程自己写回一个已提交的页
+        try {
+            Database.getLogFile().force();
+        } catch (IOException e) {
+            throw new DbException("Error happen when forcing the log: " + e.getMessage());
+        }
+        PageId victim;
+        while ((victim = evictionPolicy.chooseVictim(this::isWriteBackCandidate)) != null) {
+            PageTable.Frame frame = pageTable.get(victim);
+            if (frame == null) {
+                evictionPolicy.recordRemove(victim);
+                continue;
+            }
+            if (!frame.latch.tryLock()) {
+                continue;
+            }
+            try {
+                if (frame.page.isDirty() != null || frame.isPinned()) {
                     continue;
                 }
-                if (!discardPage(e.getKey())) {
+                try {
+                    if (writeBack(frame)) {
+                        Database.getCatalog().getDatabaseFile(victim.getTableId()).sync();
+                    }
+                } catch (IOException e) {
+                    throw new DbException("Error happen when writing back page " + victim + ": " + e.getMessage());
+                }
+                if (pageTable.remove(frame)) {
+                    evictionPolicy.recordRemove(victim);
+                    return;
+                }
+            } finally {
+                frame.latch.unlock();
+            }
+        }
+        throw new DbException("All pages are dirty or pinned in buffer pool");
+    }
+
+    /**
+     * Evicts one clean page; never writes and never blocks.
+     *
+     * @return false if there is no clean page to evict
+     */
+    private boolean evictCleanPage() {
+        // 由EvictionPolicy按替换顺序挑选第一个可evict(干净、未pin、未被latch)的页；
+        // 挑选与移除之间该页可能被其他线程修改，所以在latch内重新检查
+        PageId victim;
+        while ((victim = evictionPolicy.chooseVictim(this::isEvictable)) != null) {
+            PageTable.Frame frame = pageTable.get(victim);
+            if (frame == null) {
+                // already gone, drop the stale entry and pick again
+                evictionPolicy.recordRemove(victim);
+                continue;
+            }
+            if (!frame.latch.tryLock()) {
+                continue;
+            }
+            try {
+                if (frame.page.isDirty() != null || frame.isPinned() || frame.needsWriteBack) {
                     continue;
                 }
-                return;
+                if (pageTable.remove(frame)) {
+                    evictionPolicy.recordRemove(victim);
+                    return true;
+                }
+            } finally {
+                frame.latch.unlock();
             }
         }
-        throw new DbException("All pages are dirty in buffer pool");
+        return false;
+    }
+
+    /**
+     * NO STEAL: only clean pages may leave the buffer pool; pinned pages are
+     * in use by an iterator and may not leave it either.
+     */
+    private boolean isEvictable(PageId pid) {
+        PageTable.Frame frame = pageTable.get(pid);
+        return frame == null
+                || (frame.page.isDirty() == null && !frame.isPinned() && !frame.latch.isLocked()
+                    && !frame.needsWriteBack);
+    }
+
+    /**
+     * Committed pages waiting for the page cleaner may be written back and
+     * evicted when no clean page is left.
+     */
+    private boolean isWriteBackCandidate(PageId pid) {
+        PageTable.Frame frame = pageTable.get(pid);
+        return frame == null
+                || (frame.page.isDirty() == null && !frame.isPinned() && !frame.latch.isLocked());
     }
 
 }
@@ -0,0 +1,94 @@
+package simpledb.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Second-chance CLOCK replacement. Resident pages sit on a circular list
+ * swept by a clock hand; a hit only sets the page's reference bit, so the
+ * hit path takes no lock at all. When looking for a victim the hand clears
+ * set reference bits and stops at the first unreferenced evictable page.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private static class Frame {
+        final PageId        pid;
+        volatile boolean    referenced;
+        Frame               prev;
+        Frame               next;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, Frame>  frames;
+    // the clock hand, null iff the ring is empty; the ring is guarded by this
+    private Frame                                   hand;
+
+    public ClockEvictionPolicy() {
+        this.frames = new ConcurrentHashMap<>();
+        this.hand   = null;
+    }
+
+    @Override
+    public synchronized void recordInsert(PageId pid) {
+        if (frames.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        Frame frame = new Frame(pid);
+        frames.put(pid, frame);
+        if (hand == null) {
+            frame.prev  = frame;
+            frame.next  = frame;
+            hand        = frame;
+            return;
+        }
+        // insert just behind the hand, i.e. the last frame the hand will reach
+        frame.prev      = hand.prev;
+        frame.next      = hand;
+        hand.prev.next  = frame;
+        hand.prev       = frame;
+    }
+
+    @Override
+    public void recordAccess(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame != null) {
+            frame.referenced = true;
+        }
+    }
+
+    @Override
+    public synchronized void recordRemove(PageId pid) {
+        Frame frame = frames.remove(pid);
+        if (frame == null) {
+            return;
+        }
+        if (frame.next == frame) {
+            hand = null;
+            return;
+        }
+        if (hand == frame) {
+            hand = frame.next;
+        }
+        frame.prev.next = frame.next;
+        frame.next.prev = frame.prev;
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Predicate<PageId> canEvict) {
+        // two full turns: the first may only be clearing reference bits
+        for (int steps = 2 * frames.size(); hand != null && steps > 0; steps--) {
+            Frame frame = hand;
+            hand = hand.next;
+            if (frame.referenced) {
+                frame.referenced = false;
+            } else if (canEvict.test(frame.pid)) {
+                return frame.pid;
+            }
+        }
+        return null;
+    }
+}
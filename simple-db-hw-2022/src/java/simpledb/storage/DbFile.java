@@ -34,6 +34,23 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Force every page written through {@link #writePage} since the last sync
+     * to stable storage. Files that write through synchronously need not
+     * override this.
+     *
+     * @throws IOException if the sync fails
+     */
+    default void sync() throws IOException {
+    }
+
+    /**
+     * Release any OS resources (e.g. open channels) held by this file. The
+     * file must remain usable afterwards; resources are reacquired lazily.
+     */
+    default void close() {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,71 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which page the BufferPool gives up when it needs a
+ * free frame. The BufferPool tells the policy about every page entering,
+ * being referenced in, and leaving the pool; the policy only orders the
+ * resident pages and never touches them itself.
+ * <p>
+ * Whether a particular page may be evicted right now (e.g. it is clean) is
+ * the BufferPool's business, and is passed to {@link #chooseVictim} as a
+ * predicate. Implementations must be thread-safe.
+ *
+ * @see BufferPool#BufferPool(int, EvictionPolicy)
+ */
+public interface EvictionPolicy {
+
+    /**
+     * The replacement policies shipped with SimpleDB.
+     */
+    enum Kind {
+        /** least recently used */
+        LRU,
+        /** second-chance clock, lock-free on the hit path */
+        CLOCK,
+        /** scan-resistant 2Q (Johnson &amp; Shasha, VLDB '94) */
+        TWO_QUEUE;
+
+        /**
+         * @param capacity the number of pages of the buffer pool using the policy
+         * @return a new policy of this kind
+         */
+        public EvictionPolicy create(int capacity) {
+            switch (this) {
+                case CLOCK:
+                    return new ClockEvictionPolicy();
+                case TWO_QUEUE:
+                    return new TwoQueueEvictionPolicy(capacity);
+                case LRU:
+                default:
+                    return new LruEvictionPolicy();
+            }
+        }
+    }
+
+    /**
+     * A page was brought into the buffer pool.
+     */
+    void recordInsert(PageId pid);
+
+    /**
+     * A page already resident in the buffer pool was referenced again.
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * A page left the buffer pool, either evicted or explicitly discarded.
+     */
+    void recordRemove(PageId pid);
+
+    /**
+     * Picks the page to evict: the first resident page, in this policy's
+     * replacement order, that canEvict accepts. The page is not removed;
+     * the BufferPool reports it through {@link #recordRemove} once evicted.
+     *
+     * @param canEvict whether a given resident page may be evicted now
+     * @return the victim, or null if no resident page may be evicted
+     */
+    PageId chooseVictim(Predicate<PageId> canEvict);
+}
@@ -0,0 +1,128 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Free-space map of a HeapFile: one byte per page summarising how much of
+ * the page is free, so that inserts go straight to a page with room instead
+ * of locking every page from the start of the file.
+ * <p>
+ * A page's entry is its free-space category, the fraction of free slots
+ * scaled to 0..{@link #MAX_CATEGORY} and rounded up, so 0 means full and any
+ * other value means at least one free slot. Pages the map knows nothing
+ * about yet are {@link #UNKNOWN} and count as possibly having room.
+ * <p>
+ * The map is a hint kept in memory only, never written to disk or logged. It
+ * is updated whenever a page is read, written, or changed by an insert or
+ * delete, and the pages it has not seen by the first insert are filled in
+ * from their headers on disk (see {@link HeapFile#insertTuple}). A stale
+ * entry only costs a visit to a page that turns out to be full, which
+ * corrects it, or leaves free space unused until the page is next read.
+ */
+public class FreeSpaceMap {
+
+    /** the category of a page without any free slot */
+    public static final int     FULL            = 0;
+    /** the category of an empty page */
+    public static final int     MAX_CATEGORY    = 254;
+    /** the category of a page the map has no information about */
+    public static final int     UNKNOWN         = 255;
+
+    private byte[]              categories;     // UNKNOWN beyond numEntries
+    private int                 numEntries;
+    // pages whose category is not FULL: the candidates for an insert
+    private final BitSet        withRoom;
+    // whether the pages on disk have been filled in
+    private volatile boolean    built;
+
+    public FreeSpaceMap() {
+        this.categories = new byte[0];
+        this.numEntries = 0;
+        this.withRoom   = new BitSet();
+        this.built      = false;
+    }
+
+    private void ensureEntries(int n) {
+        if (n <= numEntries) {
+            return;
+        }
+        if (n > categories.length) {
+            int oldLength = categories.length;
+            categories = Arrays.copyOf(categories, Math.max(n, oldLength * 2));
+            Arrays.fill(categories, oldLength, categories.length, (byte) UNKNOWN);
+        }
+        withRoom.set(numEntries, n);
+        numEntries = n;
+    }
+
+    /**
+     * @return the category of a page with freeSlots of numSlots slots free
+     */
+    public static int category(int freeSlots, int numSlots) {
+        if (freeSlots <= 0 || numSlots <= 0) {
+            return FULL;
+        }
+        return (int) (((long) freeSlots * MAX_CATEGORY + numSlots - 1) / numSlots);
+    }
+
+    /**
+     * Records the free space of page pgNo.
+     */
+    public synchronized void update(int pgNo, int freeSlots, int numSlots) {
+        ensureEntries(pgNo + 1);
+        byte category = (byte) category(freeSlots, numSlots);
+        categories[pgNo] = category;
+        withRoom.set(pgNo, category != FULL);
+    }
+
+    /**
+     * Records the free space of page.
+     */
+    public void update(HeapPage page) {
+        update(page.getId().getPageNumber(), page.getNumUnusedSlots(), page.getNumSlots());
+    }
+
+    /**
+     * Records the free space of page pgNo as found on disk, unless the map
+     * already knows the page: what it learnt from the page in memory is at
+     * least as recent.
+     */
+    public synchronized void updateIfUnknown(int pgNo, int freeSlots, int numSlots) {
+        if (getCategory(pgNo) == UNKNOWN) {
+            update(pgNo, freeSlots, numSlots);
+        }
+    }
+
+    /**
+     * @return true once the pages on disk have been filled in
+     */
+    public boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Marks the pages on disk as filled in.
+     */
+    public void setBuilt() {
+        built = true;
+    }
+
+    /**
+     * @return the category of page pgNo
+     */
+    public synchronized int getCategory(int pgNo) {
+        return pgNo < numEntries ? categories[pgNo] & 0xff : UNKNOWN;
+    }
+
+    /**
+     * @param numPages the number of pages in the heap file
+     * @return the first page that may have a free slot, or -1 if every page
+     *         is known to be full
+     */
+    public synchronized int findPageWithRoom(int numPages) {
+        ensureEntries(numPages);
+        int pgNo = withRoom.nextSetBit(0);
+        return pgNo >= 0 && pgNo < numPages ? pgNo : -1;
+    }
+}
@@ -8,6 +8,7 @@ import simpledb.transaction.TransactionId;
 import simpledb.util.HeapFileIterator;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -25,8 +26,12 @@ import java.util.NoSuchElementException;
  */
 public class HeapFile implements DbFile {
 
-    private final File       dbFile;
-    private final TupleDesc  td;
+    private final File              dbFile;
+    private final TupleDesc         td;
+    private final PageFileChannel   channel;
+    private final boolean           memoryMapped;
+    // 每页的空闲程度，insertTuple据此直接找到有空位的页
+    private final FreeSpaceMap      freeSpaceMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -35,9 +40,28 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally serving
+     * page reads from a memory mapping of the file. Mapped pages are decoded
+     * in place ({@link HeapPage#HeapPage(HeapPageId, java.nio.ByteBuffer)})
+     * rather than copied into a fresh byte[], which suits read-mostly tables,
+     * e.g. bulk-loaded with {@link HeapFileEncoder} and then scanned often.
+     * Writes still go through the regular channel and stay visible to reads.
+     *
+     * @param f            the file that stores the on-disk backing store for this heap
+     *                     file.
+     * @param memoryMapped whether to serve page reads from a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         // DONE
-        this.dbFile = f;
-        this.td     = td;
+        this.dbFile         = f;
+        this.td             = td;
+        this.channel        = new PageFileChannel(f);
+        this.memoryMapped   = memoryMapped;
+        this.freeSpaceMap   = new FreeSpaceMap();
     }
 
     /**
@@ -50,6 +74,20 @@ public class HeapFile implements DbFile {
         return dbFile;
     }
 
+    /**
+     * @return the free-space map of this file, kept in memory only
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    /**
+     * @return true if page reads are served from a memory mapping of the file
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -96,30 +134,63 @@ public class HeapFile implements DbFile {
 
         int                 pgNo        = pid.getPageNumber();
         int                 pageSize    = BufferPool.getPageSize();
-        byte[]              rawPageData = HeapPage.createEmptyPageData();
-        RandomAccessFile    raf         = null;
         HeapPage            heapPage    = null;
         try {
-            raf = new RandomAccessFile(dbFile, "r");
-            raf.seek((long) pgNo * pageSize);
-            if (raf.read(rawPageData, 0, rawPageData.length) == -1) {
+            if (memoryMapped) {
+                ByteBuffer mappedPage = channel.map((long) pgNo * pageSize, pageSize);
+                if (mappedPage != null) {
+                    heapPage = new HeapPage((HeapPageId) pid, mappedPage);
+                    freeSpaceMap.update(heapPage);
+                    return heapPage;
+                }
+                // page straddles two mapping regions: fall back to a plain read
+            }
+            byte[] rawPageData = HeapPage.createEmptyPageData();
+            if (channel.read((long) pgNo * pageSize, rawPageData) == -1) {
                 return null;
             }
             heapPage = new HeapPage((HeapPageId) pid, rawPageData);
-        } catch (Exception e) {
+            freeSpaceMap.update(heapPage);
+        } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (raf != null) {
-                try {
-                    raf.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
         }
         return heapPage;
     }
 
+    /**
+     * Reads up to count consecutive pages starting at startPgNo with a single
+     * positional read and caches them in the buffer pool ahead of their use
+     * (see {@link BufferPool#cachePages}). No locks are taken: the pages are
+     * dropped if anything was written to this file while they were read.
+     * Memory-mapped files are not read ahead, the OS already does so.
+     *
+     * @return the number of pages cached
+     */
+    public int prefetchPages(int startPgNo, int count) throws IOException {
+        if (memoryMapped) {
+            return 0;
+        }
+        count = Math.min(count, numPages() - startPgNo);
+        if (startPgNo < 0 || count <= 0) {
+            return 0;
+        }
+
+        int                 pageSize    = BufferPool.getPageSize();
+        long                version     = channel.getWriteVersion();
+        ByteBuffer          buf         = ByteBuffer.allocate(count * pageSize);
+        int                 n           = channel.read((long) startPgNo * pageSize, buf);
+        List<HeapPage>      pages       = new ArrayList<>(count);
+        buf.flip();
+        for (int i = 0; i < n / pageSize; i++) {
+            byte[] rawPageData = new byte[pageSize];
+            buf.get(rawPageData);
+            HeapPage page = new HeapPage(new HeapPageId(getId(), startPgNo + i), rawPageData);
+            freeSpaceMap.update(page);
+            pages.add(page);
+        }
+        return channel.installIfUnchanged(version, () -> Database.getBufferPool().cachePages(pages));
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // DONE
@@ -138,22 +209,19 @@ public class HeapFile implements DbFile {
         }
         int                 pageSize    = BufferPool.getPageSize();
         byte[]              rawPageData = page.getPageData();
-        RandomAccessFile    raf         = null;
-        try {
-            raf = new RandomAccessFile(dbFile, "rws");
-            raf.seek((long) pgNo * pageSize);
-            raf.write(rawPageData);
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (raf != null) {
-                try {
-                    raf.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        // writes go to the OS page cache, durability is left to sync() (see PageFileChannel.SyncPolicy)
+        channel.write((long) pgNo * pageSize, rawPageData);
+        freeSpaceMap.update((HeapPage) page);
+    }
+
+    // see DbFile.java for javadocs
+    public void sync() throws IOException {
+        channel.sync();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() {
+        channel.close();
     }
 
     /**
@@ -170,16 +238,29 @@ public class HeapFile implements DbFile {
         // DONE
         // not necessary for lab1
         ArrayList<Page> dirtyPageList = new ArrayList<>();
-        for (int i = 0; i < this.numPages(); i++) {
-            HeapPage hPage = (HeapPage) Database.getBufferPool().
-                    getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
-            if (hPage == null || hPage.getNumUnusedSlots() <= 0) {
-                continue;
+        BufferPool      bufferPool    = Database.getBufferPool();
+        // 由free-space map直接定位可能有空位的页，不再从第0页开始逐页加写锁
+        if (!freeSpaceMap.isBuilt()) {
+            buildFreeSpaceMap();
+        }
+        int             pgNo;
+        while ((pgNo = freeSpaceMap.findPageWithRoom(this.numPages())) != -1) {
+            HeapPageId  hPageId      = new HeapPageId(getId(), pgNo);
+            boolean     lockedBefore = bufferPool.holdsLock(tid, hPageId);
+            HeapPage    hPage        = (HeapPage) bufferPool.getPage(tid, hPageId, Permissions.READ_WRITE);
+            if (hPage.getNumUnusedSlots() > 0) {
+                hPage.insertTuple(t);
+                hPage.markDirty(true, tid);
+                freeSpaceMap.update(hPage);
+                dirtyPageList.add(hPage);
+                break;
+            }
+            // the map was stale: correct it, and give up the lock on the full
+            // page unless this transaction had already locked or changed it
+            freeSpaceMap.update(hPage);
+            if (!lockedBefore && hPage.isDirty() == null) {
+                bufferPool.unsafeReleasePage(tid, hPageId);
             }
-            hPage.insertTuple(t);
-            hPage.markDirty(true, tid);
-            dirtyPageList.add(hPage);
-            break;
         }
         // That means all pages are full, we should create a new page
         if (dirtyPageList.size() == 0) {
@@ -194,14 +275,41 @@ public class HeapFile implements DbFile {
             // 所以在这里，insertTuple只负责把数据写入内存，持久化的事交给BufferPool。
             // 如果一定要在这里持久化，那么顺序依然不能颠倒，先在操作系统内存中插入tuple然后写入磁盘，
             // 如果先写入磁盘再插入tuple则更新没写进去磁盘。
-            HeapPage    hPage       = (HeapPage) Database.getBufferPool().getPage(tid, hPageId, Permissions.READ_WRITE);
+            HeapPage    hPage       = (HeapPage) bufferPool.getPage(tid, hPageId, Permissions.READ_WRITE);
             hPage.insertTuple(t);
             hPage.markDirty(true, tid);
+            freeSpaceMap.update(hPage);
             dirtyPageList.add(hPage);
         }
         return dirtyPageList;
     }
 
+    /**
+     * Fills in the free-space map for the pages it has not seen yet from
+     * their headers on disk, read straight from the file without the buffer
+     * pool or any lock. Done once, on the first insert, so that files that
+     * are only read never pay for it.
+     */
+    private synchronized void buildFreeSpaceMap() throws IOException {
+        if (freeSpaceMap.isBuilt()) {
+            return;
+        }
+        int     pageSize    = BufferPool.getPageSize();
+        int     numSlots    = HeapPage.numSlots(td);
+        byte[]  header      = new byte[(numSlots + 7) >>> 3];
+        for (int pgNo = 0, n = numPages(); pgNo < n; pgNo++) {
+            if (channel.read((long) pgNo * pageSize, header) == -1) {
+                break;
+            }
+            int usedSlots = 0;
+            for (byte b : header) {
+                usedSlots += Integer.bitCount(b & 0xff);
+            }
+            freeSpaceMap.updateIfUnknown(pgNo, numSlots - usedSlots, numSlots);
+        }
+        freeSpaceMap.setBuilt();
+    }
+
     // see DbFile.java for javadocs
     public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -222,6 +330,7 @@ public class HeapFile implements DbFile {
                     "The tuple cannot be deleted. The tuple has NOT reside in this page.");
         }
         hPage.deleteTuple(t);
+        freeSpaceMap.update(hPage);
         dirtyPageList.add(hPage);
 
         return dirtyPageList;
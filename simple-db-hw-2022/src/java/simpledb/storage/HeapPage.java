@@ -3,15 +3,27 @@ package simpledb.storage;
 import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.TupleBatch;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from and decodes tuples lazily: a Tuple
+ * is created for a slot only when it is iterated over, and it reads each field
+ * from the page bytes (at header + slot * tuple size + field offset) only when
+ * that field is asked for. A filter on one column of a wide table thus decodes
+ * one field per tuple. The page bytes are never written to; inserted and
+ * modified tuples live in tuples[], and getPageData copies the page bytes and
+ * re-serializes only those slots.
  *
  * @see HeapFile
  * @see BufferPool
@@ -22,10 +34,17 @@ public class HeapPage implements Page {
     private final TupleDesc         td;
     private final int               numSlots;
     private final byte[]            header;
+    // slot -> tuple handed out or inserted; null for empty slots and for used
+    // slots that have not been decoded yet
     private final Tuple[]           tuples;
+    // the page bytes that undecoded slots are read from; never modified
+    private ByteBuffer              data;
 
     private byte[]                  oldData;
-    private final Byte              oldDataLock = (byte) 0;
+    // the (possibly memory-mapped) buffer this page was decoded from, standing in
+    // for oldData until the page is first modified; see detachBeforeImage()
+    private ByteBuffer              beforeImageData;
+    private final Object            oldDataLock = new Object();
 
     private volatile boolean        dirty = false;
     private volatile TransactionId  dirtier;
@@ -48,30 +67,40 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+        setBeforeImage();
+    }
+
+    /**
+     * Create a HeapPage directly over a buffer holding the page bytes, e.g. a
+     * slice of a memory-mapped HeapFile. The buffer is decoded in place with
+     * absolute reads, so its position is left untouched and nothing is copied
+     * into an intermediate byte[].
+     * <p>
+     * The buffer is kept as the before image of this page, and as the source
+     * of its lazily decoded tuples, until the page is first modified (or
+     * {@link #setBeforeImage()} is called), at which point it is copied out;
+     * the caller must therefore not change the bytes under an unmodified
+     * page, which holds for pages served from the file itself.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) {
         this.pid            = id;
         this.td             = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots       = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
         this.header         = new byte[getHeaderSize()];
         for (int i = 0; i < header.length; i++) {
-            header[i] = dis.readByte();
+            header[i] = data.get(i);
         }
 
+        // the records are decoded on demand, see tupleAt()
         this.tuples         = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++) {
-                tuples[i] = readNextTuple(dis, i);
-            }
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        } finally {
-            dis.close();
-        }
+        this.data           = data;
 
-        setBeforeImage();
+        this.beforeImageData = data;
     }
 
     /**
@@ -88,6 +117,13 @@ public class HeapPage implements Page {
         // return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
 
         // 低可读性，高性能
+        return numSlots(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a HeapFile with tuples of td
+     */
+    public static int numSlots(TupleDesc td) {
         return (BufferPool.getPageSize() << 3) / ((td.getSize() << 3) + 1);
     }
 
@@ -114,9 +150,14 @@ public class HeapPage implements Page {
      */
     public HeapPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
+            byte[]      oldDataRef  = null;
+            ByteBuffer  bufferRef   = null;
             synchronized (oldDataLock) {
-                oldDataRef = oldData;
+                oldDataRef  = oldData;
+                bufferRef   = beforeImageData;
+            }
+            if (bufferRef != null) {
+                return new HeapPage(pid, bufferRef);
             }
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
@@ -129,8 +170,47 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData         = getPageData();
+            beforeImageData = null;
+            detachData(oldData);
+        }
+    }
+
+    /**
+     * Copy the page buffer this page was decoded from into a private before
+     * image. Must run before the first in-memory modification of the page.
+     */
+    private void detachBeforeImage() {
+        synchronized (oldDataLock) {
+            if (beforeImageData == null) {
+                return;
+            }
+            oldData = new byte[BufferPool.getPageSize()];
+            ByteBuffer src = beforeImageData.duplicate();
+            src.position(0);
+            src.get(oldData, 0, Math.min(oldData.length, src.remaining()));
+            beforeImageData = null;
+            detachData(oldData);
+        }
+    }
+
+    /**
+     * If the page bytes are not on the heap, i.e. a slice of a memory-mapped
+     * file that may be written under the page once it is modified, decode
+     * from copy from now on. copy must hold the same bytes for every slot
+     * that is still a view, and must never be written.
+     */
+    private void detachData(byte[] copy) {
+        if (data.hasArray()) {
+            return;
         }
+        final ByteBuffer heapData = ByteBuffer.wrap(copy);
+        for (Tuple t : tuples) {
+            if (t != null) {
+                t.rebase(data, heapData);
+            }
+        }
+        data = heapData;
     }
 
     /**
@@ -142,37 +222,61 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in slotId, creating a lazily decoded view of the page
+     * bytes if it has not been handed out before. Returns null if the slot is
+     * empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    private Tuple tupleAt(int slotId) {
         if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(slotId));
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+        }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    /**
+     * Appends the tuples in slots fromSlot, fromSlot + 1, ... to batch until
+     * the batch is full, decoding the columns straight from the page bytes
+     * without creating Tuple or Field objects.
+     *
+     * @return the slot to continue from, or the number of slots if the page
+     *         has been read to the end
+     */
+    public int fillBatch(TupleBatch batch, int fromSlot) {
+        int slot = fromSlot;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(slot)) {
+                continue;
+            }
+            final int   offset  = slotOffset(slot);
+            final Tuple t       = tuples[slot];
+            if (t != null && !t.isViewOf(data, offset)) {
+                batch.add(t);
+                continue;
+            }
+            final int row = batch.addRow(new RecordId(pid, slot));
+            for (int col = 0; col < td.numFields(); col++) {
+                final int fieldOffset = offset + td.getFieldOffset(col);
+                if (td.getFieldType(col) == Type.INT_TYPE) {
+                    batch.setInt(row, col, data.getInt(fieldOffset));
+                } else {
+                    batch.setString(row, col, ((StringField) Type.STRING_TYPE.parse(data, fieldOffset)).getValue());
+                }
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
+        return slot;
+    }
 
-        return t;
+    /**
+     * @return the offset of the bytes of slotId within the page
+     */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
     }
 
     /**
@@ -187,64 +291,51 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        final int   len         = BufferPool.getPageSize();
+        final int   tupleSize   = td.getSize();
+        final byte[] page       = new byte[len];
 
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
+        // start from the bytes the page was read from ...
+        final ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.get(page, 0, Math.min(len, src.remaining()));
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        // ... with the current header ...
+        System.arraycopy(header, 0, page, 0, header.length);
 
-                }
+        // ... and re-serialize only the slots that changed
+        ByteArrayOutputStream baos = null;
+        for (int i = 0; i < tuples.length; i++) {
+            final int offset = slotOffset(i);
+            if (!isSlotUsed(i)) {
+                Arrays.fill(page, offset, offset + tupleSize, (byte) 0);
                 continue;
             }
-
-            // non-empty slot
+            final Tuple t = tuples[i];
+            if (t == null || t.isViewOf(data, offset)) {
+                continue;
+            }
+            if (baos == null) {
+                baos = new ByteArrayOutputStream(tupleSize);
+            }
+            baos.reset();
+            DataOutputStream dos = new DataOutputStream(baos);
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-
+                    t.getField(j).serialize(dos);
                 } catch (IOException e) {
+                    // this really shouldn't happen
                     e.printStackTrace();
                 }
             }
+            System.arraycopy(baos.toByteArray(), 0, page, offset, tupleSize);
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        final int end = header.length + tupleSize * tuples.length;
+        Arrays.fill(page, end, len, (byte) 0);
 
-        return baos.toByteArray();
+        return page;
     }
 
     /**
@@ -283,6 +374,7 @@ public class HeapPage implements Page {
         if (!isSlotUsed(slotId) || slotId < 0 || slotId >= numSlots) {
             throw new DbException("The tuple slot is already empty.");
         }
+        detachBeforeImage();
         markSlotUsed(slotId, false);
         tuples[slotId] = null;
     }
@@ -319,6 +411,7 @@ public class HeapPage implements Page {
                 if (isSlotUsed(slotId)) {
                     continue;
                 }
+                detachBeforeImage();
                 t.setRecordId(new RecordId(pid, slotId));
                 tuples[slotId] = t;
                 markSlotUsed(slotId, true);
@@ -347,6 +440,13 @@ public class HeapPage implements Page {
         return dirtier;
     }
 
+    /**
+     * Returns the number of tuple slots on this page, used or not.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Returns the number of unused (i.e., empty) slots on this page.
      */
@@ -427,7 +527,7 @@ public class HeapPage implements Page {
                 if (!hasNext()) {
                     throw new NoSuchElementException();
                 }
-                return tuples[++idx];
+                return tupleAt(++idx);
             }
             @Override
             public void remove() {
@@ -10,7 +10,11 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -96,6 +100,19 @@ public class LogFile {
     //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
+    // log sequence numbers: records appended so far / records known to be on
+    // disk. Unlike file offsets they survive truncation. Written under this,
+    // read without it (the BufferPool reads them holding page latches)
+    private volatile long appendedLsn = 0;
+    private volatile long durableLsn = 0;
+    private long forceCount = 0; // protected by this
+
+    // group commit: committers wait on groupCommitLock while one of them, the
+    // leader, forces the log for all of them
+    private final Object groupCommitLock = new Object();
+    private boolean groupForceInProgress = false; // protected by groupCommitLock
+    private volatile long groupCommitWindowMicros = 0;
+
     final Map<Long, Long> tidToFirstLogRecord = new HashMap<>();
 
     /**
@@ -131,6 +148,7 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        appendedLsn++;
         if (recoveryUndecided) {
             recoveryUndecided = false;
             raf.seek(0);
@@ -182,17 +200,115 @@ public class LogFile {
      *
      * @param tid The committing transaction.
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long commitLsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            raf.writeInt(COMMIT_RECORD);
+            raf.writeLong(tid.getId());
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            commitLsn = appendedLsn;
+            tidToFirstLogRecord.remove(tid.getId());
+        }
+        // outside the monitor, so that other transactions can append their
+        // COMMIT records and join the same force
+        groupForce(commitLsn);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Sets how long the leader of a group commit waits for more committers
+     * before it forces the log. 0 (the default) forces right away; commits
+     * arriving during a force still share the next one.
+     *
+     * @param micros the wait window in microseconds
+     */
+    public void setGroupCommitWindowMicros(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("negative group commit window: " + micros);
+        }
+        this.groupCommitWindowMicros = micros;
+    }
+
+    public long getGroupCommitWindowMicros() {
+        return groupCommitWindowMicros;
+    }
+
+    /**
+     * @return the number of times the log was actually forced to disk
+     */
+    public synchronized long getForceCount() {
+        return forceCount;
+    }
+
+    /**
+     * Group commit: returns once the log is durable up to lsn. The first
+     * waiter becomes the leader: it waits for the commit window, then forces
+     * everything appended so far with a single fsync on behalf of every
+     * committer queued meanwhile, who just wait for it.
+     */
+    private void groupForce(long lsn) throws IOException {
+        synchronized (groupCommitLock) {
+            while (durableLsn < lsn && groupForceInProgress) {
+                try {
+                    groupCommitLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for group commit", e);
+                }
+            }
+            if (durableLsn >= lsn) {
+                return;     // a previous leader's force covered us
+            }
+            groupForceInProgress = true;
+        }
+
+        try {
+            long window = groupCommitWindowMicros;
+            if (window > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(window));
+            }
+            forceBatch();
+        } finally {
+            synchronized (groupCommitLock) {
+                groupForceInProgress = false;
+                groupCommitLock.notifyAll();
+            }
+        }
+    }
+
+    // fsync without holding this, so appends can go on during the force
+    private void forceBatch() throws IOException {
+        long target;
+        FileChannel channel;
+        synchronized (this) {
+            target = appendedLsn;
+            if (durableLsn >= target) {
+                return;
+            }
+            channel = raf.getChannel();
+        }
+        try {
+            channel.force(true);
+        } catch (ClosedChannelException e) {
+            // the log was truncated into a new file meanwhile
+            force();
+            return;
+        }
+        synchronized (this) {
+            if (raf.getChannel() != channel) {
+                // truncated after the fsync: the records now live in a new file
+                force();
+                return;
+            }
+            forceCount++;
+            if (target > durableLsn) {
+                durableLsn = target;
+            }
+        }
     }
 
     /**
@@ -690,7 +806,27 @@ public class LogFile {
     }
 
     public synchronized void force() throws IOException {
+        if (durableLsn == appendedLsn) {
+            return;     // nothing appended since the last force
+        }
+        long lsn = appendedLsn;
         raf.getChannel().force(true);
+        forceCount++;
+        durableLsn = lsn;
+    }
+
+    /**
+     * @return the LSN of the last record appended to the log
+     */
+    long getAppendedLsn() {
+        return appendedLsn;
+    }
+
+    /**
+     * @return the LSN up to which the log has been forced to disk
+     */
+    long getDurableLsn() {
+        return durableLsn;
     }
 
 }
@@ -0,0 +1,46 @@
+package simpledb.storage;
+
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Plain least-recently-used replacement. Every hit moves the page to the
+ * most-recently-used end, so a single large scan flushes the whole pool;
+ * use {@link TwoQueueEvictionPolicy} where that matters. Every hit also
+ * takes this policy's monitor, which serializes concurrent readers of the
+ * pool; {@link ClockEvictionPolicy} does not.
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+    // access-ordered: iteration starts at the least recently used page
+    private final LinkedHashMap<PageId, Boolean> lruOrder;
+
+    public LruEvictionPolicy() {
+        this.lruOrder = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public synchronized void recordInsert(PageId pid) {
+        lruOrder.put(pid, Boolean.TRUE);
+    }
+
+    @Override
+    public synchronized void recordAccess(PageId pid) {
+        lruOrder.get(pid);
+    }
+
+    @Override
+    public synchronized void recordRemove(PageId pid) {
+        lruOrder.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Predicate<PageId> canEvict) {
+        for (PageId pid : lruOrder.keySet()) {
+            if (canEvict.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
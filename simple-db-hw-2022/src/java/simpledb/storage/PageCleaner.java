@@ -0,0 +1,116 @@
+package simpledb.storage;
+
+/**
+ * Background writer of a {@link BufferPool}.
+ * <p>
+ * While the cleaner runs, committing transactions only log their dirty pages
+ * and leave writing them to this thread. The cleaner keeps the fraction of
+ * frames holding committed-but-unwritten pages (the dirty ratio) between two
+ * watermarks: once the ratio reaches the high watermark it is woken up and
+ * writes pages back, in page-number order, until the ratio is down to the low
+ * watermark. While idle it trickles pages out whenever the ratio is above the
+ * low watermark, so eviction keeps finding clean victims.
+ */
+class PageCleaner implements Runnable {
+
+    /** how long the cleaner sleeps between two trickle passes */
+    static final long               IDLE_INTERVAL_MS = 100;
+
+    private final BufferPool        bufferPool;
+    private final double            lowWatermark;
+    private final double            highWatermark;
+    private final Thread            thread;
+    private final Object            signal;
+
+    private volatile boolean        running;
+    private boolean                 wakeUpRequested;    // guarded by signal
+
+    /**
+     * @param bufferPool    the buffer pool to clean
+     * @param lowWatermark  the dirty ratio a cleaning pass stops at
+     * @param highWatermark the dirty ratio that triggers a cleaning pass
+     */
+    PageCleaner(BufferPool bufferPool, double lowWatermark, double highWatermark) {
+        if (lowWatermark < 0 || highWatermark > 1 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("watermarks must satisfy 0 <= low < high <= 1, got "
+                    + lowWatermark + " and " + highWatermark);
+        }
+        this.bufferPool     = bufferPool;
+        this.lowWatermark   = lowWatermark;
+        this.highWatermark  = highWatermark;
+        this.signal         = new Object();
+        this.thread         = new Thread(this, "simpledb-page-cleaner");
+        this.thread.setDaemon(true);
+    }
+
+    double getLowWatermark() {
+        return lowWatermark;
+    }
+
+    double getHighWatermark() {
+        return highWatermark;
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops the cleaner and waits for the pass in progress, if any. Pages
+     * that are still waiting for write-back stay in the buffer pool.
+     */
+    void shutdown() {
+        running = false;
+        wakeUp();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called after pages were handed over; starts a pass if the dirty ratio
+     * reached the high watermark.
+     */
+    void pagesQueued() {
+        if (bufferPool.getDirtyRatio() >= highWatermark) {
+            wakeUp();
+        }
+    }
+
+    private void wakeUp() {
+        synchronized (signal) {
+            wakeUpRequested = true;
+            signal.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            synchronized (signal) {
+                if (!wakeUpRequested) {
+                    try {
+                        signal.wait(IDLE_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                wakeUpRequested = false;
+            }
+            if (!running) {
+                return;
+            }
+            if (bufferPool.getDirtyRatio() > lowWatermark) {
+                try {
+                    bufferPool.writeBackPages(lowWatermark);
+                } catch (Exception e) {
+                    // keep the thread alive, the pages stay queued and are retried
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntSupplier;
+
+/**
+ * PageFileChannel is a long-lived, thread-safe handle on the file backing a
+ * DbFile. Pages are read and written with positional I/O on a single
+ * FileChannel, so concurrent readers never share a file pointer and no
+ * open/seek/close is paid per page access.
+ * <p>
+ * The channel is opened lazily on first use and reopened transparently if it
+ * was closed underneath us (e.g. a thread interrupted during I/O closes the
+ * channel for everybody).
+ * <p>
+ * Whether a write reaches the disk immediately is governed by the global
+ * {@link SyncPolicy}; with the default policy, writes land in the OS page
+ * cache and the owner forces them with {@link #sync()} once per batch (the
+ * BufferPool does so once per table at commit time).
+ * <p>
+ * For read-mostly files the channel can also hand out read-only views of
+ * memory-mapped regions ({@link #map}), letting the OS page cache serve page
+ * reads without copying them into the Java heap.
+ * <p>
+ * Every write bumps a write version. Read-ahead, which reads pages without
+ * holding their locks, uses it to make sure the pages it read are still what
+ * is on disk when it caches them ({@link #installIfUnchanged}).
+ *
+ * @see HeapFile
+ * @see simpledb.index.BTreeFile
+ */
+public class PageFileChannel {
+
+    /**
+     * When page writes are forced to stable storage.
+     */
+    public enum SyncPolicy {
+        /** force after every single page write (the old "rws" behaviour) */
+        EVERY_WRITE,
+        /** force only when {@link #sync()} is called, e.g. once per commit */
+        ON_SYNC,
+        /** never force, leave write-back entirely to the OS */
+        NEVER
+    }
+
+    private static volatile SyncPolicy  syncPolicy  = SyncPolicy.ON_SYNC;
+
+    /**
+     * Files are memory-mapped in independent regions of this many bytes, so
+     * files larger than 2GB can be mapped and a growing file only needs its
+     * last region remapped.
+     */
+    public static final long            MAP_REGION_SIZE = 64L << 20;
+
+    private final File                  file;
+    private volatile FileChannel        channel;
+    // set by every write, cleared by sync(), so that syncing a clean file is free
+    private volatile boolean            unsynced;
+    // region number -> read-only mapping of [region * MAP_REGION_SIZE, +capacity)
+    private final ConcurrentHashMap<Long, MappedByteBuffer> regions;
+    // bumped by every write, see installIfUnchanged
+    private final AtomicLong            writeVersion;
+    // writes hold it shared, installIfUnchanged holds it exclusively
+    private final ReentrantReadWriteLock writeGuard;
+
+    public PageFileChannel(File file) {
+        this.file           = file;
+        this.unsynced       = false;
+        this.regions        = new ConcurrentHashMap<>();
+        this.writeVersion   = new AtomicLong();
+        this.writeGuard     = new ReentrantReadWriteLock();
+    }
+
+    public static SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public static void setSyncPolicy(SyncPolicy policy) {
+        PageFileChannel.syncPolicy = policy;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel fc = channel;
+        if (fc != null && fc.isOpen()) {
+            return fc;
+        }
+        synchronized (this) {
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Reads up to dst.length bytes starting at the given file offset.
+     *
+     * @return the number of bytes read, or -1 if position is at or past end of file
+     */
+    public int read(long position, byte[] dst) throws IOException {
+        return read(position, ByteBuffer.wrap(dst));
+    }
+
+    /**
+     * Reads into the remaining space of dst starting at the given file offset.
+     *
+     * @return the number of bytes read, or -1 if position is at or past end of file
+     */
+    public int read(long position, ByteBuffer dst) throws IOException {
+        final int start = dst.position();
+        try {
+            return readFully(channel(), position, dst);
+        } catch (ClosedChannelException e) {
+            // someone closed (or interrupted) the shared channel, reopen once and retry
+            dst.position(start);
+            return readFully(channel(), position, dst);
+        }
+    }
+
+    private static int readFully(FileChannel fc, long position, ByteBuffer dst) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = fc.read(dst, position + total);
+            if (n < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Writes all of src at the given file offset, extending the file if needed.
+     */
+    public void write(long position, byte[] src) throws IOException {
+        writeGuard.readLock().lock();
+        try {
+            try {
+                writeFully(channel(), position, src);
+            } catch (ClosedChannelException e) {
+                writeFully(channel(), position, src);
+            }
+            writeVersion.incrementAndGet();
+        } finally {
+            writeGuard.readLock().unlock();
+        }
+        if (syncPolicy == SyncPolicy.EVERY_WRITE) {
+            channel().force(false);
+        } else {
+            unsynced = true;
+        }
+    }
+
+    private static void writeFully(FileChannel fc, long position, byte[] src) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(src);
+        while (buf.hasRemaining()) {
+            fc.write(buf, position + buf.position());
+        }
+    }
+
+    /**
+     * Appends src to the end of the file and returns the offset it was written at.
+     * Callers that derive page numbers from the file length must serialize appends.
+     */
+    public synchronized long append(byte[] src) throws IOException {
+        long position = size();
+        write(position, src);
+        return position;
+    }
+
+    /**
+     * @return the current write version; take it before reading pages that
+     *         are later handed to {@link #installIfUnchanged}
+     */
+    public long getWriteVersion() {
+        return writeVersion.get();
+    }
+
+    /**
+     * Runs install with writes to the file held off, provided nothing was
+     * written since {@link #getWriteVersion()} returned version, i.e. the
+     * pages read in between are still the pages on disk. Never blocks: if a
+     * write is in progress, install is skipped. install itself must not
+     * block or write to this file.
+     *
+     * @return the result of install, or 0 if it did not run
+     */
+    public int installIfUnchanged(long version, IntSupplier install) {
+        if (!writeGuard.writeLock().tryLock()) {
+            return 0;
+        }
+        try {
+            if (writeVersion.get() != version) {
+                return 0;
+            }
+            return install.getAsInt();
+        } finally {
+            writeGuard.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a read-only view of length bytes at the given file offset, served
+     * straight out of a memory mapping of the file. Writes made through this
+     * channel are visible through the mapping, since both go through the OS
+     * page cache.
+     *
+     * @return the mapped view, or null if the range lies past the end of the
+     *         file or straddles two mapping regions (callers fall back to read)
+     */
+    public ByteBuffer map(long position, int length) throws IOException {
+        final long region = position / MAP_REGION_SIZE;
+        if ((position + length - 1) / MAP_REGION_SIZE != region) {
+            return null;
+        }
+        final int relative = (int) (position - region * MAP_REGION_SIZE);
+
+        MappedByteBuffer mapped = regions.get(region);
+        if (mapped == null || mapped.capacity() < relative + length) {
+            synchronized (this) {
+                mapped = regions.get(region);
+                if (mapped == null || mapped.capacity() < relative + length) {
+                    // map no further than the current end of file; the region is
+                    // remapped once the file has grown past it
+                    long regionStart = region * MAP_REGION_SIZE;
+                    long fileSize = size();
+                    if (position + length > fileSize) {
+                        return null;
+                    }
+                    long mapLength = Math.min(MAP_REGION_SIZE, fileSize - regionStart);
+                    mapped = channel().map(FileChannel.MapMode.READ_ONLY, regionStart, mapLength);
+                    regions.put(region, mapped);
+                }
+            }
+        }
+
+        ByteBuffer view = mapped.duplicate();
+        view.position(relative);
+        view.limit(relative + length);
+        return view.slice();
+    }
+
+    /**
+     * @return the current size of the underlying file in bytes
+     */
+    public long size() throws IOException {
+        try {
+            return channel().size();
+        } catch (ClosedChannelException e) {
+            return channel().size();
+        }
+    }
+
+    /**
+     * Forces any writes made since the last sync to stable storage, unless
+     * the sync policy is {@link SyncPolicy#NEVER}.
+     */
+    public void sync() throws IOException {
+        if (!unsynced || syncPolicy == SyncPolicy.NEVER) {
+            return;
+        }
+        unsynced = false;
+        channel().force(false);
+    }
+
+    /**
+     * Closes the underlying channel. The channel is reopened on next use.
+     */
+    public synchronized void close() {
+        // mappings stay valid after the channel is closed, they are simply dropped
+        regions.clear();
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (unsynced && syncPolicy != SyncPolicy.NEVER) {
+                channel.force(false);
+            }
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            unsynced    = false;
+            channel     = null;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The BufferPool's page table: maps the PageId of every resident page to the
+ * frame holding it.
+ * <p>
+ * The table is split into a power-of-two number of shards, each a
+ * ConcurrentHashMap, so lookups never block and structural changes only
+ * contend within one shard. The number of occupied frames is bounded by a
+ * reservation counter that is touched on misses and evictions only; the hit
+ * path is a single lock-free map read.
+ * <p>
+ * Each frame carries its own latch and pin count, which replace monitors on
+ * PageId objects (distinct PageId instances for the same page are equal but
+ * are different monitors).
+ */
+class PageTable {
+
+    /**
+     * A buffer pool slot holding one resident page.
+     */
+    static final class Frame {
+        final PageId                pid;
+        volatile Page               page;
+        // short-term latch guarding flushes and replacement of the page
+        final ReentrantLock         latch;
+        // the page must stay resident while it is pinned
+        final AtomicInteger         pinCount;
+        // committed changes of the page are not on disk yet; set and cleared under latch
+        volatile boolean            needsWriteBack;
+        // LogFile LSN of the page's last UPDATE record; the page may only be
+        // written back once the log is durable up to it
+        volatile long               pageLsn;
+
+        Frame(PageId pid, Page page) {
+            this.pid            = pid;
+            this.page           = page;
+            this.latch          = new ReentrantLock();
+            this.pinCount       = new AtomicInteger();
+            this.needsWriteBack = false;
+        }
+
+        boolean isPinned() {
+            return pinCount.get() > 0;
+        }
+    }
+
+    private static final class Shard {
+        final ConcurrentHashMap<PageId, Frame> frames;
+
+        Shard(int initialCapacity) {
+            this.frames = new ConcurrentHashMap<>(initialCapacity);
+        }
+    }
+
+    private final Shard[]       shards;
+    private final int           shardMask;
+    private final int           capacity;
+    // frames in use plus frames reserved by loads in flight
+    private final AtomicInteger occupied;
+
+    /**
+     * @param capacity the maximum number of resident pages
+     */
+    PageTable(int capacity) {
+        int shardCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+        this.shards     = new Shard[shardCount];
+        this.shardMask  = shardCount - 1;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(Math.max(16, capacity / shardCount * 2));
+        }
+        this.capacity   = capacity;
+        this.occupied   = new AtomicInteger();
+    }
+
+    private Shard shardOf(PageId pid) {
+        int h = pid.hashCode();
+        // spread the high bits, PageId hash codes tend to differ in low bits only
+        return shards[(h ^ (h >>> 16)) & shardMask];
+    }
+
+    /**
+     * @return the frame holding pid, or null if the page is not resident
+     */
+    Frame get(PageId pid) {
+        return shardOf(pid).frames.get(pid);
+    }
+
+    /**
+     * Claims a free frame for a page about to be installed.
+     *
+     * @return false if the table is full and a page must be evicted first
+     */
+    boolean tryReserve() {
+        while (true) {
+            int n = occupied.get();
+            if (n >= capacity) {
+                return false;
+            }
+            if (occupied.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back a frame claimed with {@link #tryReserve()} that was not used.
+     */
+    void cancelReservation() {
+        occupied.decrementAndGet();
+    }
+
+    /**
+     * Installs frame in a frame previously claimed with {@link #tryReserve()}.
+     *
+     * @return null on success, or the frame that is already resident for the
+     *         same page (the reservation is then still held by the caller)
+     */
+    Frame putIfAbsent(Frame frame) {
+        return shardOf(frame.pid).frames.putIfAbsent(frame.pid, frame);
+    }
+
+    /**
+     * Removes frame if it is still the resident frame of its page, releasing
+     * its slot.
+     *
+     * @return true if the frame was removed
+     */
+    boolean remove(Frame frame) {
+        if (shardOf(frame.pid).frames.remove(frame.pid, frame)) {
+            occupied.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the maximum number of resident pages
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of resident pages
+     */
+    int size() {
+        int n = 0;
+        for (Shard shard : shards) {
+            n += shard.frames.size();
+        }
+        return n;
+    }
+
+    /**
+     * @return a snapshot of the resident frames
+     */
+    List<Frame> frames() {
+        List<Frame> result = new ArrayList<>();
+        for (Shard shard : shards) {
+            result.addAll(shard.frames.values());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * A temporary HeapFile that an operator writes tuples to when its input does
+ * not fit in memory, and reads back later, e.g. a partition of a grace hash
+ * join.
+ * <p>
+ * A spill file is private to the operator that created it, so its pages are
+ * written and read directly through the HeapFile, bypassing the BufferPool
+ * and the LockManager: spilling neither takes frames away from other
+ * transactions nor takes locks. Only one page is kept in memory while
+ * writing and one while reading. The file is registered in the Catalog while
+ * it exists, since HeapPage looks its TupleDesc up there, and is removed and
+ * deleted by {@link #close()}.
+ */
+public class SpillFile {
+
+    private final TupleDesc     td;
+    private final File          file;
+    private final HeapFile      heapFile;
+    private HeapPage            tail;           // page being filled, not written yet
+    private int                 numPages;       // pages written
+    private long                numTuples;
+    private boolean             closed;
+
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td         = td;
+        this.file       = File.createTempFile("simpledb-spill", ".dat");
+        this.file.deleteOnExit();
+        this.heapFile   = new HeapFile(file, td);
+        Database.getCatalog().addTable(heapFile, "spill-" + UUID.randomUUID());
+        this.numPages   = 0;
+        this.numTuples  = 0;
+    }
+
+    /**
+     * @return the schema of the tuples in this file
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples written so far
+     */
+    public long size() {
+        return numTuples;
+    }
+
+    /**
+     * @return the number of bytes of tuple data written so far
+     */
+    public long sizeInBytes() {
+        return numTuples * td.getSize();
+    }
+
+    /**
+     * Appends a copy of t; t itself is left untouched (its RecordId in
+     * particular).
+     */
+    public void add(Tuple t) throws IOException {
+        if (tail == null) {
+            tail = new HeapPage(new HeapPageId(heapFile.getId(), numPages), HeapPage.createEmptyPageData());
+        }
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            copy.setField(i, t.getField(i));
+        }
+        try {
+            tail.insertTuple(copy);
+        } catch (DbException e) {
+            throw new IOException("spill file schema mismatch: " + e.getMessage());
+        }
+        numTuples++;
+        if (tail.getNumUnusedSlots() == 0) {
+            flushTail();
+        }
+    }
+
+    private void flushTail() throws IOException {
+        if (tail == null) {
+            return;
+        }
+        heapFile.writePage(tail);
+        numPages++;
+        tail = null;
+    }
+
+    /**
+     * Finishes writing and returns an iterator over the tuples written, in
+     * the order they were added. No tuple may be added afterwards.
+     */
+    public Iterator<Tuple> iterator() throws IOException {
+        flushTail();
+        if (numPages == 0) {
+            return Collections.emptyIterator();
+        }
+        return new Iterator<Tuple>() {
+            private int             pgNo        = 0;
+            private Iterator<Tuple> pageIter    = readPage(0);
+
+            private Iterator<Tuple> readPage(int pgNo) {
+                return ((HeapPage) heapFile.readPage(new HeapPageId(heapFile.getId(), pgNo))).iterator();
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (!pageIter.hasNext()) {
+                    if (++pgNo >= numPages) {
+                        return false;
+                    }
+                    pageIter = readPage(pgNo);
+                }
+                return true;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return pageIter.next();
+            }
+        };
+    }
+
+    /**
+     * Removes the file from the catalog and deletes it.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        tail = null;
+        Database.getCatalog().removeTable(heapFile.getId());
+        file.delete();
+    }
+}
@@ -2,7 +2,10 @@ package simpledb.storage;
 
 import simpledb.util.IteratorWrapper;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -28,6 +31,11 @@ public class Tuple implements Serializable {
     private RecordId    rid;
     private Field[]     fieldArr;
 
+    // page bytes that fields not decoded yet are read from, or null once every
+    // field is in fieldArr; see Tuple(TupleDesc, ByteBuffer, int)
+    private transient volatile ByteBuffer   source;
+    private transient int                   sourceOffset;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -40,6 +48,19 @@ public class Tuple implements Serializable {
         this.fieldArr   = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple that is a view of the serialized tuple at
+     * source[offset], as laid out by td. Fields are decoded one at a time
+     * when first read; the first {@link #setField} decodes the rest and
+     * detaches the tuple from source. The bytes under the view must not
+     * change, which HeapPage guarantees for the buffers it hands out.
+     */
+    Tuple(TupleDesc td, ByteBuffer source, int offset) {
+        this(td);
+        this.source         = source;
+        this.sourceOffset   = offset;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -75,6 +96,10 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // DONE
+        if (source != null) {
+            decodeAll();
+            source = null;
+        }
         fieldArr[i] = f;
     }
 
@@ -84,7 +109,63 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // DONE
-        return fieldArr[i];
+        Field f = fieldArr[i];
+        final ByteBuffer src = source;
+        if (f == null && src != null) {
+            f = td.getFieldType(i).parse(src, sourceOffset + td.getFieldOffset(i));
+            fieldArr[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Returns the value of an INT_TYPE field without creating a Field for it:
+     * a field not decoded yet is read straight from the page bytes.
+     *
+     * @param i index of an INT_TYPE field that has been set
+     */
+    public int getInt(int i) {
+        final Field f = fieldArr[i];
+        if (f != null) {
+            return ((IntField) f).getValue();
+        }
+        final ByteBuffer src = source;
+        if (src != null) {
+            return src.getInt(sourceOffset + td.getFieldOffset(i));
+        }
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * Decodes every field not read yet.
+     */
+    private void decodeAll() {
+        for (int i = 0; i < fieldArr.length; i++) {
+            getField(i);
+        }
+    }
+
+    /**
+     * @return true if this tuple is an unmodified view of the bytes at
+     *         buf[offset]
+     */
+    boolean isViewOf(ByteBuffer buf, int offset) {
+        return source == buf && sourceOffset == offset;
+    }
+
+    /**
+     * Moves a view from one buffer to another holding the same bytes, e.g.
+     * when a page copies the buffer it was read from.
+     */
+    void rebase(ByteBuffer from, ByteBuffer to) {
+        if (source == from) {
+            source = to;
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
     }
 
     /**
@@ -99,10 +180,10 @@ public class Tuple implements Serializable {
         // Done
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < fieldArr.length - 1; i++) {
-            sb.append(fieldArr[i].toString());
+            sb.append(getField(i).toString());
             sb.append('\t');
         }
-        sb.append(fieldArr[fieldArr.length - 1].toString());
+        sb.append(getField(fieldArr.length - 1).toString());
         sb.append('\n');
         return sb.toString();
     }
@@ -131,6 +212,7 @@ public class Tuple implements Serializable {
 //                fieldArr[idx] = null;
 //            }
 //        };
+        decodeAll();
         return new IteratorWrapper<Field>(fieldArr);
     }
 
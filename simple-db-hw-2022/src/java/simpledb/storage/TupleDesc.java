@@ -62,6 +62,8 @@ public class TupleDesc implements Serializable {
 
     private final TDItem[]      fieldDescArr;
     private final int           byteSize;
+    // byte offset of each field within a serialized tuple
+    private final int[]         fieldOffsets;
 
     /**
      * @return An iterator which iterates over all the field TDItems
@@ -104,9 +106,11 @@ public class TupleDesc implements Serializable {
         // Done
         // assert typeAr.length == fieldAr.length;
         fieldDescArr    = new TDItem[typeAr.length];
+        fieldOffsets    = new int[typeAr.length];
         int size = 0;
         for (int i = 0; i < typeAr.length; i++) {
             fieldDescArr[i] = new TDItem(typeAr[i], fieldAr[i]);
+            fieldOffsets[i] = size;
             size += typeAr[i].getLen();
         }
         byteSize        = size;
@@ -129,6 +133,11 @@ public class TupleDesc implements Serializable {
         System.arraycopy(td1.fieldDescArr, 0, fieldDescArr, 0, td1.numFields());
         System.arraycopy(td2.fieldDescArr, 0, fieldDescArr, td1.numFields(), td2.numFields());
         byteSize = td1.byteSize + td2.byteSize;
+        fieldOffsets = new int[fieldDescArr.length];
+        System.arraycopy(td1.fieldOffsets, 0, fieldOffsets, 0, td1.numFields());
+        for (int i = 0; i < td2.numFields(); i++) {
+            fieldOffsets[td1.numFields() + i] = td1.byteSize + td2.fieldOffsets[i];
+        }
     }
 
     /**
@@ -170,6 +179,14 @@ public class TupleDesc implements Serializable {
         return fieldDescArr[i].fieldType;
     }
 
+    /**
+     * @param i The index of the field. It must be a valid index.
+     * @return the byte offset of the ith field within a serialized tuple
+     */
+    public int getFieldOffset(int i) {
+        return fieldOffsets[i];
+    }
+
     /**
      * Find the index of the field with a given name.
      *
@@ -0,0 +1,102 @@
+package simpledb.storage;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * Scan-resistant 2Q replacement (Johnson &amp; Shasha, "2Q: A Low Overhead High
+ * Performance Buffer Management Replacement Algorithm", VLDB '94).
+ * <p>
+ * A page referenced for the first time enters A1in, a FIFO that pages leave
+ * without ever being promoted, however often they are hit while in it. The
+ * ids of pages pushed out of A1in are remembered in the ghost queue A1out;
+ * only a page that comes back while its id is still in A1out is admitted to
+ * Am, the LRU list holding the hot working set. A sequential scan therefore
+ * cycles through A1in and leaves Am alone.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+    /** fraction of the pool that A1in may use before it is the preferred victim source */
+    public static final double  A1IN_RATIO  = 0.25;
+    /** size of the ghost queue A1out, as a fraction of the pool */
+    public static final double  A1OUT_RATIO = 0.5;
+
+    private final int                               a1inTarget;
+    private final int                               a1outCapacity;
+    // resident, first-timers, FIFO order
+    private final LinkedHashSet<PageId>             a1in;
+    // non-resident ghosts, FIFO order
+    private final LinkedHashSet<PageId>             a1out;
+    // resident, hot, LRU order (access-ordered)
+    private final LinkedHashMap<PageId, Boolean>    am;
+
+    /**
+     * @param capacity the number of pages in the buffer pool
+     */
+    public TwoQueueEvictionPolicy(int capacity) {
+        this.a1inTarget     = Math.max(1, (int) (capacity * A1IN_RATIO));
+        this.a1outCapacity  = Math.max(1, (int) (capacity * A1OUT_RATIO));
+        this.a1in           = new LinkedHashSet<>();
+        this.a1out          = new LinkedHashSet<>();
+        this.am             = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public synchronized void recordInsert(PageId pid) {
+        if (a1in.contains(pid) || am.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        if (a1out.remove(pid)) {
+            // re-referenced soon after leaving A1in: this page is hot
+            am.put(pid, Boolean.TRUE);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized void recordAccess(PageId pid) {
+        // hits in A1in are deliberately ignored (correlated references)
+        am.get(pid);
+    }
+
+    @Override
+    public synchronized void recordRemove(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > a1outCapacity) {
+                a1out.remove(a1out.iterator().next());
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Predicate<PageId> canEvict) {
+        PageId victim;
+        if (a1in.size() > a1inTarget || am.isEmpty()) {
+            victim = firstEvictable(a1in, canEvict);
+            if (victim == null) {
+                victim = firstEvictable(am.keySet(), canEvict);
+            }
+        } else {
+            victim = firstEvictable(am.keySet(), canEvict);
+            if (victim == null) {
+                victim = firstEvictable(a1in, canEvict);
+            }
+        }
+        return victim;
+    }
+
+    private static PageId firstEvictable(Iterable<PageId> queue, Predicate<PageId> canEvict) {
+        for (PageId pid : queue) {
+            if (canEvict.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -58,13 +58,8 @@ public class Transaction {
                 Database.getLogFile().logAbort(tid); //does rollback too
             }
 
-            // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-
-            // write commit log record
-            if (!abort) {
-                Database.getLogFile().logCommit(tid);
-            }
+            // flush pages if needed, write the commit log record, then release locks
+            Database.getBufferPool().transactionComplete(tid, !abort, true);
 
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
@@ -7,35 +7,63 @@ import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 // 仍可以使用消息队列来优化
 public class HeapFileIterator implements DbFileIterator {
     private final TransactionId transactionId;
+    private final HeapFile      heapFile;       // null if only the table id is known
     private final int           tableId;
-    private final int           pageNum;
+    private final int           firstPage;
+    private final int           pageNum;        // one past the last page scanned
 
     private int                 curPageId;
     private PageDataCachePool   pageDataCachePool;
+    // 当前批次缓存的页都被pin住，防止evict后page.iterator()读到过期的Page对象
+    private final List<BufferPool.Pin> pins;
+    // 顺序扫描时后台预读后面的页
+    private SequentialPrefetcher prefetcher;
 
     private boolean             isOpenFlag;
 
     public HeapFileIterator(final TransactionId transactionId, final HeapFile heapFile) {
-        this(transactionId, heapFile.getId(), heapFile.numPages());
+        this(transactionId, heapFile, heapFile.getId(), 0, heapFile.numPages());
     }
 
     public HeapFileIterator(final TransactionId transactionId, final int tableId, final int pageNum) {
+        this(transactionId, null, tableId, 0, pageNum);
+    }
+
+    /**
+     * Iterates over the pages [fromPage, toPage) of heapFile only, e.g. one
+     * partition of a parallel scan.
+     */
+    public HeapFileIterator(final TransactionId transactionId, final HeapFile heapFile,
+                            final int fromPage, final int toPage) {
+        this(transactionId, heapFile, heapFile.getId(), fromPage, Math.min(toPage, heapFile.numPages()));
+    }
+
+    private HeapFileIterator(final TransactionId transactionId, final HeapFile heapFile,
+                             final int tableId, final int firstPage, final int pageNum) {
         this.transactionId  = transactionId;
+        this.heapFile       = heapFile;
         this.tableId        = tableId;
+        this.firstPage      = firstPage;
         this.pageNum        = pageNum;
 
+        this.pins           = new ArrayList<>();
         this.isOpenFlag     = false;
     }
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        this.pageDataCachePool  = new PageDataCachePool(this.pageNum, 0.2);
-        this.curPageId          = 0;
+        this.pageDataCachePool  = new PageDataCachePool(this.pageNum - this.firstPage, 0.2);
+        this.curPageId          = this.firstPage;
+        if (heapFile != null && SequentialPrefetcher.isUseful(heapFile)) {
+            this.prefetcher     = new SequentialPrefetcher(heapFile);
+        }
         cacheFilePages();
 
         this.isOpenFlag         = true;
@@ -44,12 +72,17 @@ public class HeapFileIterator implements DbFileIterator {
     // Cache pages as many as have
     public void cacheFilePages() throws DbException, TransactionAbortedException {
         pageDataCachePool.close();
-
+        // the previous batch has been read completely
+        unpinPages();
 
         for (; pageDataCachePool.hasFreeCache() && curPageId < pageNum; curPageId++) {
             final HeapPageId pageId = new HeapPageId(tableId, curPageId);
-            final HeapPage page = (HeapPage) Database.getBufferPool().getPage(transactionId, pageId, Permissions.READ_ONLY);
-            this.pageDataCachePool.offerPageData(page.iterator());
+            if (prefetcher != null) {
+                prefetcher.access(curPageId);
+            }
+            final BufferPool.Pin pin = Database.getBufferPool().pinPage(transactionId, pageId, Permissions.READ_ONLY);
+            this.pins.add(pin);
+            this.pageDataCachePool.offerPageData(((HeapPage) pin.getPage()).iterator());
         }
 
         this.pageDataCachePool.open();
@@ -64,7 +97,7 @@ public class HeapFileIterator implements DbFileIterator {
         // Cache another batch of pages
         while (!pageDataCachePool.hasNext()) {
             cacheFilePages();
-            if (curPageId == pageNum) {
+            if (curPageId >= pageNum) {
                 break;
             }
         }
@@ -97,6 +130,18 @@ public class HeapFileIterator implements DbFileIterator {
             this.pageDataCachePool.close();
             this.pageDataCachePool = null;
         }
+        if (this.prefetcher != null) {
+            this.prefetcher.close();
+            this.prefetcher = null;
+        }
+        unpinPages();
+    }
+
+    private void unpinPages() {
+        for (BufferPool.Pin pin : pins) {
+            Database.getBufferPool().unpinPage(pin);
+        }
+        pins.clear();
     }
 }
 
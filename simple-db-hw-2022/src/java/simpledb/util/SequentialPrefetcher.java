@@ -0,0 +1,155 @@
+package simpledb.util;
+
+import simpledb.common.Database;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sequential read-ahead for one scan of a HeapFile.
+ * <p>
+ * The scan reports every page it is about to read with {@link #access}. Once
+ * two consecutive pages were read, the access is taken to be sequential and
+ * the pages ahead of it are read in the background, one window at a time with
+ * a single large read ({@link HeapFile#prefetchPages}), so the scan finds them
+ * in the buffer pool instead of waiting for the disk page by page. The next
+ * window is requested when the scan is half a window away from the end of
+ * what was requested so far.
+ * <p>
+ * The window adapts to the scan: it doubles when the scan catches up with a
+ * read still in flight (read-ahead is too short to hide the disk), and halves
+ * when a page read ahead was evicted before the scan got to it (read-ahead
+ * runs too far ahead for the buffer pool). It never exceeds a quarter of the
+ * buffer pool, so read-ahead cannot push out the working set of other
+ * transactions; pools too small for a minimal window get no read-ahead.
+ */
+public class SequentialPrefetcher {
+
+    /** the first window, in pages */
+    public static final int     MIN_WINDOW  = 4;
+    /** the largest window, in pages */
+    public static final int     MAX_WINDOW  = 64;
+
+    private static volatile boolean         enabled     = true;
+
+    // read-ahead is I/O bound, a couple of threads are shared by all scans
+    private static final ExecutorService    EXECUTOR    = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "simpledb-prefetcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final HeapFile      heapFile;
+    private final int           numPages;
+    private final int           maxWindow;
+
+    private int                 window;
+    private int                 lastPgNo;       // the page accessed last
+    private int                 runLength;      // consecutive pages accessed so far
+    private int                 firstRequested; // first page requested in this run
+    private int                 frontier;       // first page not requested yet
+    private int                 inFlightStart;  // first page of the last window requested
+    private Future<?>           inFlight;
+
+    public SequentialPrefetcher(HeapFile heapFile) {
+        this.heapFile       = heapFile;
+        this.numPages       = heapFile.numPages();
+        this.maxWindow      = Math.min(MAX_WINDOW, Database.getBufferPool().getNumPages() / 4);
+        this.window         = MIN_WINDOW;
+        this.lastPgNo       = -2;
+        this.runLength      = 0;
+        this.firstRequested = Integer.MAX_VALUE;
+        this.frontier       = 0;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        SequentialPrefetcher.enabled = enabled;
+    }
+
+    /**
+     * @return whether read-ahead would do anything for a scan of heapFile
+     */
+    public static boolean isUseful(HeapFile heapFile) {
+        // read-ahead decodes pages itself, so subclasses that override
+        // readPage would no longer see every page read
+        return enabled && heapFile.getClass() == HeapFile.class && !heapFile.isMemoryMapped()
+                && heapFile.numPages() > MIN_WINDOW
+                && Database.getBufferPool().getNumPages() / 4 >= MIN_WINDOW;
+    }
+
+    /**
+     * Called by the scan before it reads page pgNo.
+     */
+    public void access(int pgNo) {
+        if (maxWindow < MIN_WINDOW) {
+            return;
+        }
+        if (pgNo == lastPgNo + 1) {
+            runLength++;
+        } else {
+            // random access: start over
+            runLength       = 1;
+            window          = MIN_WINDOW;
+            firstRequested  = Integer.MAX_VALUE;
+            frontier        = pgNo + 1;
+        }
+        lastPgNo = pgNo;
+        if (runLength < 2) {
+            return;
+        }
+
+        boolean readDone    = inFlight == null || inFlight.isDone();
+        boolean requested   = pgNo >= firstRequested && pgNo < frontier;
+        if (requested && !readDone && pgNo >= inFlightStart) {
+            // caught up with the read in flight
+            window = Math.min(maxWindow, window * 2);
+        } else if (requested
+                && !Database.getBufferPool().isResident(new HeapPageId(heapFile.getId(), pgNo))) {
+            // read ahead for nothing
+            window = Math.max(MIN_WINDOW, window / 2);
+        }
+
+        frontier = Math.max(frontier, pgNo + 1);
+        if (readDone && frontier < numPages && frontier - pgNo <= window / 2 + 1) {
+            final int start = frontier;
+            final int count = Math.min(window, numPages - start);
+            inFlightStart   = start;
+            firstRequested  = Math.min(firstRequested, start);
+            frontier        = start + count;
+            inFlight        = EXECUTOR.submit(() -> {
+                try {
+                    heapFile.prefetchPages(start, count);
+                } catch (IOException e) {
+                    // read-ahead is best effort, the scan reads the pages itself
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops read-ahead, waiting for the window in flight so that no page of
+     * this scan is cached after it ended.
+     */
+    public void close() {
+        if (inFlight == null) {
+            return;
+        }
+        try {
+            inFlight.get();
+        } catch (ExecutionException e) {
+            // the read failed, the pages were simply not cached
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        inFlight = null;
+    }
+}
@@ -12,6 +12,8 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
+import simpledb.execution.Gather;
+import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -191,6 +193,94 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for SUM_COUNT partial aggregates combined with SC_AVG
+   */
+  @Test public void sumCountThenAverage() throws Exception {
+    Aggregate partial = new Aggregate(scan1, 1, 0, Aggregator.Op.SUM_COUNT);
+    TupleDesc expected = new TupleDesc(new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE });
+    assertEquals(expected, partial.getTupleDesc());
+    partial.open();
+    OpIterator sumCount = TestUtil.createTupleList(4,
+        new int[] { 1, 12, 3, 0,
+                    3, 12, 3, 0,
+                    5, 7, 1, 0 });
+    sumCount.open();
+    TestUtil.matchAllTuples(sumCount, partial);
+
+    // two partitions of the same groups, pre-aggregated
+    IntegerAggregator combine = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SC_AVG);
+    OpIterator parts = TestUtil.createTupleList(4,
+        new int[] { 1, 8, 2, 0,
+                    3, 12, 3, 0,
+                    1, 4, 1, 0,
+                    5, 7, 1, 0 });
+    parts.open();
+    while (parts.hasNext()) {
+      combine.mergeTupleIntoGroup(parts.next());
+    }
+    OpIterator result = combine.iterator();
+    result.open();
+    avg.open();
+    TestUtil.matchAllTuples(avg, result);
+  }
+
+  /**
+   * Unit test for Aggregate over a Gather, which is computed in two phases
+   */
+  @Test public void twoPhaseAggregate() throws Exception {
+    Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+        Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    OpIterator[] grouped = { min, max, sum, avg, count };
+    for (int i = 0; i < ops.length; i++) {
+      Aggregate op = new Aggregate(split(), 1, 0, ops[i]);
+      assertEquals(new Aggregate(scan1, 1, 0, ops[i]).getTupleDesc(), op.getTupleDesc());
+      op.open();
+      grouped[i].open();
+      TestUtil.matchAllTuples(grouped[i], op);
+      op.close();
+
+      int[] all = { 2, 7, 31, 31 / 7, 7 };
+      Aggregate total = new Aggregate(split(), 1, Aggregator.NO_GROUPING, ops[i]);
+      total.open();
+      OpIterator expected = TestUtil.createTupleList(1, new int[] { all[i] });
+      expected.open();
+      TestUtil.matchAllTuples(expected, total);
+      total.rewind();
+      expected.rewind();
+      TestUtil.matchAllTuples(expected, total);
+      total.close();
+    }
+  }
+
+  /**
+   * Unit test for a two-phase AVG whose partial sums do not fit in an int
+   */
+  @Test public void twoPhaseAverageOverflow() throws Exception {
+    int big = 2000000000;
+    Aggregate op = new Aggregate(new Gather(
+        TestUtil.createTupleList(2, new int[] { 1, big, 1, big, 2, -big, 2, -big }),
+        TestUtil.createTupleList(2, new int[] { 1, big, 1, big / 2, 2, -big })),
+        1, 0, Aggregator.Op.AVG);
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(2,
+        new int[] { 1, (int) ((3L * big + big / 2) / 4),
+                    2, -big });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * @return the tuples of scan1, spread over the inputs of a Gather
+   */
+  private static OpIterator split() {
+    return new Gather(
+        TestUtil.createTupleList(2, new int[] { 1, 2, 3, 2, 5, 7 }),
+        TestUtil.createTupleList(2, new int[] { 1, 4, 3, 6 }),
+        TestUtil.createTupleList(2, new int[] { 1, 6, 3, 4 }));
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,229 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class BTreeBulkLoadTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+
+		// set the page size back to the default
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	private static BTreeFile emptyFile() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		return BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+	}
+
+	private static List<Tuple> sortedTuples(int n) {
+		List<Tuple> tuples = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			tuples.add(BTreeUtility.getBTreeTuple(i, 2));
+		}
+		return tuples;
+	}
+
+	private List<Integer> keys(BTreeFile bf) throws Exception {
+		List<Integer> keys = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			keys.add(((IntField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		return keys;
+	}
+
+	/**
+	 * Sorted tuples are packed into full leaves, with one internal page above them.
+	 */
+	@Test
+	public void loadSorted() throws Exception {
+		BTreeFile bf = emptyFile();
+		bf.bulkLoad(tid, sortedTuples(20000).iterator(), 1.0);
+
+		// 39 full leaves and one of the remaining 422 tuples, plus the root
+		int perLeaf = BTreeUtility.getNumTuplesPerPage(2);
+		assertEquals(502, perLeaf);
+		assertEquals(41, bf.numPages());
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		List<Integer> keys = keys(bf);
+		assertEquals(20000, keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			assertEquals(i, (int) keys.get(i));
+		}
+
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, rootPtr.getRootId(), Permissions.READ_ONLY);
+		assertEquals(39, root.getNumEntries());
+		assertNull(root.getHighKey());
+		BTreeLeafPage first = (BTreeLeafPage) Database.getBufferPool().getPage(
+				tid, root.iterator().next().getLeftChild(), Permissions.READ_ONLY);
+		assertEquals(0, first.getNumEmptySlots());
+
+		// the tree takes inserts and searches as usual
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(7777, 2));
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(7777)));
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			assertEquals(new IntField(7777), it.next().getField(0));
+			count++;
+		}
+		it.close();
+		assertEquals(2, count);
+	}
+
+	/**
+	 * Unsorted tuples are sorted first; with small pages the tree gets several levels
+	 * of internal pages, filled to the fill factor.
+	 */
+	@Test
+	public void loadUnsortedWithFillFactor() throws Exception {
+		// small pages, so that the tree has two levels of internal pages, and
+		// room for the leaves whose parent changes when internal pages merge
+		BufferPool.setPageSize(1026);
+		Database.resetBufferPool(500);
+		List<List<Integer>> tuples = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 30000, null, tuples);
+		BTreeFile bf = emptyFile();
+
+		DbFileIterator scan = hf.iterator(tid);
+		scan.open();
+		bf.bulkLoad(tid, scan, 0.75);
+		scan.close();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		List<Integer> expected = new ArrayList<>();
+		for (List<Integer> t : tuples) {
+			expected.add(t.get(0));
+		}
+		Collections.sort(expected);
+		assertEquals(expected, keys(bf));
+
+		// leaves hold 124 tuples and internal pages 124 entries; fill them to 93
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, rootPtr.getRootId(), Permissions.READ_ONLY);
+		BTreeInternalPage child = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, root.iterator().next().getLeftChild(), Permissions.READ_ONLY);
+		assertEquals(93, child.getNumEntries());
+		assertEquals(root.iterator().next().getKey(), child.getHighKey());
+		assertEquals(root.iterator().next().getRightChild(), child.getRightSiblingId());
+		BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(
+				tid, child.iterator().next().getLeftChild(), Permissions.READ_ONLY);
+		assertEquals(93, leaf.getNumTuples());
+
+		// deleting from the loaded tree merges and redistributes as usual; tuples
+		// move when pages merge, so each one is looked up again
+		for (int i = 0; i < expected.size() / 2; i++) {
+			DbFileIterator it = bf.iterator(tid);
+			it.open();
+			Database.getBufferPool().deleteTuple(tid, it.next());
+			it.close();
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(expected.subList(expected.size() / 2, expected.size()), keys(bf));
+	}
+
+	/**
+	 * The loaded tuples are invisible to other transactions until the load commits.
+	 */
+	@Test
+	public void loadIsolated() throws Exception {
+		BTreeFile bf = emptyFile();
+		bf.bulkLoad(tid, sortedTuples(5000).iterator(), 1.0);
+
+		// the root pointer stays locked until the load commits, so readers back off
+		TransactionId tid2 = new TransactionId();
+		try {
+			bf.iterator(tid2).open();
+			fail("expected TransactionAbortedException while the load is not committed");
+		} catch (TransactionAbortedException e) {
+			// expected
+		}
+		Database.getBufferPool().transactionComplete(tid2, false);
+
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		TransactionId tid3 = new TransactionId();
+		DbFileIterator it = bf.iterator(tid3);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		assertEquals(5000, count);
+		Database.getBufferPool().transactionComplete(tid3);
+	}
+
+	@Test
+	public void loadEmpty() throws Exception {
+		BTreeFile bf = emptyFile();
+		bf.bulkLoad(tid, Collections.emptyIterator(), 1.0);
+		assertEquals(0, keys(bf).size());
+
+		// a file with no tuples can still be loaded, once
+		bf.bulkLoad(tid, sortedTuples(10).iterator(), 1.0);
+		assertEquals(10, keys(bf).size());
+		try {
+			bf.bulkLoad(tid, sortedTuples(10).iterator(), 1.0);
+			fail("expected DbException for a non-empty tree");
+		} catch (DbException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = DbException.class)
+	public void loadUnsortedIterator() throws Exception {
+		List<Tuple> tuples = sortedTuples(1000);
+		Collections.swap(tuples, 10, 20);
+		emptyFile().bulkLoad(tid, tuples.iterator(), 1.0);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoadTest.class);
+	}
+}
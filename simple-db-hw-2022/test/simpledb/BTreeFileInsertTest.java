@@ -1,6 +1,7 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.index.*;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -176,6 +177,119 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		assertTrue(page.getId().getPageNumber() == 2 || otherPage.getId().getPageNumber() == 2);
 	}
 
+	@Test
+	public void testInsertLocksOnlyLeaf() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0);
+
+		// even keys in ascending order: every split leaves a half full leaf behind
+		for (int i = 0; i < 2000; i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(2 * i, 2));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPageUnlocked(rootPtrId);
+		BTreePageId rootId = rootPtr.getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+
+		// an insert into a leaf with room locks the leaf only
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(1001, 2));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootPtrId));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootId));
+
+		// so another transaction may split a leaf under the same root meanwhile
+		TransactionId tid2 = new TransactionId();
+		BTreeUtility.BTreeWriter writer = new BTreeUtility.BTreeWriter(tid2, bf, 3001,
+				BTreeUtility.getNumTuplesPerPage(2));
+		writer.start();
+		writer.join(60000);
+		assertTrue(writer.succeeded());
+		Database.getBufferPool().transactionComplete(tid2);
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		assertEquals(2000 + 1 + BTreeUtility.getNumTuplesPerPage(2), count);
+	}
+
+	/**
+	 * Walks the internal levels of bf from left to right, checking that every page links
+	 * to the next page of its level and has the separator above it in its parent (or in
+	 * an ancestor, for the last child) as high key.
+	 */
+	private void checkInternalLinks(BTreeFile bf) throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		List<BTreePageId> level = Collections.singletonList(rootPtr.getRootId());
+		List<Field> highKeys = Collections.singletonList(null);
+		while (level.get(0).pgcateg() == BTreePageId.INTERNAL) {
+			List<BTreePageId> nextLevel = new ArrayList<>();
+			List<Field> nextHighKeys = new ArrayList<>();
+			for (int i = 0; i < level.size(); i++) {
+				BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(
+						tid, level.get(i), Permissions.READ_ONLY);
+				assertEquals(highKeys.get(i), page.getHighKey());
+				assertEquals(i + 1 < level.size() ? level.get(i + 1) : null, page.getRightSiblingId());
+				Iterator<BTreeEntry> it = page.iterator();
+				BTreeEntry e = null;
+				while (it.hasNext()) {
+					e = it.next();
+					nextLevel.add(e.getLeftChild());
+					nextHighKeys.add(e.getKey());
+				}
+				nextLevel.add(e.getRightChild());
+				nextHighKeys.add(highKeys.get(i));
+			}
+			level = nextLevel;
+			highKeys = nextHighKeys;
+		}
+	}
+
+	@Test
+	public void testInternalPageLinks() throws Exception {
+		// small pages, so that the tree has two levels of internal pages
+		BufferPool.setPageSize(1026);
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 31000, null, null, 0);
+		Database.resetBufferPool(1000);
+		checkInternalLinks(bf);
+
+		// the leaves and internal pages are full, so inserts split them
+		Random rand = new Random(22);
+		for (int i = 0; i < 500; i++) {
+			int item = rand.nextInt(BTreeUtility.MAX_RAND_VALUE);
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(item, 2));
+		}
+		checkInternalLinks(bf);
+
+		// and deleting most of the tuples merges and redistributes them
+		List<Tuple> tuples = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			tuples.add(it.next());
+		}
+		it.close();
+		for (int i = 0; i < tuples.size(); i++) {
+			if (i % 8 != 0) {
+				Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+			}
+		}
+		checkInternalLinks(bf);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+	}
+
 	/**
 	 * JUnit suite target
 	 */
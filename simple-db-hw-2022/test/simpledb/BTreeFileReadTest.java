@@ -1,6 +1,7 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.execution.IndexPredicate;
 import simpledb.index.*;
@@ -36,6 +37,9 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 	@After
 	public void tearDown() {
 		Database.getBufferPool().transactionComplete(tid);
+
+		// set the page size back to the default
+		BufferPool.resetPageSize();
 	}
 
 	/**
@@ -207,6 +211,80 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 
 	}
 
+	/**
+	 * Index scans lock the leaves they read, but neither the root pointer nor the
+	 * internal pages above them.
+	 */
+	@Test public void indexIteratorLocksOnlyLeaves() throws Exception {
+		BTreeFile bf = BTreeUtility.createBTreeFile(2, 5000, null, null, 0);
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		BTreePageId rootId = ((BTreeRootPtrPage) Database.getBufferPool().getPageUnlocked(rootPtrId)).getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+
+		IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(2500));
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		it.open();
+		assertTrue(it.hasNext());
+		assertEquals(new IntField(2500), it.next().getField(0));
+		assertFalse(it.hasNext());
+		it.close();
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootPtrId));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootId));
+
+		it = bf.iterator(tid);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		assertEquals(5000, count);
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootPtrId));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootId));
+	}
+
+	/**
+	 * An index search that reaches an internal page whose high key is below the search
+	 * key, as it does after a split whose separator has not reached the parent yet,
+	 * follows the right link of the page.
+	 */
+	@Test public void indexIteratorMovesRight() throws Exception {
+		// small pages, so that the tree has two levels of internal pages
+		BufferPool.setPageSize(1026);
+		BTreeFile bf = BTreeUtility.createBTreeFile(2, 31125, null, null, 0);
+		Database.resetBufferPool(500);
+
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, rootPtrId, Permissions.READ_ONLY);
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, rootPtr.getRootId(), Permissions.READ_WRITE);
+		BTreeEntry first = root.iterator().next();
+		BTreeInternalPage left = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, first.getLeftChild(), Permissions.READ_ONLY);
+		BTreeInternalPage right = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, first.getRightChild(), Permissions.READ_ONLY);
+		assertEquals(first.getKey(), left.getHighKey());
+		assertEquals(right.getId(), left.getRightSiblingId());
+
+		// take the separator of the two pages out of the root, which now sends
+		// every key up to the next separator to the left page
+		Field key = new IntField(((IntField) first.getKey()).getValue() + 1);
+		root.deleteKeyAndRightChild(first);
+		BTreePageId wrongLeaf = left.reverseIterator().next().getRightChild();
+		BTreePageId rightLeaf = right.iterator().next().getLeftChild();
+
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+		it.open();
+		assertTrue(it.hasNext());
+		assertEquals(key, it.next().getField(0));
+		assertFalse(it.hasNext());
+		it.close();
+		assertTrue(Database.getBufferPool().holdsLock(tid, rightLeaf));
+		assertFalse(Database.getBufferPool().holdsLock(tid, wrongLeaf));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
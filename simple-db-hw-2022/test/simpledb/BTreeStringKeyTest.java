@@ -0,0 +1,212 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class BTreeStringKeyTest extends SimpleDbTestBase {
+	private static final TupleDesc TD = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+
+	private TransactionId tid;
+	private BTreeFile bf;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+		File f = File.createTempFile("strings", ".dat");
+		f.deleteOnExit();
+		bf = new BTreeFile(f, 0, TD);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static StringField key(String s) {
+		return new StringField(s, Type.STRING_LEN);
+	}
+
+	private static Tuple tuple(String s, int n) {
+		Tuple t = new Tuple(TD);
+		t.setField(0, key(s));
+		t.setField(1, new IntField(n));
+		return t;
+	}
+
+	private static String randomString(Random r, int len) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < len; i++) {
+			sb.append((char) ('a' + r.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	private BTreeInternalPage emptyInternalPage() throws Exception {
+		BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL);
+		return new BTreeInternalPage(pid, BTreeInternalPage.createEmptyPageData(), 0);
+	}
+
+	private List<String> keys(Iterator<BTreeEntry> it) {
+		List<String> keys = new ArrayList<>();
+		while (it.hasNext()) {
+			keys.add(((StringField) it.next().getKey()).getValue());
+		}
+		return keys;
+	}
+
+	/**
+	 * Internal pages store keys in as many bytes as they need, so short keys fit
+	 * many times more entries than getMaxEntries().
+	 */
+	@Test
+	public void shortKeys() throws Exception {
+		BTreeInternalPage page = emptyInternalPage();
+		int max = page.getMaxEntries();
+		assertEquals(max, page.getNumEmptySlots());
+
+		List<String> inserted = new ArrayList<>();
+		for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+			String k = String.format("k%04d", i);
+			page.insertEntry(new BTreeEntry(key(k),
+					new BTreePageId(bf.getId(), i + 1, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), i + 2, BTreePageId.LEAF)));
+			inserted.add(k);
+		}
+		assertTrue(page.getNumEntries() > 10 * max);
+
+		// the variable-length layout survives being written out
+		page.setHighKey(key("z"));
+		BTreeInternalPage read = new BTreeInternalPage(page.getId(), page.getPageData(), 0);
+		assertEquals(page.getNumEntries(), read.getNumEntries());
+		assertEquals(0, read.getNumEmptySlots());
+		assertEquals(key("z"), read.getHighKey());
+		assertEquals(inserted, keys(read.iterator()));
+		List<String> reversed = keys(read.reverseIterator());
+		Collections.reverse(reversed);
+		assertEquals(inserted, reversed);
+		Iterator<BTreeEntry> it = read.iterator();
+		for (int i = 0; it.hasNext(); i++) {
+			BTreeEntry e = it.next();
+			assertEquals(i + 1, e.getLeftChild().getPageNumber());
+			assertEquals(i + 2, e.getRightChild().getPageNumber());
+		}
+	}
+
+	/**
+	 * Capacity is counted in bytes: a page of keys of the longest length holds
+	 * getMaxEntries() of them, and no more.
+	 */
+	@Test
+	public void longKeys() throws Exception {
+		BTreeInternalPage page = emptyInternalPage();
+		int max = page.getMaxEntries();
+		char[] pad = new char[Type.STRING_LEN - 4];
+		Arrays.fill(pad, 'x');
+		for (int i = 0; i < max; i++) {
+			page.insertEntry(new BTreeEntry(key(String.format("%04d", i) + new String(pad)),
+					new BTreePageId(bf.getId(), i + 1, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), i + 2, BTreePageId.LEAF)));
+		}
+		assertEquals(max, page.getNumEntries());
+		assertEquals(0, page.getNumEmptySlots());
+		try {
+			page.insertEntry(new BTreeEntry(key("9999"),
+					new BTreePageId(bf.getId(), max + 1, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), max + 2, BTreePageId.LEAF)));
+			fail("expected DbException when the page is full");
+		} catch (DbException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Separators copied up from split leaves are cut to the shortest prefix that
+	 * still separates the leaves, so a single root holds hundreds of leaves with
+	 * long keys, and the tree stays correct through inserts and deletes.
+	 */
+	@Test
+	public void truncatedSeparators() throws Exception {
+		// room for the leaves whose parent changes when internal pages merge
+		Database.resetBufferPool(500);
+		Random r = new Random(24);
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 6000; i++) {
+			String k = randomString(r, 100);
+			keys.add(k);
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(k, i));
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		assertEquals(BTreePageId.INTERNAL, rootPtr.getRootId().pgcateg());
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, rootPtr.getRootId(), Permissions.READ_ONLY);
+		// the leaves hold at most 30 tuples each, and are all children of the root,
+		// which would hold no more than 29 untruncated keys
+		assertTrue(root.getNumEntries() > 5 * root.getMaxEntries());
+		for (String k : keys(root.iterator())) {
+			assertTrue(k, k.length() <= 6);
+		}
+		assertEquals(BTreePageId.LEAF, root.iterator().next().getLeftChild().pgcateg());
+
+		// searches use the truncated keys
+		for (int i = 0; i < keys.size(); i += 500) {
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key(keys.get(i))));
+			it.open();
+			assertTrue(it.hasNext());
+			assertEquals(new IntField(i), it.next().getField(1));
+			assertFalse(it.hasNext());
+			it.close();
+		}
+
+		// delete most tuples, so that leaves merge and steal from each other
+		for (int i = 0; i < 5000; i++) {
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key(keys.get(i))));
+			it.open();
+			Database.getBufferPool().deleteTuple(tid, it.next());
+			it.close();
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		List<String> expected = new ArrayList<>(keys.subList(5000, keys.size()));
+		Collections.sort(expected);
+		List<String> actual = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			actual.add(((StringField) it.next().getField(0)).getValue());
+		}
+		it.close();
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeStringKeyTest.class);
+	}
+}
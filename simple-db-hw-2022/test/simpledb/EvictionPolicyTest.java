@@ -0,0 +1,232 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+    private static final int TABLE_ID = 42;
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(TABLE_ID, pgNo);
+    }
+
+    /**
+     * Unit test for LruEvictionPolicy: the least recently used page goes first.
+     */
+    @Test public void lruOrder() {
+        EvictionPolicy lru = EvictionPolicy.Kind.LRU.create(3);
+        lru.recordInsert(pid(0));
+        lru.recordInsert(pid(1));
+        lru.recordInsert(pid(2));
+        lru.recordAccess(pid(0));
+        assertEquals(pid(1), lru.chooseVictim(p -> true));
+        assertEquals(pid(2), lru.chooseVictim(p -> !p.equals(pid(1))));
+        lru.recordRemove(pid(1));
+        lru.recordRemove(pid(2));
+        assertEquals(pid(0), lru.chooseVictim(p -> true));
+        assertNull(lru.chooseVictim(p -> false));
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: referenced pages get a second chance.
+     */
+    @Test public void clockSecondChance() {
+        EvictionPolicy clock = EvictionPolicy.Kind.CLOCK.create(3);
+        clock.recordInsert(pid(0));
+        clock.recordInsert(pid(1));
+        clock.recordInsert(pid(2));
+        clock.recordAccess(pid(0));
+        assertEquals(pid(1), clock.chooseVictim(p -> true));
+        clock.recordRemove(pid(1));
+        // the hand has moved past page 1; page 0 lost its reference bit on the way
+        assertEquals(pid(2), clock.chooseVictim(p -> true));
+        clock.recordRemove(pid(2));
+        assertEquals(pid(0), clock.chooseVictim(p -> true));
+        clock.recordRemove(pid(0));
+        assertNull(clock.chooseVictim(p -> true));
+    }
+
+    /**
+     * Unit test for TwoQueueEvictionPolicy: a scan of pages touched once must
+     * not push out pages that were re-referenced after leaving A1in.
+     */
+    @Test public void twoQueueScanResistance() {
+        final int capacity = 8;
+        EvictionPolicy twoQ = EvictionPolicy.Kind.TWO_QUEUE.create(capacity);
+        Set<PageId> resident = new HashSet<>();
+
+        // make pages 0 and 1 hot: reference, evict, and reference them again
+        for (int i = 0; i < 2; i++) {
+            twoQ.recordInsert(pid(i));
+            twoQ.recordRemove(pid(i));
+            twoQ.recordInsert(pid(i));
+            resident.add(pid(i));
+        }
+
+        // scan 100 cold pages through the remaining frames
+        for (int i = 100; i < 200; i++) {
+            if (resident.size() == capacity) {
+                PageId victim = twoQ.chooseVictim(p -> true);
+                assertTrue(victim.getPageNumber() >= 100);
+                twoQ.recordRemove(victim);
+                resident.remove(victim);
+            }
+            twoQ.recordInsert(pid(i));
+            resident.add(pid(i));
+        }
+        assertTrue(resident.contains(pid(0)));
+        assertTrue(resident.contains(pid(1)));
+    }
+
+    /**
+     * Unit test for the BufferPool hit/miss counters.
+     */
+    @Test public void hitRatio() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        PageId first = new HeapPageId(hf.getId(), 0);
+        PageId second = new HeapPageId(hf.getId(), 1);
+
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        bp.getPage(tid, second, Permissions.READ_ONLY);
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        assertEquals(2, bp.getHitCount());
+        assertEquals(2, bp.getMissCount());
+        assertEquals(0.5, bp.getHitRatio(), 1e-9);
+
+        bp.resetStatistics();
+        assertEquals(0, bp.getHitCount());
+        assertEquals(0.0, bp.getHitRatio(), 1e-9);
+    }
+
+    /**
+     * Unit test for BufferPool.pinPage: pinned pages are never evicted, and
+     * the pool refuses to load a page when every frame is pinned.
+     */
+    @Test public void pinnedPagesStayResident() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        PageId first = new HeapPageId(hf.getId(), 0);
+        PageId second = new HeapPageId(hf.getId(), 1);
+        PageId third = new HeapPageId(hf.getId(), 2);
+
+        BufferPool.Pin pinned = bp.pinPage(tid, first, Permissions.READ_ONLY);
+        bp.getPage(tid, second, Permissions.READ_ONLY);
+        bp.getPage(tid, third, Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(first));
+        // page 0 is pinned, so page 1 had to go
+        assertSame(pinned.getPage(), bp.getPage(tid, first, Permissions.READ_ONLY));
+
+        BufferPool.Pin third1 = bp.pinPage(tid, third, Permissions.READ_ONLY);
+        BufferPool.Pin third2 = bp.pinPage(tid, third, Permissions.READ_ONLY);
+        assertEquals(2, bp.getPinCount(third));
+        try {
+            bp.getPage(tid, second, Permissions.READ_ONLY);
+            fail("expected DbException, every frame is pinned");
+        } catch (DbException expected) {
+        }
+
+        bp.unpinPage(pinned);
+        bp.unpinPage(third1);
+        // releasing the same pin twice does not release the other one
+        bp.unpinPage(third1);
+        assertEquals(1, bp.getPinCount(third));
+        bp.unpinPage(third2);
+        assertEquals(0, bp.getPinCount(third));
+        bp.getPage(tid, second, Permissions.READ_ONLY);
+    }
+
+    /**
+     * A pin on a page that was discarded and loaded again belongs to the
+     * discarded frame; releasing it leaves the pins on the new frame alone.
+     */
+    @Test public void unpinAfterReload() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        PageId first = new HeapPageId(hf.getId(), 0);
+
+        BufferPool.Pin stale = bp.pinPage(tid, first, Permissions.READ_ONLY);
+        bp.discardPage(first);
+        BufferPool.Pin fresh = bp.pinPage(tid, first, Permissions.READ_ONLY);
+        assertNotSame(stale.getPage(), fresh.getPage());
+        assertEquals(1, bp.getPinCount(first));
+
+        bp.unpinPage(stale);
+        assertEquals(1, bp.getPinCount(first));
+        bp.unpinPage(fresh);
+        assertEquals(0, bp.getPinCount(first));
+    }
+
+    /**
+     * The pins of a scan abandoned without being closed are released when its
+     * transaction completes.
+     */
+    @Test public void abandonedScanReleasesPinsAtCompletion() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        PageId first = new HeapPageId(hf.getId(), 0);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        it.next();
+        assertEquals(1, bp.getPinCount(first));
+
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getPinCount(first));
+        // closing it late does not release anything twice
+        it.close();
+        assertEquals(0, bp.getPinCount(first));
+    }
+
+    /**
+     * Scans release their pins as they move on and when they are closed.
+     */
+    @Test public void scanReleasesPins() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(2000, count);
+        it.close();
+        for (int i = 0; i < hf.numPages(); i++) {
+            assertEquals(0, bp.getPinCount(new HeapPageId(hf.getId(), i)));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,304 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.AbstractExchange;
+import simpledb.execution.Broadcast;
+import simpledb.execution.Exchange;
+import simpledb.execution.Gather;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.ParallelScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.algorithm.HashJoin;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    /**
+     * @return n tuples (i, i % 10), starting at from
+     */
+    private static OpIterator input(int from, int n) {
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = from + i;
+            data[2 * i + 1] = (from + i) % 10;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    /**
+     * @return n tuples (key(i), i), generated as they are read
+     */
+    private static OpIterator generate(int n, IntUnaryOperator key) {
+        final TupleDesc td = Utility.getTupleDesc(2);
+        return new Operator() {
+            private int i;
+
+            @Override public void open() throws DbException, TransactionAbortedException {
+                i = 0;
+                super.open();
+            }
+
+            @Override protected Tuple fetchNext() {
+                if (i == n) {
+                    return null;
+                }
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(key.applyAsInt(i)));
+                t.setField(1, new IntField(i));
+                i++;
+                return t;
+            }
+
+            @Override public void rewind() throws DbException, TransactionAbortedException {
+                i = 0;
+            }
+
+            @Override public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            @Override public OpIterator[] getChildren() {
+                return new OpIterator[0];
+            }
+
+            @Override public void setChildren(OpIterator[] children) {
+            }
+        };
+    }
+
+    /**
+     * @return a hash join of left and right on their first fields, holding at
+     *         most memoryBudget bytes of tuples in memory
+     */
+    private static OpIterator hashJoin(OpIterator left, OpIterator right, long memoryBudget) {
+        final JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        final TupleDesc td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+        return new Operator() {
+            private HashJoin join;
+
+            @Override public void open() throws DbException, TransactionAbortedException {
+                left.open();
+                right.open();
+                join = new HashJoin(p, left, right, memoryBudget);
+                super.open();
+            }
+
+            @Override public void close() {
+                super.close();
+                join.close();
+                right.close();
+                left.close();
+            }
+
+            @Override protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+                return join.fetchNext();
+            }
+
+            @Override public void rewind() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            @Override public OpIterator[] getChildren() {
+                return new OpIterator[] { left, right };
+            }
+
+            @Override public void setChildren(OpIterator[] children) {
+            }
+        };
+    }
+
+    private static List<Integer> keys(OpIterator it) throws Exception {
+        List<Integer> keys = new ArrayList<>();
+        while (it.hasNext()) {
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        }
+        return keys;
+    }
+
+    /**
+     * Gather returns the tuples of all inputs.
+     */
+    @Test public void gather() throws Exception {
+        Gather g = new Gather(input(0, 100), input(100, 100), input(200, 100));
+        g.open();
+        List<Integer> keys = keys(g);
+        assertEquals(300, keys.size());
+        assertEquals(300, new HashSet<>(keys).size());
+        g.rewind();
+        assertEquals(300, keys(g).size());
+        g.close();
+        assertEquals(600, g.getTuplesSent());
+    }
+
+    /**
+     * Repartitioning sends each tuple to one output, and all tuples with the
+     * same value of the field to the same output.
+     */
+    @Test public void repartition() throws Exception {
+        Exchange[] outs = Exchange.repartition(new OpIterator[] { input(0, 500), input(500, 500) }, 1, 3);
+        assertEquals(3, outs.length);
+        Set<Integer> seen = new HashSet<>();
+        Map<Integer, Integer> outputOfGroup = new HashMap<>();
+        for (Exchange out : outs) {
+            out.open();
+        }
+        for (Exchange out : outs) {
+            while (out.hasNext()) {
+                Tuple t = out.next();
+                assertTrue(seen.add(((IntField) t.getField(0)).getValue()));
+                Integer prev = outputOfGroup.put(((IntField) t.getField(1)).getValue(), out.getOutput());
+                assertTrue(prev == null || prev == out.getOutput());
+            }
+        }
+        for (Exchange out : outs) {
+            out.close();
+        }
+        assertEquals(1000, seen.size());
+    }
+
+    /**
+     * Every output of a broadcast sees every tuple.
+     */
+    @Test public void broadcast() throws Exception {
+        Broadcast[] outs = Broadcast.create(new OpIterator[] { input(0, 50), input(50, 50) }, 2);
+        for (Broadcast out : outs) {
+            out.open();
+        }
+        for (Broadcast out : outs) {
+            assertEquals(100, new HashSet<>(keys(out)).size());
+        }
+        for (Broadcast out : outs) {
+            out.close();
+        }
+    }
+
+    /**
+     * A consumer that does not keep up makes the producers wait, and the
+     * queue never holds more than its capacity.
+     */
+    @Test public void backpressure() throws Exception {
+        Gather g = new Gather(new OpIterator[] { input(0, 20000) }, 1);
+        g.open();
+        Thread.sleep(50);
+        assertEquals(1, g.getQueueDepth());
+        assertEquals(20000, keys(g).size());
+        g.close();
+        assertEquals(1, g.getMaxQueueDepth());
+        assertTrue(g.getProducerWaits() > 0);
+    }
+
+    /**
+     * A partitioned hash join whose first input is skewed to one partition
+     * finishes: that partition's join spills its first input rather than
+     * leaving it unread, which would stall the producers of every partition.
+     */
+    @Test(timeout = 60000) public void skewedPartitionedHashJoin() throws Exception {
+        // 99% of a's keys are -1, which b does not have; the rest match 100 tuples of b each.
+        // The budget holds the matching part of a, but not the rest of it
+        int n = 40000;
+        Exchange[] left = Exchange.repartition(new OpIterator[] { generate(n, i -> i % 100 == 0 ? i / 100 : -1) }, 0, 2);
+        Exchange[] right = Exchange.repartition(new OpIterator[] { generate(n, i -> i % (n / 100)) }, 0, 2);
+        Gather g = new Gather(hashJoin(left[0], right[0], 16 << 10), hashJoin(left[1], right[1], 16 << 10));
+        g.open();
+        int count = 0;
+        while (g.hasNext()) {
+            Tuple t = g.next();
+            assertEquals(t.getField(0), t.getField(2));
+            count++;
+        }
+        g.close();
+        assertEquals(n, count);
+    }
+
+    /**
+     * An equality join of two large tables is planned as a partitioned
+     * parallel hash join and finds every match.
+     */
+    @Test public void parallelHashJoinPlanned() throws Exception {
+        List<List<Integer>> tuples1 = new ArrayList<>();
+        List<List<Integer>> tuples2 = new ArrayList<>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 70000, 20000, null, tuples1, "c");
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 70000, 20000, null, tuples2, "c");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(f1.getId()), new TableStats(f1.getId(), 1));
+        stats.put(Database.getCatalog().getTableName(f2.getId()), new TableStats(f2.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f1.getId(), "a");
+        lp.addScan(f2.getId(), "b");
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("a.c1", null);
+
+        TransactionId tid = new TransactionId();
+        int max = ParallelScan.getMaxParallelism();
+        OpIterator plan;
+        try {
+            ParallelScan.setMaxParallelism(2);
+            plan = lp.physicalPlan(tid, stats, false);
+        } finally {
+            ParallelScan.setMaxParallelism(max);
+        }
+        OpIterator join = ((Project) plan).getChildren()[0];
+        assertTrue(join instanceof Gather);
+        assertEquals(2, ((Gather) join).getChildren().length);
+        Join partition = (Join) ((Gather) join).getChildren()[0];
+        assertTrue(partition.getChildren()[0] instanceof Exchange);
+        assertTrue(partition.getChildren()[1] instanceof AbstractExchange);
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples2) {
+            counts.merge(t.get(0), 1, Integer::sum);
+        }
+        long expected = 0;
+        for (List<Integer> t : tuples1) {
+            expected += counts.getOrDefault(t.get(0), 0);
+        }
+        plan.open();
+        long count = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        assertEquals(expected, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
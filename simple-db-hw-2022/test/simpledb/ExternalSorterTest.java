@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.ExternalSorter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.TupleComparator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ExternalSorterTest extends SimpleDbTestBase {
+
+    private static Tuple tuple(TupleDesc td, int key, int value) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    /**
+     * Input that fits in the budget is sorted in memory.
+     */
+    @Test public void sortsInMemory() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ExternalSorter sorter = new ExternalSorter(td, new TupleComparator(0, false));
+        for (int i = 0; i < 100; i++) {
+            sorter.add(tuple(td, (i * 37) % 100, i));
+        }
+        Iterator<Tuple> it = sorter.iterator();
+        for (int i = 99; i >= 0; i--) {
+            assertEquals(i, ((IntField) it.next().getField(0)).getValue());
+        }
+        assertFalse(it.hasNext());
+        assertEquals(0, sorter.numRuns());
+        sorter.close();
+    }
+
+    /**
+     * Input larger than the budget is spilled in runs and merged, also when
+     * there are more runs than are merged at once; and can be read again.
+     */
+    @Test public void spillsAndMerges() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        // 10 tuples per run, 100 runs
+        ExternalSorter sorter = new ExternalSorter(td, new TupleComparator(0, true), 10L * td.getSize());
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            sorter.add(tuple(td, (i * 7919) % 250, i));
+        }
+        assertEquals(100, sorter.numRuns());
+        for (int pass = 0; pass < 2; pass++) {
+            Iterator<Tuple> it = sorter.iterator();
+            int count = 0;
+            int prev = Integer.MIN_VALUE;
+            while (it.hasNext()) {
+                int key = ((IntField) it.next().getField(0)).getValue();
+                assertTrue(prev <= key);
+                prev = key;
+                count++;
+            }
+            assertEquals(n, count);
+        }
+        sorter.close();
+    }
+
+    /**
+     * OrderBy with a limit returns the first N tuples of the ordering.
+     */
+    @Test public void orderByTopN() throws Exception {
+        int[] data = new int[2 * 50];
+        for (int i = 0; i < 50; i++) {
+            data[2 * i] = (i * 13) % 50;
+            data[2 * i + 1] = i;
+        }
+        OpIterator child = TestUtil.createTupleList(2, data);
+        OrderBy op = new OrderBy(0, true, child, 5);
+        op.open();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(op.hasNext());
+                assertEquals(i, ((IntField) op.next().getField(0)).getValue());
+            }
+            assertFalse(op.hasNext());
+            op.rewind();
+        }
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalSorterTest.class);
+    }
+}
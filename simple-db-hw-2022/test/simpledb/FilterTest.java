@@ -5,6 +5,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -71,6 +73,23 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.getNext() with a conjunction of predicates
+   */
+  @Test public void filterConjunction() throws Exception {
+    Filter op = new Filter(Arrays.asList(
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-2)),
+        new Predicate(1, Predicate.Op.LESS_THAN, TestUtil.getField(3)),
+        new Predicate(2, Predicate.Op.NOT_EQUALS, TestUtil.getField(0))), scan);
+    assertEquals(3, op.getPredicates().size());
+    op.open();
+    for (int i : new int[] { -2, -1, 1, 2 }) {
+      assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(i, testWidth), op.next()));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
   /**
    * Unit test for Filter.getNext() using a &lt; predicate that filters
    * everything
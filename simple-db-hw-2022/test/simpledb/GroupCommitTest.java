@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int THREADS = 16;
+    private static final int COMMITS_PER_THREAD = 10;
+
+    /**
+     * Concurrent committers share log forces.
+     */
+    @Test public void concurrentCommitsShareForces() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitWindowMicros(2000);
+        long forcesBefore = log.getForceCount();
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        t.commit();
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        long forces = log.getForceCount() - forcesBefore;
+        assertTrue("expected fewer forces than commits, got " + forces, forces < THREADS * COMMITS_PER_THREAD);
+        // one BEGIN and one COMMIT record per transaction
+        assertEquals(2 * THREADS * COMMITS_PER_THREAD, log.getTotalRecords());
+    }
+
+    /**
+     * A lone committer does not wait for company longer than the window.
+     */
+    @Test public void singleCommitForcesOnce() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitWindowMicros(0);
+        long forcesBefore = log.getForceCount();
+        Transaction t = new Transaction();
+        t.start();
+        t.commit();
+        assertEquals(1, log.getForceCount() - forcesBefore);
+    }
+
+    /**
+     * Under NO_FORCE the COMMIT record is forced while the committer still
+     * holds its locks, so nobody reads its changes before they are durable.
+     */
+    @Test public void commitLoggedBeforeLocksReleased() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        PageId pid = new HeapPageId(hf.getId(), 0);
+        File f = File.createTempFile("log", ".txt");
+        f.deleteOnExit();
+        AtomicBoolean heldAtCommit = new AtomicBoolean();
+        Database.resetLogFile(new LogFile(f) {
+            @Override public void logCommit(TransactionId tid) throws IOException {
+                super.logCommit(tid);
+                heldAtCommit.set(Database.getBufferPool().holdsLock(tid, pid));
+            }
+        });
+        Database.getBufferPool().setCommitPolicy(BufferPool.CommitPolicy.NO_FORCE);
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(-1, 2));
+        assertTrue(Database.getBufferPool().holdsLock(t.getId(), pid));
+        t.commit();
+
+        assertTrue("locks released before the COMMIT record was forced", heldAtCommit.get());
+        assertFalse(Database.getBufferPool().holdsLock(t.getId(), pid));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -6,6 +6,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -125,6 +126,37 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for a memory-mapped HeapFile: reads must match the plain
+     * read path and must observe pages written after the file was mapped.
+     */
+    @Test
+    public void memoryMappedRead() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        File temp = SystemTestUtil.createRandomHeapFileUnopened(2, 1000,
+                1 << 16, null, tuples);
+        HeapFile mapped = new HeapFile(temp, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertTrue(mapped.isMemoryMapped());
+        SystemTestUtil.matchTuples(mapped, tuples);
+
+        // append a page through the channel and read it back through the mapping
+        HeapPageId newPid = new HeapPageId(mapped.getId(), mapped.numPages());
+        HeapPage newPage = new HeapPage(newPid, HeapPage.createEmptyPageData());
+        newPage.insertTuple(Utility.getHeapTuple(new int[]{7, 42}));
+        mapped.writePage(newPage);
+
+        HeapPage readBack = (HeapPage) mapped.readPage(newPid);
+        Iterator<Tuple> it = readBack.iterator();
+        assertTrue(it.hasNext());
+        assertEquals(Arrays.asList(7, 42), SystemTestUtil.tupleToList(it.next()));
+
+        // modifying a mapped page must not disturb its before image
+        readBack.insertTuple(Utility.getHeapTuple(new int[]{8, 43}));
+        assertEquals(readBack.getNumUnusedSlots() + 1,
+                readBack.getBeforeImage().getNumUnusedSlots());
+    }
+
     /**
      * JUnit suite target
      */
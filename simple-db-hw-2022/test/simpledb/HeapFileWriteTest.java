@@ -7,12 +7,14 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -90,6 +92,70 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Inserts go through the free-space map: full pages are visited at most
+     * once, are not left locked, and freed slots are found again.
+     */
+    @Test public void insertUsesFreeSpaceMap() throws Exception {
+        // three full pages
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        assertEquals(FreeSpaceMap.UNKNOWN, fsm.getCategory(0));
+
+        List<Page> dirtied = hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(3, dirtied.get(0).getId().getPageNumber());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(FreeSpaceMap.FULL, fsm.getCategory(i));
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        }
+        assertTrue(fsm.getCategory(3) > FreeSpaceMap.FULL);
+
+        // freeing a slot on page 1 makes it the target of the next insert
+        Tuple victim = ((HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 1), Permissions.READ_WRITE)).iterator().next();
+        hf.deleteTuple(tid, victim);
+        assertTrue(fsm.getCategory(1) > FreeSpaceMap.FULL);
+        dirtied = hf.insertTuple(tid, Utility.getHeapTuple(2, 2));
+        assertEquals(1, dirtied.get(0).getId().getPageNumber());
+        assertEquals(FreeSpaceMap.FULL, fsm.getCategory(1));
+    }
+
+    /**
+     * The free-space map is kept in memory only: the pages it has not seen are
+     * filled in from their headers on disk on the first insert, without
+     * locking them.
+     */
+    @Test public void freeSpaceMapBuiltOnFirstInsert() throws Exception {
+        // two full pages and one with ten tuples
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 10, null, null);
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        assertEquals(FreeSpaceMap.UNKNOWN, fsm.getCategory(2));
+
+        List<Page> dirtied = hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(2, dirtied.get(0).getId().getPageNumber());
+        assertEquals(FreeSpaceMap.FULL, fsm.getCategory(0));
+        assertEquals(FreeSpaceMap.FULL, fsm.getCategory(1));
+        assertEquals(FreeSpaceMap.category(504 - 11, 504), fsm.getCategory(2));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 1)));
+    }
+
+    /**
+     * What the map learnt from a page in memory before the first insert is not
+     * overwritten by the older state of the page on disk.
+     */
+    @Test public void freeSpaceMapKeepsPagesSeenInMemory() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        Tuple victim = ((HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 1), Permissions.READ_WRITE)).iterator().next();
+        hf.deleteTuple(tid, victim);
+
+        // page 1 is still full on disk
+        List<Page> dirtied = hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(1, dirtied.get(0).getId().getPageNumber());
+        assertEquals(2, hf.numPages());
+    }
+
     /**
      * JUnit suite target
      */
@@ -123,6 +123,27 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Tuples are decoded lazily, but a tuple changed through setField is
+     * written back by getPageData, and untouched tuples keep their bytes.
+     */
+    @Test public void modifiedTupleIsSerialized() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) it.next().getField(1)).getValue());
+        it.next().setField(0, new IntField(-7));
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        it = copy.iterator();
+        for (int row = 0; it.hasNext(); row++) {
+            Tuple tup = it.next();
+            assertEquals(row == 1 ? -7 : EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,204 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IndexScanPlanTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private List<List<Integer>> tuples;
+    private BTreeFile bf;
+    private Map<String, TableStats> stats;
+
+    /**
+     * Loads a B+ tree of 20000 random tuples with three fields c0, c1, c2, keyed on c0.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 20000, null, tuples, "c");
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        bf = BTreeUtility.openBTreeFile(3, "c", f, 0);
+
+        TransactionId load = new TransactionId();
+        DbFileIterator it = hf.iterator(load);
+        it.open();
+        bf.bulkLoad(load, it, 1.0);
+        it.close();
+        Database.getBufferPool().transactionComplete(load);
+
+        stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(bf.getId()), new TableStats(bf.getId(), 1000));
+        stats.put(Database.getCatalog().getTableName(hf.getId()), new TableStats(hf.getId(), 1000));
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static OpIterator child(OpIterator plan) {
+        return ((Project) plan).getChildren()[0];
+    }
+
+    private List<List<Integer>> project(List<List<Integer>> ts, int... fields) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t : ts) {
+            List<Integer> p = new ArrayList<>();
+            for (int f : fields) {
+                p.add(t.get(f));
+            }
+            result.add(p);
+        }
+        return result;
+    }
+
+    @Test public void costModel() {
+        TableStats s = stats.get(Database.getCatalog().getTableName(bf.getId()));
+        assertEquals(1, s.indexDepth());
+        assertEquals(bf.numPages(), s.numPages());
+
+        double seq = JoinOptimizer.estimateSeqScanCost(s, false);
+        assertTrue(JoinOptimizer.estimateIndexScanCost(s, 0.01, false) < seq / 10);
+        assertTrue(JoinOptimizer.estimateIndexScanCost(s, 1.0, false) > seq);
+        // a key-only scan reads the same pages, but produces less
+        assertTrue(JoinOptimizer.estimateSeqScanCost(s, true) < seq);
+        assertTrue(JoinOptimizer.estimateIndexScanCost(s, 0.01, true)
+                < JoinOptimizer.estimateIndexScanCost(s, 0.01, false));
+    }
+
+    /**
+     * A selective predicate on the key is answered by the index; the other predicates
+     * are applied above it.
+     */
+    @Test public void selectiveKeyPredicate() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "500");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "1000");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        Filter filter = (Filter) child(plan);
+        assertEquals(1, filter.getPredicates().size());
+        assertEquals(1, filter.getPredicates().get(0).getField());
+        BTreeScan scan = (BTreeScan) filter.getChildren()[0];
+        assertFalse(scan.isKeyOnly());
+        assertEquals(Predicate.Op.LESS_THAN, scan.getIndexPredicate().getOp());
+        SystemTestUtil.matchTuples(plan, project(tuples.stream()
+                .filter(t -> t.get(0) < 500 && t.get(1) > 1000).collect(Collectors.toList()), 0, 1));
+    }
+
+    /**
+     * A predicate matching most of the table is cheaper to apply to a scan of all of it.
+     */
+    @Test public void unselectiveKeyPredicate() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "10");
+        lp.addProjectField("t.c2", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        Filter filter = (Filter) child(plan);
+        assertTrue(filter.getChildren()[0] instanceof SeqScan);
+        SystemTestUtil.matchTuples(plan, project(tuples.stream()
+                .filter(t -> t.get(0) > 10).collect(Collectors.toList()), 2));
+    }
+
+    /**
+     * A query using only the key field reads tuples of the key field alone.
+     */
+    @Test public void keyOnly() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN_OR_EQ, "2000");
+        lp.addFilter("t.c0", Predicate.Op.NOT_EQUALS, "100");
+        lp.addProjectField("t.c0", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        Filter filter = (Filter) child(plan);
+        assertEquals(0, filter.getPredicates().get(0).getField());
+        BTreeScan scan = (BTreeScan) filter.getChildren()[0];
+        assertTrue(scan.isKeyOnly());
+        assertEquals(1, scan.getTupleDesc().numFields());
+        assertEquals("t.c0", scan.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(plan, project(tuples.stream()
+                .filter(t -> t.get(0) <= 2000 && t.get(0) != 100).collect(Collectors.toList()), 0));
+
+        // without a predicate, the whole tree is read, still key-only
+        lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "t");
+        lp.addProjectField("t.c0", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        scan = (BTreeScan) child(plan);
+        assertTrue(scan.isKeyOnly());
+        assertNull(scan.getIndexPredicate());
+        SystemTestUtil.matchTuples(plan, project(tuples, 0));
+    }
+
+    /**
+     * A table joined on its key, with a selective predicate on it, is read key-only
+     * through the index.
+     */
+    @Test public void keyOnlyJoin() throws Exception {
+        List<List<Integer>> other = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, other, "d");
+        stats.put(Database.getCatalog().getTableName(hf.getId()), new TableStats(hf.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "t");
+        lp.addScan(hf.getId(), "h");
+        lp.addJoin("t.c0", "h.d0", Predicate.Op.EQUALS);
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "1000");
+        lp.addProjectField("h.d1", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 1000) {
+                for (List<Integer> h : other) {
+                    if (h.get(0).equals(t.get(0))) {
+                        expected.add(h.subList(1, 2));
+                    }
+                }
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexScanPlanTest.class);
+    }
+}
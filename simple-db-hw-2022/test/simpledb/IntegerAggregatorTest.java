@@ -10,6 +10,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.common.Type;
+import simpledb.common.Utility;
 import simpledb.execution.Aggregator;
 import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
@@ -182,6 +183,27 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator over more groups than its tables start with,
+   * including negative group values and averages
+   */
+  @Test public void manyGroups() throws Exception {
+    final int groups = 1000;
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    int[] expected = new int[groups * 2];
+    for (int g = 0; g < groups; g++) {
+      int key = (g - groups / 2) * 7;
+      // values -g and -g - 1 average to -g - 0.5, truncated towards zero
+      agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { key, -g }));
+      agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { key, -g - 1 }));
+      expected[2 * g] = key;
+      expected[2 * g + 1] = -g;
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
+  }
+
   /**
    * JUnit suite target
    */
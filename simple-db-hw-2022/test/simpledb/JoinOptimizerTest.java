@@ -12,6 +12,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.execution.Predicate;
+import simpledb.execution.algorithm.HashJoin;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
 import simpledb.optimizer.TableStats;
@@ -154,6 +155,35 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         checkJoinEstimateCosts(jo, equalsJoinNode);
     }
 
+    /**
+     * Equi-joins are costed as the hash joins they run as: each input is read
+     * once, and written to and read back from spill files only if neither side
+     * fits in the join's memory budget.
+     */
+    @Test
+    public void estimateHashJoinCostTest() throws ParsingException, IOException {
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(new TransactionId(), "SELECT * FROM "
+                + tableName1 + " t1, " + tableName2
+                + " t2 WHERE t1.c1 = t2.c2;"), new ArrayList<>());
+        LogicalJoinNode equalsJoinNode = new LogicalJoinNode("t1", "t2",
+                "c1", "c2", Predicate.Op.EQUALS);
+
+        Assert.assertEquals(5.0 + 7.0 + 1000 + 10000,
+                jo.estimateJoinCost(equalsJoinNode, 1000, 10000, 5.0, 7.0), 1e-9);
+
+        int tupleSize = f1.getTupleDesc().getSize();
+        int fits = (int) (HashJoin.DEFAULT_MEMORY_BUDGET / tupleSize);
+        Assert.assertEquals(5.0 + 7.0 + fits + 10 * fits,
+                jo.estimateJoinCost(equalsJoinNode, fits, 10 * fits, 5.0, 7.0), 1e-9);
+
+        int spills = fits + 1;
+        double spillPages = Math.ceil(2.0 * spills * tupleSize / BufferPool.getPageSize());
+        // both inputs written and read back, at 1000 per page like TableStats
+        Assert.assertEquals(5.0 + 7.0 + 2 * spills + 2 * spillPages * 1000,
+                jo.estimateJoinCost(equalsJoinNode, spills, spills, 5.0, 7.0), 1e-9);
+    }
+
     private void checkJoinEstimateCosts(JoinOptimizer jo,
             LogicalJoinNode equalsJoinNode) {
         int[] card1s = new int[20];
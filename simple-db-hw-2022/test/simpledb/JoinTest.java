@@ -13,6 +13,9 @@ import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.execution.algorithm.BlockNestedLoopJoin;
+import simpledb.execution.algorithm.HashJoin;
+import simpledb.execution.algorithm.JoinStrategy;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -112,6 +115,136 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() using an = predicate and a hash join
+   */
+  @Test public void hashEqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, scan1, scan2, JoinStrategy.Hash);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for Join.getNext() using an = predicate and a sort-merge join
+   */
+  @Test public void sortMergeEqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, scan1, scan2, JoinStrategy.SortMerge);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * A sort-merge join pairs every tuple of a key on one side with every tuple
+   * of that key on the other
+   */
+  @Test public void sortMergeDuplicateKeys() throws Exception {
+    OpIterator l = TestUtil.createTupleList(width1,
+        new int[] { 2, 0, 1, 0, 2, 1, 3, 0, 2, 2 });
+    OpIterator r = TestUtil.createTupleList(width2,
+        new int[] { 2, 0, 0, 4, 0, 0, 2, 1, 1, 1, 0, 0, 2, 2, 2 });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, l, r, JoinStrategy.SortMerge);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(width1));
+      count++;
+    }
+    // key 1: 1 x 1, key 2: 3 x 3
+    assertEquals(10, count);
+  }
+
+  /**
+   * A hash join with a &gt; predicate falls back to a nested loop join
+   */
+  @Test public void hashGtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Join op = new Join(pred, scan1, scan2, JoinStrategy.Hash);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * A hash join whose inputs exceed its memory budget partitions both to
+   * spill files, and still finds every match
+   */
+  @Test public void hashJoinSpills() throws Exception {
+    int keys = 50, perKey = 6;
+    int[] left = new int[keys * perKey * width1];
+    int[] right = new int[keys * perKey * width2];
+    for (int i = 0; i < keys * perKey; i++) {
+      left[i * width1] = i % keys;
+      left[i * width1 + 1] = i;
+      right[i * width2] = i % keys;
+      right[i * width2 + 1] = i;
+      right[i * width2 + 2] = -i;
+    }
+    OpIterator l = TestUtil.createTupleList(width1, left);
+    OpIterator r = TestUtil.createTupleList(width2, right);
+    l.open();
+    r.open();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    // room for a handful of tuples: forces partitioning, and a second level
+    HashJoin join = new HashJoin(pred, l, r, 64);
+    int count = 0;
+    Tuple t;
+    while ((t = join.fetchNext()) != null) {
+      assertEquals(t.getField(0), t.getField(width1));
+      count++;
+    }
+    join.close();
+    assertEquals(keys * perKey * perKey, count);
+  }
+
+  /**
+   * Unit test for Join.getNext() using a &gt; predicate and a block nested-loop join
+   */
+  @Test public void blockNestedLoopGtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Join op = new Join(pred, scan1, scan2, JoinStrategy.BlockNestedLoop);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * A block nested-loop join whose outer spans several blocks finds the same
+   * matches as a tuple-at-a-time nested loop join
+   */
+  @Test public void blockNestedLoopManyBlocks() throws Exception {
+    int n = 3 * BlockNestedLoopJoin.tuplesPerBlock(Utility.getTupleDesc(width1), 1) + 7;
+    int[] left = new int[n * width1];
+    for (int i = 0; i < n; i++) {
+      left[i * width1] = i % 13;
+    }
+    OpIterator l = TestUtil.createTupleList(width1, left);
+    l.open();
+    scan2.open();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0);
+    BlockNestedLoopJoin join = new BlockNestedLoopJoin(pred, l, scan2, 1);
+    int count = 0;
+    Tuple t;
+    while ((t = join.fetchNext()) != null) {
+      assertTrue(t.getField(0).compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(width1)));
+      count++;
+    }
+    int expected = 0;
+    for (int i = 0; i < n; i++) {
+      for (int k = 1; k <= 5; k++) {
+        if (i % 13 <= k) {
+          expected++;
+        }
+      }
+    }
+    assertEquals(expected, count);
+  }
+
   /**
    * JUnit suite target
    */
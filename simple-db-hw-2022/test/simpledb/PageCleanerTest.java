@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    @After public void tearDown() {
+        Database.getBufferPool().stopPageCleaner();
+    }
+
+    private static Tuple magicTuple() {
+        return Utility.getHeapTuple(new int[]{-42, -43});
+    }
+
+    private static void commitMagicTuple(HeapFile hf) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), magicTuple());
+        t.commit();
+    }
+
+    // read the file directly, bypassing the buffer pool
+    private static boolean magicTupleOnDisk(HeapFile hf) {
+        for (int i = 0; i < hf.numPages(); i++) {
+            Iterator<Tuple> it = ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), i))).iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (((IntField) t.getField(0)).getValue() == -42
+                        && ((IntField) t.getField(1)).getValue() == -43) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * With a page cleaner, commit logs the page but leaves it in the buffer
+     * pool until it is written back.
+     */
+    @Test public void commitDefersPageWrite() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        // the watermarks are out of reach of a single page
+        bp.startPageCleaner(0.5, 0.9);
+
+        commitMagicTuple(hf);
+        assertEquals(1.0 / BufferPool.DEFAULT_PAGES, bp.getDirtyRatio(), 1e-9);
+        assertFalse(magicTupleOnDisk(hf));
+
+        bp.flushAllPages();
+        assertEquals(0.0, bp.getDirtyRatio(), 1e-9);
+        assertTrue(magicTupleOnDisk(hf));
+    }
+
+    /**
+     * Reaching the high watermark wakes the cleaner up, which writes pages
+     * back down to the low watermark.
+     */
+    @Test public void cleanerWritesBackAtHighWatermark() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        bp.startPageCleaner(0.0, 0.25);
+
+        commitMagicTuple(hf);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.getDirtyRatio() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0.0, bp.getDirtyRatio(), 1e-9);
+        assertTrue(magicTupleOnDisk(hf));
+    }
+
+    /**
+     * A commit whose pages were never written back survives a crash: recovery
+     * redoes it from the log.
+     */
+    @Test public void recoverUnwrittenCommit() throws Exception {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 1 << 16, null, null);
+        HeapFile hf = Utility.openHeapFile(2, file);
+        Database.getBufferPool().startPageCleaner(0.5, 0.9);
+
+        commitMagicTuple(hf);
+        assertFalse(magicTupleOnDisk(hf));
+
+        // crash
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertTrue(magicTupleOnDisk(hf));
+    }
+
+    /**
+     * NO_FORCE without a cleaner: commit leaves the page in the buffer pool,
+     * and eviction writes it back when the frame is needed.
+     */
+    @Test public void noForceEvictionWritesBack() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        // a single frame: eviction cannot get around the committed page
+        BufferPool bp = Database.resetBufferPool(1);
+        bp.setCommitPolicy(BufferPool.CommitPolicy.NO_FORCE);
+
+        commitMagicTuple(hf);
+        assertFalse(magicTupleOnDisk(hf));
+        assertEquals(1.0, bp.getDirtyRatio(), 1e-9);
+
+        // scanning the table needs the frame for the other pages
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        t.commit();
+        assertTrue(magicTupleOnDisk(hf));
+    }
+
+    /**
+     * NO_FORCE: the commit is redone from the log after a crash.
+     */
+    @Test public void noForceRecoverAfterCrash() throws Exception {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 1 << 16, null, null);
+        HeapFile hf = Utility.openHeapFile(2, file);
+        Database.getBufferPool().setCommitPolicy(BufferPool.CommitPolicy.NO_FORCE);
+
+        commitMagicTuple(hf);
+        assertFalse(magicTupleOnDisk(hf));
+
+        // crash
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertTrue(magicTupleOnDisk(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    private final TransactionId tid = new TransactionId();
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A range scan reads only the pages of its range.
+     */
+    @Test public void rangeScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        assertTrue(f.numPages() > 2);
+        int perPage = BufferPool.getPageSize() * 8 / (f.getTupleDesc().getSize() * 8 + 1);
+        SystemTestUtil.matchTuples(new SeqScan(tid, f.getId(), "t", 1, 2), tuples.subList(perPage, 2 * perPage));
+    }
+
+    /**
+     * The workers together return every tuple exactly once.
+     */
+    @Test public void scansAllPages() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 10000, null, tuples);
+        ParallelScan scan = new ParallelScan(tid, f.getId(), "t", 4);
+        assertEquals(4, scan.getChildren().length);
+        SystemTestUtil.matchTuples(scan, tuples);
+    }
+
+    /**
+     * Filters pushed into the workers, read twice through rewind.
+     */
+    @Test public void filterPerWorker() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10000, null, tuples);
+        ParallelScan scan = new ParallelScan(tid, f.getId(), "t", 3);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1 << 14));
+        OpIterator[] workers = scan.getChildren();
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Filter(p, workers[i]);
+        }
+        scan.setChildren(workers);
+        List<List<Integer>> expected = tuples.stream().filter(t -> t.get(0) < 1 << 14).collect(Collectors.toList());
+
+        scan.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int count = 0;
+            while (scan.hasNext()) {
+                assertTrue(((IntField) scan.next().getField(0)).getValue() < 1 << 14);
+                count++;
+            }
+            assertEquals(expected.size(), count);
+            scan.rewind();
+        }
+        scan.close();
+    }
+
+    /**
+     * Closing a scan that was not read to the end stops the workers.
+     */
+    @Test public void closeEarly() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, new ArrayList<>());
+        ParallelScan scan = new ParallelScan(tid, f.getId(), "t", 4);
+        scan.open();
+        for (int i = 0; i < 10; i++) {
+            scan.next();
+        }
+        scan.close();
+    }
+
+    /**
+     * The planner scans a large table in parallel, filtering in the workers.
+     */
+    @Test public void plannedForLargeTables() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 70000, null, tuples, "c");
+        assertTrue(f.numPages() >= 2 * ParallelScan.MIN_PAGES_PER_WORKER);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(f.getId()), new TableStats(f.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, String.valueOf(1 << 14));
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+
+        int max = ParallelScan.getMaxParallelism();
+        OpIterator plan;
+        try {
+            ParallelScan.setMaxParallelism(4);
+            plan = lp.physicalPlan(tid, stats, false);
+        } finally {
+            ParallelScan.setMaxParallelism(max);
+        }
+        OpIterator child = ((Project) plan).getChildren()[0];
+        assertTrue(child instanceof ParallelScan);
+        ParallelScan scan = (ParallelScan) child;
+        assertEquals(2, scan.getChildren().length);
+        assertTrue(scan.getChildren()[0] instanceof Filter);
+        SystemTestUtil.matchTuples(plan, tuples.stream().filter(t -> t.get(0) < 1 << 14).collect(Collectors.toList()));
+    }
+
+    /**
+     * The degree of parallelism grows with the table and is capped.
+     */
+    @Test public void degreeOfParallelism() {
+        int max = ParallelScan.getMaxParallelism();
+        try {
+            ParallelScan.setMaxParallelism(8);
+            assertEquals(1, ParallelScan.degreeOfParallelism(10));
+            assertEquals(2, ParallelScan.degreeOfParallelism(2 * ParallelScan.MIN_PAGES_PER_WORKER));
+            assertEquals(8, ParallelScan.degreeOfParallelism(1000 * ParallelScan.MIN_PAGES_PER_WORKER));
+        } finally {
+            ParallelScan.setMaxParallelism(max);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SequentialPrefetcherTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Pages read ahead are served from the buffer pool.
+     */
+    @Test public void prefetchedPagesAreHits() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        assertEquals(4, hf.prefetchPages(2, 4));
+        for (int i = 2; i < 6; i++) {
+            PageId pid = new HeapPageId(hf.getId(), i);
+            assertTrue(bp.isResident(pid));
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        assertEquals(4, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+        // clamped to the end of the file
+        assertEquals(0, hf.prefetchPages(hf.numPages(), 4));
+    }
+
+    /**
+     * Read-ahead never replaces a resident page, which may be newer than the
+     * copy on disk.
+     */
+    @Test public void prefetchKeepsResidentPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        PageId first = new HeapPageId(hf.getId(), 0);
+
+        Page resident = bp.getPage(tid, first, Permissions.READ_WRITE);
+        resident.markDirty(true, tid);
+        assertEquals(2, hf.prefetchPages(0, 3));
+        assertSame(resident, bp.getPage(tid, first, Permissions.READ_WRITE));
+    }
+
+    /**
+     * Pages read before a concurrent write are not installed.
+     */
+    @Test public void installRefusedAfterWrite() throws Exception {
+        File file = File.createTempFile("prefetch", ".dat");
+        file.deleteOnExit();
+        PageFileChannel channel = new PageFileChannel(file);
+
+        long version = channel.getWriteVersion();
+        channel.write(0, new byte[BufferPool.getPageSize()]);
+        assertEquals(0, channel.installIfUnchanged(version, () -> 1));
+        assertEquals(1, channel.installIfUnchanged(channel.getWriteVersion(), () -> 1));
+        channel.close();
+    }
+
+    /**
+     * A scan with read-ahead sees every tuple and leaves nothing pinned.
+     */
+    @Test public void scanWithReadAhead() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(20000, count);
+        for (int i = 0; i < hf.numPages(); i++) {
+            assertEquals(0, bp.getPinCount(new HeapPageId(hf.getId(), i)));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SequentialPrefetcherTest.class);
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.BatchIterator;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TupleBatch;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    private static List<String> readRows(OpIterator it) throws Exception {
+        List<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        return rows;
+    }
+
+    private static List<String> readBatches(OpIterator it) throws Exception {
+        List<String> rows = new ArrayList<>();
+        BatchIterator bi = BatchIterator.of(it);
+        bi.open();
+        TupleBatch batch;
+        while ((batch = bi.nextBatch()) != null) {
+            assertTrue(batch.numSelected() > 0);
+            for (int i = 0; i < batch.numSelected(); i++) {
+                rows.add(batch.getTuple(batch.selectedRow(i)).toString());
+            }
+        }
+        bi.close();
+        return rows;
+    }
+
+    /**
+     * A batch scan of a heap file returns the same tuples as a row scan, in
+     * the same order.
+     */
+    @Test public void seqScanBatches() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        List<String> rows = readRows(new SeqScan(tid, f.getId()));
+        assertEquals(5000, rows.size());
+        assertEquals(rows, readBatches(new SeqScan(tid, f.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Filter and Project over batches agree with the row-at-a-time path.
+     */
+    @Test public void filterProjectBatches() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            if (op == Predicate.Op.LIKE) {
+                continue;
+            }
+            Predicate p = new Predicate(1, op, new IntField(1 << 15));
+            List<String> rows = readRows(project(new Filter(p, new SeqScan(tid, f.getId()))));
+            List<String> batches = readBatches(project(new Filter(p, new SeqScan(tid, f.getId()))));
+            assertEquals(rows, batches);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A conjunction filters heap tuples the same way on both paths.
+     */
+    @Test public void filterConjunctionBatches() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, null, tuples);
+        TransactionId tid = new TransactionId();
+        List<Predicate> ps = Arrays.asList(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1 << 15)),
+                new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1 << 14)));
+        long expected = tuples.stream().filter(t -> t.get(0) < 1 << 15 && t.get(2) >= 1 << 14).count();
+        List<String> rows = readRows(new Filter(ps, new SeqScan(tid, f.getId())));
+        assertEquals(expected, rows.size());
+        assertEquals(rows, readBatches(new Filter(ps, new SeqScan(tid, f.getId()))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Iterators without a batch implementation are read through an adapter.
+     */
+    @Test public void adaptsRowIterators() throws Exception {
+        OpIterator child = TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4, 5, 6 });
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1));
+        assertEquals(Arrays.asList("3\t4\n", "5\t6\n"), readBatches(new Filter(p, child)));
+    }
+
+    private static OpIterator project(OpIterator child) {
+        return new Project(Arrays.asList(2, 0), new Type[] { Type.INT_TYPE, Type.INT_TYPE }, child);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
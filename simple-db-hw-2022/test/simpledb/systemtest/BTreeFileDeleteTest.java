@@ -109,7 +109,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 				tid, rootPtrId, Permissions.READ_ONLY);
 		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
 				tid, rootPtr.getRootId(), Permissions.READ_ONLY);
-		assertEquals(502, root.getNumEmptySlots());
+		assertEquals(500, root.getNumEmptySlots());
 		BTreeEntry e = root.iterator().next();
 		BTreeLeafPage leftChild = (BTreeLeafPage) Database.getBufferPool().getPage(
 				tid, e.getLeftChild(), Permissions.READ_ONLY);
@@ -189,8 +189,8 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 	@Test
 	public void testRedistributeInternalPages() throws Exception {
 		// This should create a B+ tree with two nodes in the second tier
-		// and 602 nodes in the third tier
-		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 302204,
+		// and 600 nodes in the third tier
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 301200,
 				null, null, 0);
 		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
 
@@ -200,7 +200,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 				tid, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
 		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
 				tid, rootPtr.getRootId(), Permissions.READ_ONLY);
-		assertEquals(502, root.getNumEmptySlots());
+		assertEquals(500, root.getNumEmptySlots());
 
 		BTreeEntry rootEntry = root.iterator().next();
 		BTreeInternalPage leftChild = (BTreeInternalPage) Database.getBufferPool().getPage(
@@ -223,7 +223,7 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 
 		// deleting a page of tuples should bring the internal page below minimum 
 		// occupancy and cause the entries to be redistributed
-		assertEquals(252, rightChild.getNumEmptySlots());
+		assertEquals(251, rightChild.getNumEmptySlots());
 		count = 0;
 		while(it.hasNext() && count < 502) {
 			BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, 
@@ -233,8 +233,8 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 			it = rightChild.iterator();
 			count++;
 		}
-		assertTrue(leftChild.getNumEmptySlots() > 203);
-		assertTrue(rightChild.getNumEmptySlots() <= 252);
+		assertTrue(leftChild.getNumEmptySlots() > 202);
+		assertTrue(rightChild.getNumEmptySlots() <= 251);
 		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
 
 		// sanity check that the entries make sense
@@ -252,7 +252,8 @@ public class BTreeFileDeleteTest extends SimpleDbTestBase {
 	@Test
 	public void testDeleteInternalPages() throws Exception {
     	// For this test we will decrease the size of the Buffer Pool pages
-    	BufferPool.setPageSize(1024);
+    	// (1026 bytes fit 124 entries on internal pages as well as on leaf pages)
+    	BufferPool.setPageSize(1026);
 		
 		// This should create a B+ tree with three nodes in the second tier
 		// and 252 nodes in the third tier